@@ -2,6 +2,7 @@ package app_kvClient;
 
 import client.KVStore;
 import client.KVCommInterface;
+import client.RoutingKVStore;
 import client.ClientSocketListener;
 import logger.LogSetup;
 import org.apache.log4j.Level;
@@ -14,6 +15,7 @@ import shared.messages.Pair;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.lang.*;
 import java.io.*;
 import java.io.BufferedReader;
@@ -28,6 +30,9 @@ public class KVClient implements IKVClient, ClientSocketListener {
     private static Logger logger = Logger.getLogger(KVClient.class);
     private BufferedReader stdin;
     public KVStore kvstore = null;
+    /** serves put and get over pooled connections to every server, see newConnection */
+    private RoutingKVStore router = null;
+    private RoutingKVStore.ReadPolicy readPolicy = RoutingKVStore.ReadPolicy.PRIMARY;
     private boolean stop = false;
     private String serverAddress;
     private int serverPort;
@@ -37,7 +42,8 @@ public class KVClient implements IKVClient, ClientSocketListener {
     private boolean firstConnection = true;
     private String myID = "";
     private String PROMPT = "M4Client> ";
-    private List<String> key_subs = new ArrayList<String>();
+    // also updated from the connection's reader thread when a key is deleted
+    private List<String> key_subs = new CopyOnWriteArrayList<String>();
     private boolean desiredDisconnect = false;
 
     /**
@@ -61,27 +67,6 @@ public class KVClient implements IKVClient, ClientSocketListener {
         }
     }
 
-    public void run_listener() { //taken from m0 Application
-        while(!stop) {
-
-            try {
-                if (this.kvstore != null && kvstore.getInputAvailable() > 0) {
-                    KVMessage msg = kvstore.receiveMessage(true);
-                    if (msg != null && msg.getStatus() == IKVMessage.StatusType.NOTIFY) {
-                        key_subs.remove(msg.getKey());
-                    }
-                }
-                Thread.sleep(1);
-            } catch (IOException ioe) {
-                logger.debug("Listener thread disconnecting...");
-                System.out.println(PROMPT);
-            } catch (Exception e){
-//                logger.warn("The following error occurred:", e);
-//                printError("Unknown error occurred.");
-            }
-        }
-    }
-
     public static int getRandomNumberUsingInts(int min, int max) {
         Random random = new Random();
         return random.ints(min, max)
@@ -102,6 +87,7 @@ public class KVClient implements IKVClient, ClientSocketListener {
         if(tokens[0].equals("quit")) {
             stop = true;
             disconnect();
+            if (router != null) router.disconnect();
             System.out.println(PROMPT + "Application exit!");
 
         }
@@ -198,32 +184,9 @@ public class KVClient implements IKVClient, ClientSocketListener {
                 //if there is a connected client
                 if(kvstore != null){
                     String key = tokens[1];
-
-                    String currServerAddPort = serverAddress + ":" + serverPort;
-                    String newServerAddPort;
-                    String succ1 = currServerAddPort;
-                    String succ2 = currServerAddPort;
-                    if (metadata != null && !deadServer) {
-                        newServerAddPort = metadata.findServer(key);
-                        succ1 = metadata.getNthSuccessor(newServerAddPort, 1).getFirst();
-                        succ2 = metadata.getNthSuccessor(newServerAddPort, 2).getFirst();
-                    }
-                    else newServerAddPort = currServerAddPort;
-                    deadServer = false;
-
-                    //IF THE CURRENTLY CONNECTED SERVER IS NOT THE CORRECT SERVER OR A REPLICA
-                    if(currServerAddPort.compareTo(newServerAddPort) != 0 && currServerAddPort.compareTo(succ1) != 0
-                            && currServerAddPort.compareTo(succ2) != 0)
-                    {
-                        disconnect();
-                        String[] IPPort = newServerAddPort.split(":");
-                        serverAddress = IPPort[0];
-                        serverPort = Integer.parseInt(IPPort[1]);
-                        newConnection(serverAddress, serverPort);
-                    }
-
                     try {
-                        KVMessage response = (KVMessage) kvstore.get(key);
+                        // the router goes straight to the key's server and refreshes metadata itself
+                        KVMessage response = (KVMessage) router.get(key);
 
                         if(response.getStatus() == IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE)
                         {
@@ -263,6 +226,24 @@ public class KVClient implements IKVClient, ClientSocketListener {
         } else if(tokens[0].equals("disconnect")) {
             desiredDisconnect = true;
             disconnect();
+            if (router != null) {
+                router.disconnect();
+                router = null;
+            }
+
+        } else if(tokens[0].equals("read_policy")) {
+            if(tokens.length == 2) {
+                try {
+                    readPolicy = RoutingKVStore.ReadPolicy.valueOf(tokens[1].toUpperCase());
+                    if (router != null) router.setReadPolicy(readPolicy);
+                    System.out.println(PROMPT + "Read policy changed to " + readPolicy);
+                } catch (IllegalArgumentException e) {
+                    printError("No valid read policy!");
+                    System.out.println(PROMPT + "PRIMARY | ROUND_ROBIN | LEAST_OUTSTANDING | LATENCY_WEIGHTED");
+                }
+            } else {
+                printError("Invalid number of parameters!");
+            }
 
         } else if(tokens[0].equals("logLevel")) {
             if(tokens.length == 2) {
@@ -447,24 +428,8 @@ public class KVClient implements IKVClient, ClientSocketListener {
                         msg.append(" ");
                     }
                 }
-                String currServerAddPort = serverAddress + ":" + serverPort;
-                String newServerAddPort;
-                if (metadata != null && !deadServer) {
-                    newServerAddPort = metadata.findServer(key);
-                }
-                else newServerAddPort = currServerAddPort;
-
-                deadServer = false;
-                if(currServerAddPort.compareTo(newServerAddPort) != 0)
-                {
-                    disconnect();
-                    String[] IPPort = newServerAddPort.split(":");
-                    serverAddress = IPPort[0];
-                    serverPort = Integer.parseInt(IPPort[1]);
-                    newConnection(serverAddress, serverPort);
-                }
-
-                KVMessage response = (KVMessage) kvstore.put(key, msg.toString());
+                // the router goes straight to the key's server and refreshes metadata itself
+                KVMessage response = (KVMessage) router.put(key, msg.toString());
                 //handleNewMessage(response);
                 if(response.getStatus() == IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE)
                 {
@@ -513,6 +478,10 @@ public class KVClient implements IKVClient, ClientSocketListener {
         sb.append("\t\t\t\t prints the primary keyranges of all active servers \n");
         sb.append(PROMPT).append("keyrange_read");
         sb.append("\t\t\t prints the keyrange of all accessible data on all active servers \n");
+        sb.append(PROMPT).append("read_policy <policy>");
+        sb.append("\t\t chooses which of a key's servers answer gets \n");
+        sb.append(PROMPT).append("\t\t\t\t\t\t ");
+        sb.append("PRIMARY | ROUND_ROBIN | LEAST_OUTSTANDING | LATENCY_WEIGHTED \n");
         sb.append(PROMPT).append("disconnect");
         sb.append("\t\t\t disconnects from the server \n");
 
@@ -640,6 +609,15 @@ public class KVClient implements IKVClient, ClientSocketListener {
                 if(response.getStatus() == IKVMessage.StatusType.CONNECT_ERROR)
                     printError("Error sending client ID to server!");
             }
+
+            // one router for the whole session; it keeps its connections across server switches
+            if (router == null) {
+                router = new RoutingKVStore(hostname, port);
+                router.setClientID(myID);
+                router.setReadPolicy(readPolicy);
+                router.addListener(this);
+                router.connect();
+            }
     }
 
     /**
@@ -662,6 +640,19 @@ public class KVClient implements IKVClient, ClientSocketListener {
         }
     }
 
+    @Override
+    public void handleNotification(KVMessage msg) {
+        String key = msg.getKey().substring(8);
+        String operation = msg.getKey().substring(0,6);
+        if(operation.equals("DELETE")) {
+            key_subs.remove(key);
+            System.out.println("NOTIFICATION: Key " + key + " was deleted.");
+        }
+        else
+            System.out.println("NOTIFICATION: Key " + key + " was updated.");
+        System.out.print(PROMPT);
+    }
+
     /**
      * Acts on the socket status.
      * @param status the socket status.
@@ -718,10 +709,6 @@ public class KVClient implements IKVClient, ClientSocketListener {
         try {
             new LogSetup("logs/KVClient.log", Level.ALL);
             KVClient client = new KVClient();
-            MyRunnable myRunnable = new MyRunnable(client);
-            //myRunnable.client = client;
-            Thread thread = new Thread(myRunnable);
-            thread.start();
             client.run();
         } catch (IOException e) {
             System.out.println("Error! Unable to initialize logger!");
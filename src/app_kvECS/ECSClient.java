@@ -1,7 +1,6 @@
 package app_kvECS;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -13,6 +12,7 @@ import logger.LogSetup;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import shared.Range;
+import shared.RingHash;
 import shared.messages.IKVMessage;
 import shared.messages.IKVMessage.ServerState;
 import shared.messages.KVMessage;
@@ -30,8 +30,7 @@ public class ECSClient implements IECSClient {
     private Map<String, ECSNode> kvNodes;
     private final int SOCKET_TIMEOUT = 100;
     private final int BACKLOG = 50;
-    BigInteger HASH_MAX = new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF", 16);
-    private final Range FULL_RANGE = new Range(BigInteger.ZERO, HASH_MAX);
+    private final Range FULL_RANGE = new Range(RingHash.ZERO, RingHash.MAX);
     private final Queue<Notification> notificationQueue = new ConcurrentLinkedQueue<>();
 
     /**
@@ -3,6 +3,7 @@ package app_kvServer;
 import org.apache.log4j.Logger;
 import shared.comms.CommModule;
 import shared.messages.IKVMessage;
+import shared.messages.KVBatch;
 import shared.messages.KVMessage;
 
 import java.io.IOException;
@@ -10,6 +11,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -33,6 +35,8 @@ public class ClientConnection implements Runnable {
 	private OutputStream output;
 	private KVServer kvServer;
 	private String clientID;
+	/** set when the connection is served by the non-blocking front end */
+	private NioFrontEnd.Session session;
 
 	private List<String> subs;
 	
@@ -47,6 +51,17 @@ public class ClientConnection implements Runnable {
 		this.isOpen = true;
 		this.clientID = null;
 	}
+
+	/**
+	 * Constructs a ClientConnection whose messages are read and written by a
+	 * {@link NioFrontEnd} instead of a thread of its own.
+	 * @param session the front end's state for this connection
+	 * @param kvServer the server that this client is connected to
+	 */
+	ClientConnection(NioFrontEnd.Session session, KVServer kvServer) {
+		this(session.channel.socket(), kvServer);
+		this.session = session;
+	}
 	
 	/**
 	 * Initializes and starts the client connection. 
@@ -64,20 +79,7 @@ public class ClientConnection implements Runnable {
 					// NOTE: may or may not need to wrap this part in a lock to prevent
 					// 			other threads from interrupting protocol messages.
 					KVMessage request = receiveMessage();
-					boolean isServerPut = request.getStatus() == IKVMessage.StatusType.SERVER_PUT;
-					KVMessage response = handleClientMessage(request);
-					sendMessage(response);
-
-					//notify
-					if (!isServerPut && (
-							response.getStatus() == IKVMessage.StatusType.PUT_SUCCESS ||
-							response.getStatus() == IKVMessage.StatusType.PUT_UPDATE ||
-							response.getStatus() == IKVMessage.StatusType.DELETE_SUCCESS
-					)){
-						if (subs != null){
-							handleSubscriptions(subs, response);
-						}
-					}
+					handle(request);
 					
 				/* connection either terminated by the client or lost due to 
 				 * network problems */
@@ -96,17 +98,59 @@ public class ClientConnection implements Runnable {
 				if (clientSocket != null) {
 					input.close();
 					output.close();
-					clientSocket.close();
+					CommModule.closeSocket(clientSocket);
 				}
 			} catch (IOException ioe) {
 				logger.error("Error! Unable to tear down connection!", ioe);
 			}
-			if (clientID != null) {
-				kvServer.clientConnections.remove(clientID);
+			closed();
+		}
+	}
+
+	/**
+	 * Handles one request: sends the response and notifies subscribers
+	 * if the request changed a key.
+	 * @param request the message received from the client
+	 * @throws IOException if the response cannot be sent
+	 */
+	void handle(KVMessage request) throws IOException {
+		boolean isServerPut = request.getStatus() == IKVMessage.StatusType.SERVER_PUT;
+		int requestId = request.getId();
+		KVMessage response = handleClientMessage(request);
+		// pipelining clients match responses to requests by this ID
+		response.setId(requestId);
+		sendMessage(response);
+		// the acknowledgement still goes out in the old format
+		if (response.getStatus() == IKVMessage.StatusType.PROTOCOL_SUCCESS) {
+			if (session != null)
+				session.binary = true;
+			else
+				CommModule.setBinary(clientSocket, true);
+		}
+
+		//notify
+		if (!isServerPut && (
+				response.getStatus() == IKVMessage.StatusType.PUT_SUCCESS ||
+				response.getStatus() == IKVMessage.StatusType.PUT_UPDATE ||
+				response.getStatus() == IKVMessage.StatusType.DELETE_SUCCESS ||
+				response.getStatus() == IKVMessage.StatusType.PUT_UNDER_REPLICATED ||
+				response.getStatus() == IKVMessage.StatusType.DELETE_UNDER_REPLICATED
+		)){
+			if (subs != null){
+				handleSubscriptions(subs, response);
 			}
 		}
 	}
 
+	/**
+	 * Forgets the client once its connection is gone
+	 */
+	void closed() {
+		if (clientID != null) {
+			kvServer.clientConnections.remove(clientID);
+		}
+	}
+
 	/**
 	 * Check if the server is stopped
 	 * @return true or false
@@ -129,7 +173,7 @@ public class ClientConnection implements Runnable {
 				if (checkStopped()){
 					return new KVMessage(IKVMessage.StatusType.SERVER_STOPPED, "", "");
 				}
-				if (!kvServer.isResponsible(msg.getKey()) && !kvServer.isReplicaResponsible(msg.getKey())){
+				if (kvServer.ownership(msg.getKey()) == IKVServer.Ownership.NONE){
 					return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
 				}
 				try {
@@ -148,7 +192,7 @@ public class ClientConnection implements Runnable {
 				if (checkStopped()){
 					return new KVMessage(IKVMessage.StatusType.SERVER_STOPPED, "", "");
 				}
-				if (!kvServer.isResponsible(msg.getKey())){
+				if (kvServer.ownership(msg.getKey()) != IKVServer.Ownership.PRIMARY){
 					return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
 				}
 			case SERVER_PUT:
@@ -156,7 +200,7 @@ public class ClientConnection implements Runnable {
 					msg.setStatus(IKVMessage.StatusType.SERVER_WRITE_LOCK);
 					return msg;
 				}
-				if (!kvServer.isResponsible(msg.getKey()) && !kvServer.isReplicaResponsible(msg.getKey())){
+				if (kvServer.ownership(msg.getKey()) == IKVServer.Ownership.NONE){
 					return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
 				}
 				boolean isUpdate = false;
@@ -169,11 +213,14 @@ public class ClientConnection implements Runnable {
 
 					boolean deleteSuccessful = isUpdate && (msg.getValue() == null);
 
-					if (msg.getStatus() == IKVMessage.StatusType.PUT){
-						kvServer.replicate(msg.getKey(), msg.getValue());
-					}
+					boolean replicated = msg.getStatus() != IKVMessage.StatusType.PUT
+							|| kvServer.replicate(msg.getKey(), msg.getValue());
 					// set the status
-					if (deleteSuccessful) {
+					if (!replicated) {
+						// stored and visible here, so not an error, but not on as many replicas as the ack policy asks
+						msg.setStatus(msg.getValue() == null ?
+								KVMessage.StatusType.DELETE_UNDER_REPLICATED : KVMessage.StatusType.PUT_UNDER_REPLICATED);
+					} else if (deleteSuccessful) {
 						msg.setStatus(KVMessage.StatusType.DELETE_SUCCESS);
 					} else if (isUpdate) {
 						msg.setStatus(KVMessage.StatusType.PUT_UPDATE);
@@ -189,6 +236,11 @@ public class ClientConnection implements Runnable {
 					}
 				}
 				break;
+			case MULTI_GET:
+				return handleMultiGet(msg);
+			case MULTI_PUT:
+			case SERVER_MULTI_PUT:
+				return handleMultiPut(msg);
 			case KEYRANGE:
 				msg.setStatus(IKVMessage.StatusType.KEYRANGE_SUCCESS);
 				msg.setKey(kvServer.getMetadata().toString());
@@ -201,7 +253,7 @@ public class ClientConnection implements Runnable {
 				msg.setValue("");
 				break;
 			case SUBSCRIBE:
-				if (!kvServer.isResponsible(msg.getKey())) {
+				if (kvServer.ownership(msg.getKey()) != IKVServer.Ownership.PRIMARY) {
 					return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
 				}
 				try {
@@ -219,7 +271,7 @@ public class ClientConnection implements Runnable {
 				msg.setStatus(IKVMessage.StatusType.SUBSCRIBE_SUCCESS);
 				break;
 			case UNSUBSCRIBE:
-				if (!kvServer.isResponsible(msg.getKey())) {
+				if (kvServer.ownership(msg.getKey()) != IKVServer.Ownership.PRIMARY) {
 					return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
 				}
 				try {
@@ -253,6 +305,12 @@ public class ClientConnection implements Runnable {
 				msg.setStatus(IKVMessage.StatusType.CONNECT_SUCCESS);
 //				kvServer.clientConnections.put(clientID, this);
 				break;
+			case PROTOCOL:
+				if (CommModule.BINARY.equals(msg.getKey()))
+					msg.setStatus(IKVMessage.StatusType.PROTOCOL_SUCCESS);
+				else
+					msg.setStatus(IKVMessage.StatusType.FAILED);
+				break;
 			case REQUEST_ID:
 				clientID = this.kvServer.getHostname() + ":"
 						+ this.kvServer.getPort() + ":"
@@ -268,12 +326,153 @@ public class ClientConnection implements Runnable {
 		return msg;
 	}
 	
+	/**
+	 * Answers a MULTI_GET with the values of all its keys. The batch is
+	 * rejected as a whole if this server cannot serve one of the keys, so the
+	 * client can refresh its metadata and split the batch again.
+	 * @param msg the MULTI_GET request
+	 * @return MULTI_GET_SUCCESS with the values in request order
+	 */
+	private KVMessage handleMultiGet(KVMessage msg) {
+		if (checkStopped()){
+			return new KVMessage(IKVMessage.StatusType.SERVER_STOPPED, "", "");
+		}
+		List<String> keys;
+		try {
+			keys = KVBatch.decode(msg.getValue());
+		} catch (IllegalArgumentException e) {
+			logger.error("Error! Malformed batch: " + e.getMessage());
+			msg.setStatus(IKVMessage.StatusType.FAILED);
+			return msg;
+		}
+		if (keys.contains(null)) {
+			return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
+		}
+		for (IKVServer.Ownership ownership : kvServer.ownership(keys)) {
+			if (ownership == IKVServer.Ownership.NONE){
+				return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
+			}
+		}
+
+		List<String> values = new ArrayList<>(keys.size());
+		for (String key : keys) {
+			try {
+				values.add(kvServer.getKV(key, false));
+			} catch (Exception e) {
+				logger.error("Error! Key not in key range: " + key, e);
+				values.add(null);
+			}
+		}
+		msg.setStatus(IKVMessage.StatusType.MULTI_GET_SUCCESS);
+		msg.setValue(KVBatch.encode(values));
+		return msg;
+	}
+
+	/**
+	 * Writes every pair of a MULTI_PUT, or of the SERVER_MULTI_PUT a primary
+	 * replicates it with. A client batch is replicated with one message per
+	 * successor once all pairs are written, and subscribers of the changed
+	 * keys are notified. Like a GET batch, it is rejected as a whole if this
+	 * server does not own one of the keys.
+	 * @param msg the request
+	 * @return MULTI_PUT_SUCCESS with the status of every pair
+	 */
+	private KVMessage handleMultiPut(KVMessage msg) {
+		boolean fromClient = msg.getStatus() == IKVMessage.StatusType.MULTI_PUT;
+		if (fromClient && checkStopped()){
+			return new KVMessage(IKVMessage.StatusType.SERVER_STOPPED, "", "");
+		}
+		List<String> pairs;
+		try {
+			pairs = KVBatch.decode(msg.getValue());
+			if (pairs.size() % 2 != 0) throw new IllegalArgumentException("Key without value");
+		} catch (IllegalArgumentException e) {
+			logger.error("Error! Malformed batch: " + e.getMessage());
+			msg.setStatus(IKVMessage.StatusType.FAILED);
+			return msg;
+		}
+		List<String> keys = new ArrayList<>(pairs.size() / 2);
+		for (int i = 0; i < pairs.size(); i += 2) {
+			if (pairs.get(i) == null) {
+				return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
+			}
+			keys.add(pairs.get(i));
+		}
+		for (IKVServer.Ownership ownership : kvServer.ownership(keys)) {
+			if (fromClient ? ownership != IKVServer.Ownership.PRIMARY : ownership == IKVServer.Ownership.NONE){
+				return new KVMessage(IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE, "", "");
+			}
+		}
+		if (kvServer.currStatus == KVMessage.ServerState.SERVER_WRITE_LOCK){
+			msg.setStatus(IKVMessage.StatusType.SERVER_WRITE_LOCK);
+			return msg;
+		}
+
+		List<String> statuses = new ArrayList<>(pairs.size() / 2);
+		List<String> written = new ArrayList<>(pairs.size() / 2);
+		List<KVMessage> changed = new ArrayList<>();
+		List<List<String>> changedSubs = new ArrayList<>();
+		for (int i = 0; i < pairs.size(); i += 2) {
+			String key = pairs.get(i);
+			String value = pairs.get(i + 1);
+			IKVMessage.StatusType status;
+			try {
+				List<String> keySubs = fromClient ? kvServer.getSubscribers(key) : null;
+				boolean isUpdate = kvServer.putKV(key, value, !fromClient);
+				if (isUpdate && value == null) {
+					status = IKVMessage.StatusType.DELETE_SUCCESS;
+				} else if (isUpdate) {
+					status = IKVMessage.StatusType.PUT_UPDATE;
+				} else {
+					status = IKVMessage.StatusType.PUT_SUCCESS;
+				}
+				written.add(key);
+				if (keySubs != null) {
+					changed.add(new KVMessage(status, key, value));
+					changedSubs.add(keySubs);
+				}
+			} catch (Exception e) {
+				if (value == null) {
+					status = IKVMessage.StatusType.DELETE_ERROR;
+				} else {
+					status = IKVMessage.StatusType.PUT_ERROR;
+					logger.error("Error! Unable to put value for key: " + key, e);
+				}
+			}
+			statuses.add(status.name());
+		}
+
+		if (fromClient) {
+			if (!kvServer.replicate(written)) {
+				// stored and visible here, but not on as many replicas as the ack policy asks
+				for (int i = 0; i < statuses.size(); i++) {
+					IKVMessage.StatusType status = IKVMessage.StatusType.valueOf(statuses.get(i));
+					if (status == IKVMessage.StatusType.DELETE_SUCCESS) {
+						statuses.set(i, IKVMessage.StatusType.DELETE_UNDER_REPLICATED.name());
+					} else if (status == IKVMessage.StatusType.PUT_SUCCESS || status == IKVMessage.StatusType.PUT_UPDATE) {
+						statuses.set(i, IKVMessage.StatusType.PUT_UNDER_REPLICATED.name());
+					}
+				}
+			}
+			for (int i = 0; i < changed.size(); i++) {
+				handleSubscriptions(changedSubs.get(i), changed.get(i));
+			}
+		}
+		msg.setStatus(IKVMessage.StatusType.MULTI_PUT_SUCCESS);
+		msg.setValue(KVBatch.encode(statuses));
+		return msg;
+	}
+
 	/**
 	 * Method sends a KVMessage using this socket.
 	 * @param msg the message that is to be sent.
 	 * @throws IOException some I/O error regarding the output stream 
 	 */
 	public void sendMessage(KVMessage msg) throws IOException {
+		if (session != null) {
+			session.send(msg);
+			return;
+		}
 		CommModule.sendMessage(msg, clientSocket);
     }
 
@@ -291,7 +490,8 @@ public class ClientConnection implements Runnable {
 			String subsString = subs.toString();
 			subsString = subsString.replaceAll("\\[", "").replaceAll("]","").replaceAll(" ", "");
 			String key = "UPDATED_" + msg.getKey();
-			if(msg.getStatus() == IKVMessage.StatusType.DELETE_SUCCESS)
+			if(msg.getStatus() == IKVMessage.StatusType.DELETE_SUCCESS
+					|| msg.getStatus() == IKVMessage.StatusType.DELETE_UNDER_REPLICATED)
 				key = "DELETED_" + msg.getKey();
 			CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.NOTIFY_SUBSCRIBERS, key, subsString), kvServer.ecsSocket);
 		}
@@ -92,23 +92,23 @@ public class ECSConnection implements Runnable{
             case TRANSFER:
                 String address = msg.getValue().split(":")[0];
                 String port = msg.getValue().split(":")[1];
-                int numSent = kvServer.transfer(address, port, msg.getKey());
+                String transferred = msg.getKey();
+                int numSent = kvServer.transfer(address, port, transferred);
                 msg.setKey(Integer.toString(numSent));
                 if (numSent >= 0) {
                     msg.setStatus(IKVMessage.StatusType.TRANSFER_SUCCESS);
-                    if (kvServer.cache != null)
-                        kvServer.clearCache();
+                    kvServer.invalidateCache(transferred);
                 }
                 else
                     msg.setStatus(IKVMessage.StatusType.TRANSFER_ERROR);
                 break;
             case DELETE_KEYRANGE:
-                int numDeleted = kvServer.deleteKeyrange(msg.getKey());
+                String deleted = msg.getKey();
+                int numDeleted = kvServer.deleteKeyrange(deleted);
                 msg.setKey(Integer.toString(numDeleted));
                 if (numDeleted >= 0) {
                     msg.setStatus(IKVMessage.StatusType.DELETE_KEYRANGE_SUCCESS);
-                    if (kvServer.cache != null)
-                        kvServer.clearCache();
+                    kvServer.invalidateCache(deleted);
                 }
                 else
                     msg.setStatus(IKVMessage.StatusType.DELETE_KEYRANGE_ERROR);
@@ -160,8 +160,7 @@ public class ECSConnection implements Runnable{
                 msg.setKey(Integer.toString(numKeysSent));
                 if (numKeysSent >= 0) {
                     msg.setStatus(IKVMessage.StatusType.REBALANCE_SUCCESS);
-                    if (kvServer.cache != null)
-                        kvServer.clearCache();
+                    kvServer.invalidateCache(value[0] + "," + value[1]);
                 }
                 else
                     msg.setStatus(IKVMessage.StatusType.REBALANCE_ERROR);
@@ -191,7 +190,7 @@ public class ECSConnection implements Runnable{
                 logger.info("Closing ECS-Server connection...");
                 input.close();
                 output.close();
-                ecs_socket.close();
+                CommModule.closeSocket(ecs_socket);
                 ecs_socket = null;
             }
         } catch (IOException ioe) {
@@ -7,7 +7,21 @@ public interface IKVServer {
         None,
         LRU,
         LFU,
-        FIFO
+        FIFO,
+        TinyLFU,    /* W-TinyLFU: LRU window, frequency-gated segmented LRU */
+        StripedLRU, /* LRU per lock-striped segment */
+        StripedFIFO /* FIFO per lock-striped segment */
+    };
+
+    public enum StorageType {
+        FILE,   /* one file per key */
+        LOG     /* segmented append-only log */
+    };
+
+    public enum Ownership {
+        PRIMARY,    /* key lies in this server's own range */
+        REPLICA,    /* key lies in the range of one of the two predecessors */
+        NONE
     };
 
     /**
@@ -1,26 +1,45 @@
 package app_kvServer;
 
+import app_kvServer.cache.ByteBudgetCache;
 import app_kvServer.cache.Cache;
 import app_kvServer.cache.FIFOCache;
+import app_kvServer.cache.HashBucketCache;
+import app_kvServer.cache.LFUCache;
 import app_kvServer.cache.LRUCache;
+import app_kvServer.cache.OffHeapCache;
+import app_kvServer.cache.StripedCache;
+import app_kvServer.cache.TinyLFUCache;
 import database.IKVDatabase;
+import database.KVLogDatabase;
 import database.KVdatabase;
+import database.WALDatabase;
+import database.WriteAheadLog;
 import logger.LogSetup;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import shared.MD5;
 import shared.Range;
+import shared.RingHash;
 import shared.comms.CommModule;
 import shared.messages.IKVMessage;
+import shared.messages.KVBatch;
 import shared.messages.KVMessage;
 import shared.messages.KVMetadata;
 import shared.messages.Pair;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -34,21 +53,32 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class KVServer implements IKVServer {
 
 	public static Logger logger = Logger.getLogger(KVServer.class);
-	public KVMetadata kvMetadata;
+	public volatile KVMetadata kvMetadata;
 
 	private int port;
 	public String bindAddress;
 	private InetAddress ecsAddress;
 	private int ecsPort;
 	private ServerSocket serverSocket;
+	private ServerSocketChannel serverChannel;
+	private NioFrontEnd nioFrontEnd;
+	private int ioThreads = 0;
+	/** the selector front end is meant for bursts of many connections */
+	private static final int ACCEPT_BACKLOG = 1024;
+	private ExecutorService connectionExecutor;
 	public Socket ecsSocket;
 	ECSConnection ecsConnection;
 	Thread ecsThread;
 
 
 	private int cacheSize;
+	/** off-heap cache budget when only a slab size is given on the command line */
+	private static final long DEFAULT_OFF_HEAP_BYTES = 64L << 20;
+	/** budget of a byte-bounded cache, 0 when the cache counts entries */
+	private long cacheBytes = 0;
 	private CacheStrategy strategy;
 	public Cache cache;
+	private StorageType storageType;
 	private IKVDatabase db;
 	private String dataPath;
 
@@ -60,6 +90,7 @@ public class KVServer implements IKVServer {
 	private final int SHUTDOWN_TIMEOUT = 5000;
 	private boolean hasShutdown = false;
 	private List<Socket> successors = Collections.synchronizedList(new ArrayList<Socket>(2));
+	private final Replicator replicator = new Replicator(successors);
 	public ConcurrentMap<String, ClientConnection> clientConnections = new ConcurrentHashMap<>();
 	public AtomicInteger connectionCount = new AtomicInteger(0);
 	/**
@@ -87,7 +118,7 @@ public class KVServer implements IKVServer {
 	 * @param strategy specifies the cache replacement strategy in case the cache
 	 *           is full and there is a GET- or PUT-request on a key that is
 	 *           currently not contained in the cache. Options are "FIFO", "LRU",
-	 *           and "LFU".
+	 *           "LFU", "TinyLFU", "StripedLRU" and "StripedFIFO".
 	 */
 
 	public KVServer(int port, int cacheSize, String strategy) {
@@ -105,6 +136,14 @@ public class KVServer implements IKVServer {
 		this(port, cacheSize, strategy, bind_address, dataPath, ecsAddr, ecs_port, true);
 	}
 	public KVServer(int port, int cacheSize, String strategy, String bind_address, String dataPath, String ecsAddr, int ecs_port, boolean run) {
+		this(port, cacheSize, strategy, bind_address, dataPath, ecsAddr, ecs_port, null, run);
+	}
+
+	/**
+	 * @param storage specifies the storage engine, "FILE" (one file per key,
+	 *           the default) or "LOG" (segmented append-only log)
+	 */
+	public KVServer(int port, int cacheSize, String strategy, String bind_address, String dataPath, String ecsAddr, int ecs_port, String storage, boolean run) {
 		this.port = port;
 		this.cacheSize = cacheSize;
 		if (bind_address == "localhost" || bind_address == null) {
@@ -164,9 +203,36 @@ public class KVServer implements IKVServer {
 			case LRU:
 				this.cache = new LRUCache(cacheSize);
 				break;
+			case LFU:
+				this.cache = new LFUCache(cacheSize);
+				break;
+			case TinyLFU:
+				this.cache = new TinyLFUCache(cacheSize);
+				break;
+			case StripedLRU:
+				this.cache = new StripedCache(cacheSize, true);
+				break;
+			case StripedFIFO:
+				this.cache = new StripedCache(cacheSize, false);
+				break;
+		}
+		// lets a topology change drop only the keys of the range that moved
+		if (this.cache != null)
+			this.cache = new HashBucketCache(this.cache);
+
+		// initialize storage
+		this.storageType = (storage == null) ? StorageType.FILE : StorageType.valueOf(storage);
+		switch (this.storageType) {
+			case LOG:
+				KVLogDatabase logDb = new KVLogDatabase(this, this.dataPath);
+				logDb.getCompactor().start();
+				this.db = logDb;
+				break;
+			case FILE:
+			default:
+				this.db = new KVdatabase(this, this.dataPath);
+				break;
 		}
-
-		this.db = new KVdatabase(this, this.dataPath);
 
 		Runtime current = Runtime.getRuntime();
 		current.addShutdownHook(new ShutDownHook());
@@ -203,6 +269,133 @@ public class KVServer implements IKVServer {
 		return this.cacheSize;
 	}
 
+	/**
+	 * @return the byte budget of the cache, 0 if it is bounded by entry count
+	 */
+	public long getCacheBytes(){
+		return this.cacheBytes;
+	}
+
+	public StorageType getStorageType(){
+		return this.storageType;
+	}
+
+	/**
+	 * Routes every storage mutation through a write-ahead log next to the data
+	 * directory. Entries left behind by a crash are replayed before this returns,
+	 * so it must be called before the server starts accepting requests.
+	 * @param durability "NONE", "BATCH" (group commit) or "WRITE" (sync per write)
+	 * @throws IOException if the log cannot be opened or replayed
+	 */
+	public void enableWriteAheadLog(String durability) throws IOException {
+		if (db instanceof WALDatabase) {
+			((WALDatabase) db).getLog().setDurability(WriteAheadLog.Durability.valueOf(durability));
+			return;
+		}
+		this.db = new WALDatabase(this.db, Paths.get(this.dataPath + ".wal"),
+				WriteAheadLog.Durability.valueOf(durability));
+	}
+
+	/**
+	 * Replaces the entry-counting cache with an LRU cache bounded by the
+	 * estimated memory of its keys and values. Must be called before
+	 * {@link #run()}.
+	 * @param maxBytes the budget in bytes, 0 or less disables the cache
+	 */
+	public void enableByteBudgetCache(long maxBytes) {
+		this.cacheBytes = Math.max(maxBytes, 0);
+		if (maxBytes <= 0) {
+			this.strategy = CacheStrategy.None;
+			this.cache = null;
+		} else {
+			this.strategy = CacheStrategy.LRU;
+			this.cache = new HashBucketCache(new ByteBudgetCache(maxBytes));
+		}
+	}
+
+	/**
+	 * Replaces the cache with one that keeps its values in direct buffers
+	 * outside the heap. Must be called before {@link #run()}.
+	 * @param maxBytes off-heap memory for values, 0 or less disables the cache
+	 * @param slabSize bytes allocated at a time, also the largest value cached
+	 */
+	public void enableOffHeapCache(long maxBytes, int slabSize) {
+		this.cacheBytes = Math.max(maxBytes, 0);
+		if (maxBytes <= 0) {
+			this.strategy = CacheStrategy.None;
+			this.cache = null;
+		} else {
+			this.strategy = CacheStrategy.LRU;
+			this.cache = new HashBucketCache(new OffHeapCache(maxBytes, slabSize, OffHeapCache.DEFAULT_MIN_CHUNK_SIZE));
+		}
+	}
+
+	/**
+	 * Parses a byte count with an optional K, M or G suffix, e.g. "64M"
+	 * @throws NumberFormatException if the count is not a number
+	 */
+	static long parseByteSize(String size) {
+		String s = size.trim().toUpperCase();
+		long unit = 1;
+		if (s.endsWith("K")) unit = 1L << 10;
+		else if (s.endsWith("M")) unit = 1L << 20;
+		else if (s.endsWith("G")) unit = 1L << 30;
+		if (unit != 1) s = s.substring(0, s.length() - 1);
+		return Long.parseLong(s) * unit;
+	}
+
+	/**
+	 * Sets how many successors must confirm a replicated write before the
+	 * client is answered. Writes go to both successors at once either way. A
+	 * write that misses the policy is kept and answered with PUT_UNDER_REPLICATED
+	 * or DELETE_UNDER_REPLICATED.
+	 * @param ack "NONE", "ONE" or "ALL" (the default)
+	 */
+	public void setReplicationAck(String ack) {
+		replicator.setAck(Replicator.Ack.valueOf(ack));
+	}
+
+	/**
+	 * Serves clients from a few selector threads and a bounded worker pool
+	 * instead of one thread per connection. Must be called before {@link #run()}.
+	 * @param ioThreads number of selector threads, 0 for a thread per connection
+	 */
+	public void enableNonBlockingIO(int ioThreads) {
+		this.ioThreads = ioThreads;
+	}
+
+	/**
+	 * Runs each client connection on a virtual thread instead of a platform
+	 * thread. Virtual threads need Java 21; on older runtimes this logs a
+	 * warning and falls back to a cached pool of platform threads.
+	 * Must be called before {@link #run()}.
+	 */
+	public void enableVirtualThreads() {
+		this.connectionExecutor = newVirtualThreadExecutor();
+	}
+
+	/**
+	 * Looked up reflectively so the server still builds and runs on runtimes
+	 * without virtual threads
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+			// missing before Java 19, disabled without --enable-preview on 19 and 20
+			logger.warn("Virtual threads are not available, using platform threads");
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r);
+					thread.setDaemon(true);	// make sure the thread dies once server stops
+					return thread;
+				}
+			});
+		}
+	}
+
 	@Override
     public boolean inStorage(String key){
 
@@ -226,17 +419,58 @@ public class KVServer implements IKVServer {
 		 // TODO || byteArr.length > 20)
 		String value = null;
 
-		if (cache != null && inCache(key) && !withSub){
+		if (withSub && cache instanceof HashBucketCache) {
+			HashBucketCache entries = (HashBucketCache) cache;
+			value = entries.getWithSubscribers(key);
+			if (value != null) return value;
+			Object stamp = entries.stamp(key);
+			value = db.getValue(key, true);
+			if (value != null) cacheWithSubscribers(key, value, stamp);
+			return value;
+		}
+
+		// a single lookup, a miss returns null
+		if (cache != null && !withSub){
 			value = cache.getKV(key);
 		}
-		else {
+		if (value == null) {
 			value = db.getValue(key, withSub);
-			if ((value != null) && (cache != null))
+			if ((value != null) && (cache != null) && !withSub)
 				cache.putKV(key, value);
 		}
 		return value;
 	}
 
+	/**
+	 * Caches a value read with its subscribers, as the value and the
+	 * subscriber line separately
+	 * @param raw the stored form, {@code subscribers\nvalue}
+	 * @param stamp taken from the cache before the value was read
+	 */
+	private void cacheWithSubscribers(String key, String raw, Object stamp) throws Exception {
+		int newline = raw.indexOf('\n');
+		if (newline < 0) return;
+		((HashBucketCache) cache).putKV(key, raw.substring(newline + 1), raw.substring(0, newline), stamp);
+	}
+
+	/**
+	 * The stored form of a key, subscribers included, for replication and
+	 * transfers. Taken from the cache when it holds both parts; a miss is read
+	 * from storage without caching, so moving a range does not flush the cache.
+	 * @return the value with its subscriber line, or null if the key is not stored
+	 */
+	private String rawValue(String key) {
+		if (cache instanceof HashBucketCache) {
+			try {
+				String raw = ((HashBucketCache) cache).getWithSubscribers(key);
+				if (raw != null) return raw;
+			} catch (Exception e) {
+				logger.debug("Cache lookup failed, reading storage: ", e);
+			}
+		}
+		return db.getValue(key, true);
+	}
+
 	@Override
     public boolean putKV(String key, String value, boolean withSub) throws Exception{
 		byte[] byteArr = key.getBytes("UTF-8");
@@ -250,8 +484,12 @@ public class KVServer implements IKVServer {
 				cache.deleteKV(key);
 		}
 		else {
+			Object stamp = (withSub && cache instanceof HashBucketCache) ? ((HashBucketCache) cache).stamp(key) : null;
 			keyInStorage = db.insertPair(key, value, withSub);
-			if (cache != null && !withSub)
+			if (stamp != null)
+				// a server put carries the subscribers along with the value
+				cacheWithSubscribers(key, value, stamp);
+			else if (cache != null && !withSub)
 				cache.putKV(key, value);
 
 		}
@@ -259,47 +497,140 @@ public class KVServer implements IKVServer {
 	}
 
 	/**
-	 * Replicate keys to the two successors
+	 * Replicate keys to the two successors, both at once, and wait for as
+	 * many of them as the acknowledgement policy asks
 	 * @param key
 	 * @param value
-	 * @return
+	 * @return false if too few successors confirmed the write
 	 */
 	public boolean replicate(String key, String value){
 		if (kvMetadata.size() == 1) return true;
 
-		value = db.getValue(key, true);
+		value = rawValue(key);
 		KVMessage msg = new KVMessage(IKVMessage.StatusType.SERVER_PUT, key, value);
-		for (Socket succ:successors){
-			try {
-				CommModule.sendMessage(msg, succ);
-			}
-			catch(IOException ioe){
-				logger.warn("Server-Server connection lost!", ioe);
-				return false;
-			}
-			KVMessage responseOne;
-			try {
-				responseOne = CommModule.receiveMessage(succ);
-			} catch (IOException ioe) {
-				logger.warn("Server-Server connection lost!", ioe);
-				return false;
-			}
-			if (responseOne.getStatus() != IKVMessage.StatusType.PUT_SUCCESS &&
-					responseOne.getStatus() != IKVMessage.StatusType.PUT_UPDATE){
-				logger.warn(succ.getInetAddress().getHostAddress() + ":" + Integer.toString(succ.getPort()) + " failed to receive key " + key);
+		return replicator.replicate(msg, "key " + key, IKVMessage.StatusType.PUT_SUCCESS,
+				IKVMessage.StatusType.PUT_UPDATE, IKVMessage.StatusType.DELETE_SUCCESS);
+	}
+
+	/**
+	 * Replicate the keys written by one batch to the two successors, sending
+	 * each successor a single SERVER_MULTI_PUT instead of one message per key
+	 * @param keys the written keys
+	 * @return false if too few successors confirmed the batch
+	 */
+	public boolean replicate(List<String> keys){
+		if (kvMetadata.size() == 1 || keys.isEmpty()) return true;
+
+		List<String> pairs = new ArrayList<>(keys.size() * 2);
+		for (String key : keys) {
+			pairs.add(key);
+			pairs.add(rawValue(key));
+		}
+		KVMessage msg = new KVMessage(IKVMessage.StatusType.SERVER_MULTI_PUT,
+				Integer.toString(keys.size()), KVBatch.encode(pairs));
+		return replicator.replicate(msg, "a batch of " + keys.size() + " keys",
+				IKVMessage.StatusType.MULTI_PUT_SUCCESS);
+	}
+
+	/**
+	 * Primary and replica ranges of this server, computed once per metadata
+	 * or key range change and published through a volatile field so that
+	 * request threads can check ownership without locking
+	 */
+	private static final class OwnershipTable {
+		final KVMetadata source;
+		final Range sourceRange;
+		final RingHash sourceStart;
+		final RingHash sourceEnd;
+		final Range primary;
+		final Range[] replicas;
+
+		OwnershipTable(KVMetadata metadata, Range keyRange, String self) {
+			this.source = metadata;
+			this.sourceRange = keyRange;
+			this.sourceStart = keyRange == null ? null : keyRange.start;
+			this.sourceEnd = keyRange == null ? null : keyRange.end;
+			this.primary = sourceStart == null || sourceEnd == null ? null : new Range(sourceStart, sourceEnd);
+
+			List<Range> held = new ArrayList<>(2);
+			if (metadata != null) {
+				for (int n = -1; n >= -2; n--) {
+					Pair<String, Range> predecessor = metadata.getNthSuccessor(self, n);
+					if (predecessor != null && predecessor.getSecond() != null && predecessor.getSecond().start != null)
+						held.add(new Range(predecessor.getSecond().start, predecessor.getSecond().end));
+				}
 			}
+			this.replicas = held.toArray(new Range[0]);
 		}
-		return true;
+
+		boolean isCurrent(KVMetadata metadata, Range keyRange) {
+			return source == metadata && sourceRange == keyRange
+					&& (keyRange == null || (sourceStart == keyRange.start && sourceEnd == keyRange.end));
+		}
+	}
+
+	private volatile OwnershipTable ownershipTable;
+
+	private OwnershipTable ownershipTable() {
+		OwnershipTable table = ownershipTable;
+		KVMetadata metadata = kvMetadata;
+		Range range = keyRange;
+		if (table == null || !table.isCurrent(metadata, range)) {
+			// rebuilding is idempotent, so racing threads may both do it
+			table = new OwnershipTable(metadata, range, bindAddress + ":" + port);
+			ownershipTable = table;
+		}
+		return table;
+	}
+
+	/**
+	 * Tells whether this server stores a key as coordinator, as replica or not at all.
+	 * Hashes the key once and takes no lock.
+	 * @param key
+	 * @return PRIMARY, REPLICA or NONE
+	 */
+	public Ownership ownership(String key) {
+		return ownership(ownershipTable(), MD5.hash(key));
+	}
+
+	/**
+	 * Ownership of every key of a batch, hashed with a single digest lookup
+	 * and checked against one ownership table
+	 * @param keys the keys, none of them null
+	 * @return PRIMARY, REPLICA or NONE for each key, in order
+	 */
+	public Ownership[] ownership(List<String> keys) {
+		OwnershipTable table = ownershipTable();
+		RingHash[] hashes = MD5.hashAll(keys);
+		Ownership[] owned = new Ownership[hashes.length];
+		for (int i = 0; i < hashes.length; i++) {
+			owned[i] = ownership(table, hashes[i]);
+		}
+		return owned;
+	}
+
+	private static Ownership ownership(OwnershipTable table, RingHash hash) {
+		if (table.primary != null && table.primary.inRange(hash))
+			return Ownership.PRIMARY;
+		for (Range replica : table.replicas) {
+			if (replica.inRange(hash))
+				return Ownership.REPLICA;
+		}
+		return Ownership.NONE;
 	}
 
-	synchronized boolean isResponsible(String key) {
-		return keyRange.inRange(MD5.getHash(key));
+	boolean isResponsible(String key) {
+		return ownership(key) == Ownership.PRIMARY;
 	}
 
-	synchronized boolean isReplicaResponsible(String key){
-		Pair<String, Range> predecessor = kvMetadata.getNthSuccessor(bindAddress + ":" + Integer.toString(port), -1);
-		Pair<String, Range> predecessorTwo = kvMetadata.getNthSuccessor(bindAddress + ":" + Integer.toString(port), -2);
-		return (predecessor.getSecond().inRange(MD5.getHash(key)) || predecessorTwo.getSecond().inRange(MD5.getHash(key)));
+	boolean isReplicaResponsible(String key){
+		OwnershipTable table = ownershipTable();
+		RingHash hash = MD5.hash(key);
+		for (Range replica : table.replicas) {
+			if (replica.inRange(hash))
+				return true;
+		}
+		return false;
 	}
 
 	public KVMetadata getMetadata(){
@@ -311,6 +642,20 @@ public class KVServer implements IKVServer {
 		cache.clear();
 	}
 
+	/**
+	 * Drops the cached keys of a range, e.g. after it was handed to another
+	 * server, and keeps the rest of the cache warm
+	 * @param range range in the format start,end
+	 */
+	public void invalidateCache(String range){
+		if (cache instanceof HashBucketCache) {
+			int dropped = ((HashBucketCache) cache).invalidate(new Range(range));
+			logger.debug("Dropped " + dropped + " cached keys of range " + range);
+		} else if (cache != null) {
+			cache.clear();
+		}
+	}
+
 	@Override
     public void clearStorage(){
 		db.clearStorage();
@@ -339,9 +684,9 @@ public class KVServer implements IKVServer {
 		}
 		else {
 			try {
-				successors.get(0).close();
+				CommModule.closeSocket(successors.get(0));
 				successors.set(0, new Socket(firstSucc[0], Integer.parseInt(firstSucc[1])));
-				successors.get(1).close();
+				CommModule.closeSocket(successors.get(1));
 				successors.set(1, new Socket(secondSucc[0], Integer.parseInt(secondSucc[1])));
 			} catch (IOException ioe) {
 				logger.warn("Server-Replica connection lost!", ioe);
@@ -351,6 +696,7 @@ public class KVServer implements IKVServer {
 		// send connection message to replicas
 		for (Socket replica:successors){
 			try {
+				CommModule.requestBinary(replica);
 				CommModule.sendMessage(connect, replica);
 				CommModule.receiveMessage(replica);
 			}
@@ -376,33 +722,42 @@ public class KVServer implements IKVServer {
 		//send keys to new server
 		try {
 			receiver = new Socket(address, Integer.parseInt(port));
+			CommModule.requestBinary(receiver);
 		}
 		catch(IOException ioe){
 			logger.warn("Server-Server connection lost!", ioe);
 			return -1;
 		}
-		for (String key:keysToSend){
-			KVMessage msg = new KVMessage(IKVMessage.StatusType.SERVER_PUT, key, db.getValue(key, true));
-			try {
-				CommModule.sendMessage(msg, receiver);
-			}
-			catch(IOException ioe){
-				logger.warn("Server-Server connection lost!", ioe);
-				return -1;
+		try {
+			for (String key:keysToSend){
+				KVMessage msg = new KVMessage(IKVMessage.StatusType.SERVER_PUT, key, rawValue(key));
+				try {
+					CommModule.sendMessage(msg, receiver);
+				}
+				catch(IOException ioe){
+					logger.warn("Server-Server connection lost!", ioe);
+					return -1;
+				}
+				KVMessage response;
+				try {
+					response = CommModule.receiveMessage(receiver);
+				} catch (IOException ioe) {
+					logger.warn("Server-Server connection lost!", ioe);
+					return -1;
+				}
+				// TODO: check this. Removing this because sometimes the this server sends
+				//		a key that is not in the receiver's range.
+				if (response.getStatus() != IKVMessage.StatusType.PUT_SUCCESS &&
+						response.getStatus() != IKVMessage.StatusType.PUT_UPDATE){
+					logger.warn(address + ":" + port + " failed to receive key " + key);
+					logger.debug("Keyrange of receiver: " + range);
+				}
 			}
-			KVMessage response;
+		} finally {
 			try {
-				response = CommModule.receiveMessage(receiver);
+				CommModule.closeSocket(receiver);
 			} catch (IOException ioe) {
-				logger.warn("Server-Server connection lost!", ioe);
-				return -1;
-			}
-			// TODO: check this. Removing this because sometimes the this server sends
-			//		a key that is not in the receiver's range.
-			if (response.getStatus() != IKVMessage.StatusType.PUT_SUCCESS &&
-					response.getStatus() != IKVMessage.StatusType.PUT_UPDATE){
-				logger.warn(address + ":" + port + " failed to receive key " + key);
-				logger.debug("Keyrange of receiver: " + range);
+				logger.warn("Unable to close Server-Server connection", ioe);
 			}
 		}
 		keysToSend.clear();
@@ -436,42 +791,51 @@ public class KVServer implements IKVServer {
 		//send keys to new server
 		try {
 			receiver = new Socket(address, Integer.parseInt(port));
+			CommModule.requestBinary(receiver);
 		}
 		catch(IOException ioe){
 			logger.warn("Server-Server connection lost!", ioe);
 			return -1;
 		}
-		for (String key:keysToSend){
-			KVMessage msg = new KVMessage(IKVMessage.StatusType.SERVER_PUT, key, db.getValue(key, true));
-			try {
-				CommModule.sendMessage(msg, receiver);
+		try {
+			for (String key:keysToSend){
+				KVMessage msg = new KVMessage(IKVMessage.StatusType.SERVER_PUT, key, rawValue(key));
+				try {
+					CommModule.sendMessage(msg, receiver);
+				}
+				catch(IOException ioe){
+					logger.warn("Server-Server connection lost!", ioe);
+					return -1;
+				}
+				KVMessage response;
+				try {
+					response = CommModule.receiveMessage(receiver);
+				} catch (IOException ioe) {
+					logger.warn("Server-Server connection lost!", ioe);
+					return -1;
+				}
+
+				if (response.getStatus() != IKVMessage.StatusType.PUT_SUCCESS &&
+						response.getStatus() != IKVMessage.StatusType.PUT_UPDATE){
+					logger.warn(address + ":" + port + " failed to receive key " + key);
+					logger.debug("Keyrange of receiver: " + range);
+				}
 			}
-			catch(IOException ioe){
-				logger.warn("Server-Server connection lost!", ioe);
-				return -1;
+			//delete keys
+			// TODO: move this do a delete function which is triggered by the ECS after the rebalance is complete.
+			for (String key: keysToSend){
+				try {
+					this.putKV(key, null, true);
+	//				db.deletePair(key);
+				} catch (Exception ioe) {
+					logger.warn("Failure in deleting rebalanced keys");
+				}
 			}
-			KVMessage response;
+		} finally {
 			try {
-				response = CommModule.receiveMessage(receiver);
+				CommModule.closeSocket(receiver);
 			} catch (IOException ioe) {
-				logger.warn("Server-Server connection lost!", ioe);
-				return -1;
-			}
-
-			if (response.getStatus() != IKVMessage.StatusType.PUT_SUCCESS &&
-					response.getStatus() != IKVMessage.StatusType.PUT_UPDATE){
-				logger.warn(address + ":" + port + " failed to receive key " + key);
-				logger.debug("Keyrange of receiver: " + range);
-			}
-		}
-		//delete keys
-		// TODO: move this do a delete function which is triggered by the ECS after the rebalance is complete.
-		for (String key: keysToSend){
-			try {
-				this.putKV(key, null, true);
-//				db.deletePair(key);
-			} catch (Exception ioe) {
-				logger.warn("Failure in deleting rebalanced keys");
+				logger.warn("Unable to close Server-Server connection", ioe);
 			}
 		}
 		keysToSend.clear();
@@ -479,11 +843,9 @@ public class KVServer implements IKVServer {
 	}
 
 	public void buildKeysToSend(String range){
-		Range newRange = new Range(range);
-		String[] keys = db.getAllKeys();
-		for (String key: keys){
-			if (newRange.inRange(MD5.getHash(key)))
-				keysToSend.add(key);
+		Iterator<String> keys = db.keysInRange(new Range(range));
+		while (keys.hasNext()){
+			keysToSend.add(keys.next());
 		}
 
 	}
@@ -499,18 +861,34 @@ public class KVServer implements IKVServer {
 			ecsThread.start();
 		}
 		// handle client connections & stuff
-		if (serverSocket != null) {
+		if (serverChannel != null) {
+			while (running) {
+				try {
+					nioFrontEnd.register(serverChannel.accept());
+				} catch (ClosedChannelException cce) {
+					logger.info("Server Closing...");
+				} catch (IOException e) {
+					logger.error("Error! " +
+							"Unable to establish connection. \n", e);
+				}
+			}
+			if (nioFrontEnd != null) nioFrontEnd.shutdown();
+		} else if (serverSocket != null) {
 			while (running) {
 				try {
 					Socket clientSocket = serverSocket.accept();
 					ClientConnection connection =
 							new ClientConnection(clientSocket, this);
-					Thread clientThread = new Thread(connection);
-					clientThread.setDaemon(true);	// make sure the thread dies once server stops
-					clientThread.start();
+					if (connectionExecutor != null) {
+						connectionExecutor.execute(connection);
+					} else {
+						Thread clientThread = new Thread(connection);
+						clientThread.setDaemon(true);	// make sure the thread dies once server stops
+						clientThread.start();
+					}
 
 					logger.info("Connected to " +
-							clientSocket.getInetAddress().getHostName() +
+							clientSocket.getInetAddress().getHostAddress() +
 							" on port " + clientSocket.getPort());
 				} catch (SocketException se) {
 					logger.info("Server Closing...");
@@ -519,6 +897,7 @@ public class KVServer implements IKVServer {
 							"Unable to establish connection. \n", e);
 				}
 			}
+			if (connectionExecutor != null) connectionExecutor.shutdown();
 		}
 		logger.info("Server stopped.");
 	}
@@ -558,6 +937,16 @@ public class KVServer implements IKVServer {
 	@Override
 	public List<String> getSubscribers(String key) {
 		try {
+			if (cache instanceof HashBucketCache) {
+				HashBucketCache entries = (HashBucketCache) cache;
+				String line = entries.getSubscribers(key);
+				if (line != null)
+					return line.isEmpty() ? null : new ArrayList<>(Arrays.asList(line.split(",")));
+				Object stamp = entries.stamp(key);
+				List<String> subs = db.getSubscribers(key);
+				entries.putSubscribers(key, subs == null ? "" : String.join(",", subs), stamp);
+				return subs;
+			}
 			return db.getSubscribers(key);
 		}
 		catch (Exception e){
@@ -574,6 +963,10 @@ public class KVServer implements IKVServer {
 		catch(Exception e){
 			logger.warn("Could not add subscriber: ", e);
 		}
+		finally {
+			if (cache instanceof HashBucketCache)
+				((HashBucketCache) cache).subscribersChanged(key);
+		}
 	}
 
 	@Override
@@ -585,11 +978,16 @@ public class KVServer implements IKVServer {
 			logger.warn("Could not remove subscriber: ", e);
 			return false;
 		}
+		finally {
+			if (cache instanceof HashBucketCache)
+				((HashBucketCache) cache).subscribersChanged(key);
+		}
 	}
 
 	public void shutdown() {
 		if (hasShutdown) return;
 		hasShutdown = true;
+		replicator.close();
 
 		logger.info("Shutting down server...");
 		if (getMetadata().size() == 1) {
@@ -608,7 +1006,15 @@ public class KVServer implements IKVServer {
 	private boolean initializeServer() {
 		logger.info("Initialize server ...");
 		try {
-			if(this.bindAddress == null){
+			if (ioThreads > 0) {
+				// closing serverSocket closes the channel, so kill() and close() work for both
+				serverChannel = ServerSocketChannel.open();
+				serverSocket = serverChannel.socket();
+				serverSocket.bind(this.bindAddress == null ? new InetSocketAddress(this.port)
+						: new InetSocketAddress(InetAddress.getByName(this.bindAddress), this.port), ACCEPT_BACKLOG);
+				int workers = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+				nioFrontEnd = new NioFrontEnd(this, ioThreads, workers);
+			} else if(this.bindAddress == null){
 				serverSocket = new ServerSocket(this.port);
 			} else {
 				InetAddress inetAddress = InetAddress.getByName(this.bindAddress);
@@ -690,19 +1096,19 @@ public class KVServer implements IKVServer {
 			if (args.length == 0) {
 				System.out.println("Error! Missing port number and ECS bootstrap!");
 				System.out.println("Usage: java -jar m2-server.jar " +
-						"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -b <port number> or -b <ecs-address:port number> !");
+						"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -s <FILE|LOG> -w <NONE|BATCH|WRITE> -n <ioThreads> -c <PLATFORM|VIRTUAL> -m <cacheBytes> -o <slabSize> -r <NONE|ONE|ALL> -b <port number> or -b <ecs-address:port number> !");
 				return "Invalid";
 			}
 			if(args[0].equals("-h")){
 				System.out.println("Usage: java -jar m2-server.jar " +
-						"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -b <port number> or -b <ecs-address:port number> !");
+						"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -s <FILE|LOG> -w <NONE|BATCH|WRITE> -n <ioThreads> -c <PLATFORM|VIRTUAL> -m <cacheBytes> -o <slabSize> -r <NONE|ONE|ALL> -b <port number> or -b <ecs-address:port number> !");
 				return "Help printed.";
 			}
 			//WRONG ARGUMENT ENTRY
 			if(args.length % 2 != 0){
 				System.out.println("Error! Invalid entry of arguments!");
 				System.out.println("Usage: java -jar m2-server.jar " +
-						"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -b <port number> or -b <ecs-address:port number> !");
+						"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -s <FILE|LOG> -w <NONE|BATCH|WRITE> -n <ioThreads> -c <PLATFORM|VIRTUAL> -m <cacheBytes> -o <slabSize> -r <NONE|ONE|ALL> -b <port number> or -b <ecs-address:port number> !");
 				return "Invalid";
 				//System.exit(0);
 			}
@@ -717,6 +1123,13 @@ public class KVServer implements IKVServer {
 			boolean dataPath_present = false;
 			String logPath = "logs/server.log";
 			String logLevel = " "; //DEFAULT IS SET TO ALL LATER
+			String storage = "FILE";
+			String durability = null;
+			int ioThreads = 0;
+			boolean virtualThreads = false;
+			long cacheBytes = -1;
+			int slabSize = 0;
+			String replicationAck = null;
 
 			for(int i = 0; i < args.length; i++) {
 				//PORT CHECK
@@ -768,6 +1181,77 @@ public class KVServer implements IKVServer {
 					logLevel = args[i+1];
 				}
 
+				//STORAGE ENGINE CHECK
+				if(args[i].equals("-s")) {
+					storage = args[i+1].toUpperCase();
+					try {
+						StorageType.valueOf(storage);
+					} catch (IllegalArgumentException iae) {
+						System.out.println("Error! Invalid storage engine! Must be FILE or LOG.");
+						return "Invalid";
+					}
+				}
+
+				//WRITE-AHEAD LOG CHECK
+				if(args[i].equals("-w")) {
+					durability = args[i+1].toUpperCase();
+					try {
+						WriteAheadLog.Durability.valueOf(durability);
+					} catch (IllegalArgumentException iae) {
+						System.out.println("Error! Invalid durability mode! Must be NONE, BATCH or WRITE.");
+						return "Invalid";
+					}
+				}
+
+				//NON-BLOCKING FRONT END CHECK
+				if(args[i].equals("-n")) {
+					ioThreads = Integer.parseInt(args[i+1]);
+					if(ioThreads < 0){
+						System.out.println("Error! Number of I/O threads must not be negative!");
+						return "Invalid";
+					}
+				}
+
+				//CONNECTION THREAD CHECK
+				if(args[i].equals("-c")) {
+					String threads = args[i+1].toUpperCase();
+					if(!threads.equals("PLATFORM") && !threads.equals("VIRTUAL")){
+						System.out.println("Error! Invalid thread type! Must be PLATFORM or VIRTUAL.");
+						return "Invalid";
+					}
+					virtualThreads = threads.equals("VIRTUAL");
+				}
+
+				//CACHE MEMORY BUDGET CHECK
+				if(args[i].equals("-m")) {
+					cacheBytes = parseByteSize(args[i+1]);
+					if(cacheBytes < 0){
+						System.out.println("Error! Cache budget must not be negative!");
+						return "Invalid";
+					}
+				}
+
+				//OFF-HEAP CACHE CHECK
+				if(args[i].equals("-o")) {
+					long slab = parseByteSize(args[i+1]);
+					if(slab < OffHeapCache.DEFAULT_MIN_CHUNK_SIZE || slab > Integer.MAX_VALUE){
+						System.out.println("Error! Slab size must be between " + OffHeapCache.DEFAULT_MIN_CHUNK_SIZE + " bytes and 2 GB!");
+						return "Invalid";
+					}
+					slabSize = (int) slab;
+				}
+
+				//REPLICATION ACKNOWLEDGEMENT CHECK
+				if(args[i].equals("-r")) {
+					replicationAck = args[i+1].toUpperCase();
+					try {
+						Replicator.Ack.valueOf(replicationAck);
+					} catch (IllegalArgumentException iae) {
+						System.out.println("Error! Invalid acknowledgement policy! Must be NONE, ONE or ALL.");
+						return "Invalid";
+					}
+				}
+
 				//Check for testing. Set -t to 1 to enable testing
 				if(args[i].equals("-t")) {
 					// TODO: remove randomize port for testing
@@ -779,7 +1263,7 @@ public class KVServer implements IKVServer {
 			if(port_present == false) {
 				System.out.println("Error! No port number found!");
 				System.out.println("Usage: java -jar m3-server.jar " +
-						"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -b <port number> or -b <ecs-address:port number> !");
+						"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -s <FILE|LOG> -w <NONE|BATCH|WRITE> -n <ioThreads> -c <PLATFORM|VIRTUAL> -m <cacheBytes> -o <slabSize> -r <NONE|ONE|ALL> -b <port number> or -b <ecs-address:port number> !");
 				return("No port, invalid");
 				//System.exit(0);
 			}
@@ -804,7 +1288,19 @@ public class KVServer implements IKVServer {
 			//WILL THROW I/O EXCEPTION IF PATH IS INVALID
 			if(run_server) {
 				new LogSetup(logPath, level);
-				KVServer server = new KVServer(port_num, 10, "FIFO", address, dataPath, ecsAddress, ecs_port);
+				KVServer server = new KVServer(port_num, 10, "FIFO", address, dataPath, ecsAddress, ecs_port, storage, false);
+				if (durability != null)
+					server.enableWriteAheadLog(durability);
+				if (slabSize > 0)
+					server.enableOffHeapCache(cacheBytes >= 0 ? cacheBytes : DEFAULT_OFF_HEAP_BYTES, slabSize);
+				else if (cacheBytes >= 0)
+					server.enableByteBudgetCache(cacheBytes);
+				if (replicationAck != null)
+					server.setReplicationAck(replicationAck);
+				server.enableNonBlockingIO(ioThreads);
+				if (virtualThreads)
+					server.enableVirtualThreads();
+				server.run();
 			}
 
 			String returned = "Port: " + port_num + " Address: " + address + " Datapath: " + dataPath +
@@ -818,14 +1314,14 @@ public class KVServer implements IKVServer {
 				System.out.println("Error! Unable to find logPath!");
 			}
 			System.out.println("Usage: java -jar m2-server.jar " +
-					"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -b <port number> or -b <ecs-address:port number> !");
+					"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -s <FILE|LOG> -w <NONE|BATCH|WRITE> -n <ioThreads> -c <PLATFORM|VIRTUAL> -m <cacheBytes> -o <slabSize> -r <NONE|ONE|ALL> -b <port number> or -b <ecs-address:port number> !");
 			return "Invalid";
 			//e.printStackTrace();
 			//System.exit(1);
 		} catch (NumberFormatException nfe) {
 			System.out.println("Error! Invalid argument <port>! Not a number!");
 			System.out.println("Usage: java -jar m2-server.jar " +
-					"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -b <port number> or -b <ecs-address:port number> !");
+					"-p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -s <FILE|LOG> -w <NONE|BATCH|WRITE> -n <ioThreads> -c <PLATFORM|VIRTUAL> -m <cacheBytes> -o <slabSize> -r <NONE|ONE|ALL> -b <port number> or -b <ecs-address:port number> !");
 			return "Invalid";
 			//System.exit(1);
 		}
@@ -836,7 +1332,7 @@ public class KVServer implements IKVServer {
 	 * replacement strategy if caching is enabled.
 	 * @param args
 	 *
-	 * java -jar m<x>-server.jar -p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -b <port number> or -b <ecs-address:port number>
+	 * java -jar m<x>-server.jar -p <port number> -a <address> -d <dataPath> -l <logPath> -ll <logLevel> -s <FILE|LOG> -w <NONE|BATCH|WRITE> -n <ioThreads> -c <PLATFORM|VIRTUAL> -m <cacheBytes> -o <slabSize> -r <NONE|ONE|ALL> -b <port number> or -b <ecs-address:port number>
 	 */
 	public static void main(String[] args) {
 		parseCommandLine(args, true);
@@ -0,0 +1,393 @@
+package app_kvServer;
+
+import org.apache.log4j.Logger;
+import shared.comms.CommModule;
+import shared.messages.KVMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non-blocking front end for client connections.
+ *
+ * A few I/O threads each own a {@link Selector} and do all reads for their
+ * connections, so an idle connection costs a registered channel instead of a
+ * thread. Complete messages are handed to a bounded worker pool that runs
+ * {@link ClientConnection#handle(KVMessage)}. Messages of one connection are
+ * handled one at a time and in order, so responses keep the request order.
+ * Responses are written straight from the worker when the socket accepts
+ * them, and queued for the I/O thread otherwise.
+ *
+ * A client that sends requests but does not read its responses cannot make
+ * the server queue them without bound. Once a connection has
+ * {@code MAX_OUTBOUND_BYTES} of responses queued, it is neither read nor
+ * handled until the socket has taken half of them.
+ */
+public class NioFrontEnd {
+
+	private static Logger logger = Logger.getLogger(NioFrontEnd.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int MIN_PENDING_SIZE = 4 * 1024;
+	/** Requests handled in one go before a connection yields its worker */
+	private static final int BATCH = 32;
+	/** Queued requests at which a connection stops being read */
+	private static final int MAX_QUEUED_REQUESTS = 256;
+	/** Queued response bytes at which a connection stops being read and handled */
+	private static final long MAX_OUTBOUND_BYTES = 1024 * 1024;
+	private static final int TASKS_PER_WORKER = 1024;
+
+	private final KVServer kvServer;
+	private final Reactor[] reactors;
+	private final ThreadPoolExecutor workers;
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile boolean running = true;
+
+	/**
+	 * @param kvServer server whose requests are handled
+	 * @param ioThreads number of selector threads
+	 * @param workerThreads number of threads handling requests
+	 * @throws IOException if a selector cannot be opened
+	 */
+	public NioFrontEnd(KVServer kvServer, int ioThreads, int workerThreads) throws IOException {
+		this.kvServer = kvServer;
+		this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(workerThreads * TASKS_PER_WORKER),
+				daemonThreads("kv-worker-"),
+				// a full queue pushes back on the I/O thread that submitted the task
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		this.reactors = new Reactor[ioThreads];
+		ThreadFactory ioFactory = daemonThreads("kv-io-");
+		for (int i = 0; i < ioThreads; i++) {
+			reactors[i] = new Reactor(Selector.open());
+			ioFactory.newThread(reactors[i]).start();
+		}
+	}
+
+	private static ThreadFactory daemonThreads(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);	// make sure the thread dies once server stops
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Hands an accepted connection to one of the I/O threads
+	 * @param channel the accepted channel
+	 * @throws IOException if the channel cannot be made non-blocking
+	 */
+	public void register(SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Reactor reactor = reactors[(next.getAndIncrement() & Integer.MAX_VALUE) % reactors.length];
+		Session session = new Session(channel, reactor);
+		session.connection = new ClientConnection(session, kvServer);
+		reactor.pending.add(session);
+		reactor.selector.wakeup();
+	}
+
+	/**
+	 * Stops the I/O threads and the worker pool and closes all connections
+	 */
+	public void shutdown() {
+		running = false;
+		for (Reactor reactor : reactors) {
+			reactor.selector.wakeup();
+		}
+		workers.shutdown();
+	}
+
+	/**
+	 * Selector loop of one I/O thread
+	 */
+	private final class Reactor implements Runnable {
+		final Selector selector;
+		final Queue<Session> pending = new ConcurrentLinkedQueue<>();
+		final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+		Reactor(Selector selector) {
+			this.selector = selector;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					registerPending();
+
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						Session session = (Session) key.attachment();
+						try {
+							if (key.isValid() && key.isWritable()) session.flush();
+							if (key.isValid() && key.isReadable()) read(session);
+						} catch (IOException ioe) {
+							logger.info("Connection to client or server terminated");
+							session.close();
+						}
+					}
+				}
+			} catch (IOException | ClosedSelectorException e) {
+				logger.error("Error! Selector failed!", e);
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					((Session) key.attachment()).close();
+				}
+				try {
+					selector.close();
+				} catch (IOException ioe) {
+					logger.error("Error! Unable to close selector!", ioe);
+				}
+			}
+		}
+
+		private void registerPending() {
+			Session session;
+			while ((session = pending.poll()) != null) {
+				try {
+					session.key = session.channel.register(selector, SelectionKey.OP_READ, session);
+					// no reverse lookup here, it would stall every connection of this thread
+					logger.info("Connected to " +
+							session.channel.socket().getInetAddress().getHostAddress() +
+							" on port " + session.channel.socket().getPort());
+				} catch (IOException ioe) {
+					logger.error("Error! Unable to establish connection. \n", ioe);
+					session.close();
+				}
+			}
+		}
+
+		/**
+		 * Reads what the socket has and queues every complete message. Bytes of an
+		 * incomplete message are kept in a buffer owned by the session, which
+		 * only exists while a message is split across reads.
+		 */
+		private void read(Session session) throws IOException {
+			ByteBuffer buffer = session.partial;
+			if (buffer == null) {
+				buffer = readBuffer;
+				buffer.clear();
+			} else if (!buffer.hasRemaining()) {
+				buffer = session.grow();
+			}
+
+			int n = session.channel.read(buffer);
+			if (n < 0) throw new IOException("Error! Connection lost!");
+
+			buffer.flip();
+			KVMessage msg;
+			while ((msg = CommModule.decode(buffer)) != null) {
+				session.enqueue(msg);
+			}
+
+			if (!buffer.hasRemaining()) {
+				session.partial = null;
+			} else if (buffer == readBuffer) {
+				ByteBuffer partial = ByteBuffer.allocate(Math.max(MIN_PENDING_SIZE, buffer.remaining() * 2));
+				partial.put(buffer);
+				session.partial = partial;
+			} else {
+				buffer.compact();
+			}
+		}
+	}
+
+	/**
+	 * State of one client connection on the non-blocking front end
+	 */
+	final class Session implements Runnable {
+		final SocketChannel channel;
+		final Reactor reactor;
+		volatile SelectionKey key;
+		ClientConnection connection;
+		/** unfinished inbound message, in write mode, or null */
+		ByteBuffer partial;
+		volatile boolean binary = false;
+
+		private final ArrayDeque<KVMessage> requests = new ArrayDeque<>();
+		private boolean scheduled = false;
+		private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+		/** bytes left in outbound, read by workers without the outbound lock */
+		private final AtomicLong outboundBytes = new AtomicLong();
+		/** waiting for the client to read its responses, guarded by this */
+		private boolean parked = false;
+		private boolean closed = false;
+		private final Object interestLock = new Object();
+
+		Session(SocketChannel channel, Reactor reactor) {
+			this.channel = channel;
+			this.reactor = reactor;
+		}
+
+		ByteBuffer grow() {
+			ByteBuffer grown = ByteBuffer.allocate(partial.capacity() * 2);
+			partial.flip();
+			grown.put(partial);
+			partial = grown;
+			return grown;
+		}
+
+		/**
+		 * Called by the I/O thread for every complete request
+		 */
+		void enqueue(KVMessage msg) {
+			boolean submit;
+			synchronized (this) {
+				if (closed) return;
+				requests.add(msg);
+				if (requests.size() >= MAX_QUEUED_REQUESTS) setInterest(SelectionKey.OP_READ, false);
+				submit = !scheduled && !parked;
+				if (submit) scheduled = true;
+			}
+			if (submit) schedule();
+		}
+
+		private void schedule() {
+			try {
+				workers.execute(this);
+			} catch (RuntimeException e) {
+				// the pool has been shut down
+				close();
+			}
+		}
+
+		/**
+		 * Handles queued requests in order on a worker thread
+		 */
+		@Override
+		public void run() {
+			for (int handled = 0; ; handled++) {
+				KVMessage request;
+				synchronized (this) {
+					if (handled == BATCH && !requests.isEmpty()) {
+						// give other connections a turn, keeping this one scheduled
+						schedule();
+						return;
+					}
+					if (!requests.isEmpty() && outboundBytes.get() >= MAX_OUTBOUND_BYTES) {
+						// flush() resumes once the client has read enough
+						parked = true;
+						scheduled = false;
+						setInterest(SelectionKey.OP_READ, false);
+						return;
+					}
+					request = requests.poll();
+					if (request == null || closed) {
+						scheduled = false;
+						return;
+					}
+					if (requests.size() == MAX_QUEUED_REQUESTS / 2) setInterest(SelectionKey.OP_READ, true);
+				}
+				try {
+					connection.handle(request);
+				} catch (IOException ioe) {
+					logger.info("Connection to client or server terminated");
+					close();
+				}
+			}
+		}
+
+		/**
+		 * Writes a message, from any thread. What the socket does not take right
+		 * away is left to the I/O thread.
+		 * @param msg the message to send
+		 * @throws IOException if the connection is closed
+		 */
+		void send(KVMessage msg) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(CommModule.encode(msg, binary));
+			synchronized (outbound) {
+				if (closed) throw new IOException("Error! Connection lost!");
+				if (outbound.isEmpty()) {
+					channel.write(buffer);
+					if (!buffer.hasRemaining()) return;
+				}
+				outbound.add(buffer);
+				outboundBytes.addAndGet(buffer.remaining());
+				setInterest(SelectionKey.OP_WRITE, true);
+			}
+		}
+
+		/**
+		 * Writes queued responses, called by the I/O thread when the socket is writable
+		 */
+		void flush() throws IOException {
+			synchronized (outbound) {
+				while (!outbound.isEmpty()) {
+					ByteBuffer buffer = outbound.peek();
+					outboundBytes.addAndGet(-channel.write(buffer));
+					if (buffer.hasRemaining()) break;
+					outbound.poll();
+				}
+				if (outbound.isEmpty()) setInterest(SelectionKey.OP_WRITE, false);
+			}
+			if (outboundBytes.get() <= MAX_OUTBOUND_BYTES / 2) resume();
+		}
+
+		/**
+		 * Reads and handles requests again once the client has read enough of
+		 * its responses
+		 */
+		private synchronized void resume() {
+			if (!parked || closed) return;
+			parked = false;
+			if (requests.size() < MAX_QUEUED_REQUESTS) setInterest(SelectionKey.OP_READ, true);
+			if (!requests.isEmpty()) {
+				scheduled = true;
+				schedule();
+			}
+		}
+
+		private void setInterest(int op, boolean on) {
+			SelectionKey key = this.key;
+			if (key == null) return;
+			synchronized (interestLock) {
+				if (!key.isValid()) return;
+				int ops = key.interestOps();
+				key.interestOps(on ? ops | op : ops & ~op);
+			}
+			reactor.selector.wakeup();
+		}
+
+		void close() {
+			synchronized (this) {
+				synchronized (outbound) {
+					if (closed) return;
+					closed = true;
+					outbound.clear();
+				}
+				requests.clear();
+			}
+			if (key != null) key.cancel();
+			try {
+				channel.close();
+			} catch (IOException ioe) {
+				logger.error("Error! Unable to tear down connection!", ioe);
+			}
+			connection.closed();
+		}
+	}
+}
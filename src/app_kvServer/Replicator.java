@@ -0,0 +1,198 @@
+package app_kvServer;
+
+import org.apache.log4j.Logger;
+import shared.comms.CommModule;
+import shared.messages.IKVMessage;
+import shared.messages.KVMessage;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends replication messages to all successors at once instead of one after
+ * the other, so a replicated PUT waits for the slowest replica's round trip
+ * rather than the sum of them.
+ *
+ * Every successor has its own sender thread, which keeps the writes a replica
+ * receives in the order they were made. The caller waits until as many
+ * replicas as the {@link Ack} policy asks for have confirmed the write, or a
+ * timeout passes; the remaining sends finish in the background.
+ *
+ * A sender queues a bounded number of writes. Once a replica falls that far
+ * behind, which only happens without waiting for acknowledgements, further
+ * writes to it are dropped and counted instead of piling up on the heap.
+ */
+public class Replicator {
+
+	private static Logger logger = Logger.getLogger(Replicator.class);
+
+	/** how long a write waits for its acknowledgements by default */
+	public static final long ACK_TIMEOUT_MS = 5000;
+	/** writes queued for one successor by default */
+	public static final int DEFAULT_MAX_PENDING = 1024;
+
+	/**
+	 * Number of replicas that must confirm a write before it completes
+	 */
+	public enum Ack {
+		NONE,	/* return at once, replicate in the background */
+		ONE,	/* wait for the first replica */
+		ALL		/* wait for every replica */
+	}
+
+	private final List<Socket> successors;
+	private final List<ExecutorService> senders = new ArrayList<>();
+	private final int maxPending;
+	private volatile Ack ack = Ack.ALL;
+	private volatile long ackTimeoutMs = ACK_TIMEOUT_MS;
+	private final AtomicLong dropped = new AtomicLong();
+
+	public Replicator(List<Socket> successors) {
+		this(successors, DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	 * @param successors the successor sockets, looked up again for every send
+	 *           since metadata updates replace them
+	 * @param maxPending writes queued for one successor before further ones are dropped
+	 */
+	public Replicator(List<Socket> successors, int maxPending) {
+		this.successors = successors;
+		this.maxPending = maxPending;
+	}
+
+	public void setAck(Ack ack) {
+		this.ack = ack;
+	}
+
+	public Ack getAck() {
+		return ack;
+	}
+
+	public void setAckTimeout(long ms) {
+		this.ackTimeoutMs = ms;
+	}
+
+	/**
+	 * @return the number of writes dropped because a successor fell behind
+	 */
+	public long dropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the sender thread of the successor at the given position
+	 */
+	private synchronized ExecutorService sender(final int index) {
+		while (senders.size() <= index) {
+			final int number = senders.size();
+			senders.add(new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(maxPending), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "replicator-" + number);
+					thread.setDaemon(true);
+					return thread;
+				}
+			}));
+		}
+		return senders.get(index);
+	}
+
+	/**
+	 * Sends a message to every successor in parallel and waits as the
+	 * acknowledgement policy asks
+	 * @param msg the SERVER_PUT or SERVER_MULTI_PUT to send
+	 * @param description what is replicated, for the log
+	 * @param accepted response statuses that confirm the write
+	 * @return {@code true} if enough successors confirmed the write in time
+	 */
+	public boolean replicate(final KVMessage msg, final String description, IKVMessage.StatusType... accepted) {
+		final int count = successors.size();
+		if (count == 0) return true;
+		final List<IKVMessage.StatusType> confirming = Arrays.asList(accepted);
+		Ack policy = this.ack;
+		final int needed = policy == Ack.ALL ? count : policy == Ack.ONE ? 1 : 0;
+		final CountDownLatch acked = new CountDownLatch(needed);
+		final AtomicInteger failed = new AtomicInteger();
+
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			Runnable send = new Runnable() {
+				@Override
+				public void run() {
+					Socket succ;
+					try {
+						succ = successors.get(index);
+					} catch (IndexOutOfBoundsException e) {
+						fail(failed, acked, count - needed);
+						return;
+					}
+					try {
+						// request and response stay paired when several writes replicate at once
+						KVMessage response = CommModule.exchange(msg, succ);
+						if (confirming.contains(response.getStatus())) {
+							acked.countDown();
+							return;
+						}
+						logger.warn(succ.getInetAddress().getHostAddress() + ":" + succ.getPort() + " failed to receive " + description);
+					} catch (IOException ioe) {
+						logger.warn("Server-Server connection lost!", ioe);
+					}
+					fail(failed, acked, count - needed);
+				}
+			};
+			try {
+				sender(index).execute(send);
+			} catch (RejectedExecutionException e) {
+				dropped.incrementAndGet();
+				logger.warn("Successor " + index + " fell behind, dropped " + description);
+				fail(failed, acked, count - needed);
+			}
+		}
+
+		if (needed == 0) return true;
+		try {
+			if (!acked.await(ackTimeoutMs, TimeUnit.MILLISECONDS)) {
+				logger.warn("Timed out waiting for replicas to receive " + description);
+				return false;
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return failed.get() <= count - needed;
+	}
+
+	/**
+	 * Counts a replica that did not confirm a write, and stops the wait once
+	 * more replicas failed than the policy allows
+	 */
+	private static void fail(AtomicInteger failed, CountDownLatch acked, int allowed) {
+		if (failed.incrementAndGet() > allowed) {
+			while (acked.getCount() > 0) acked.countDown();
+		}
+	}
+
+	/**
+	 * Stops the sender threads; writes still queued are dropped
+	 */
+	public synchronized void close() {
+		for (ExecutorService sender : senders) {
+			sender.shutdownNow();
+		}
+		senders.clear();
+	}
+}
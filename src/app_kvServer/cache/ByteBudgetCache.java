@@ -0,0 +1,172 @@
+package app_kvServer.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU cache bounded by the memory its entries take rather than by their
+ * number. Values range from a few bytes to 128 KB, so an entry count says
+ * little about the heap a cache uses; here every entry is weighed by its key
+ * and value and the least recently used entries are evicted until the total
+ * fits the budget. A value that alone exceeds the budget is not cached.
+ */
+public class ByteBudgetCache implements Cache {
+    /**
+     * Estimated heap per entry besides the characters: the map entry with its
+     * links and the two String and byte array headers
+     */
+    public static final int ENTRY_OVERHEAD = 96;
+
+    private final LinkedHashMap<String, String> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long maxBytes;
+    private long usedBytes = 0;
+
+    /**
+     * @param maxBytes memory the cached entries may take, in bytes
+     */
+    public ByteBudgetCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Estimated heap an entry takes. Strings of Latin-1 characters, which
+     * keys and values usually are, store one byte per character.
+     * @return the weight of the entry in bytes
+     */
+    public static long weigh(String key, String value) {
+        return ENTRY_OVERHEAD + key.length() + value.length();
+    }
+
+    /**
+     * @param key
+     * @return {@code true} if the key is in the cache
+     */
+    @Override
+    public boolean contains(String key) {
+        lock.lock();
+        try {
+            return cache.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key
+     * @return the value, or null if the key is not cached
+     */
+    @Override
+    public String getKV(String key) throws Exception {
+        lock.lock();
+        try {
+            return cache.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caches the pair and evicts least recently used entries until the cache
+     * fits its budget again
+     * @param key
+     * @param value
+     */
+    @Override
+    public void putKV(String key, String value) throws Exception {
+        long weight = weigh(key, value);
+        lock.lock();
+        try {
+            String old = cache.remove(key);
+            if (old != null) usedBytes -= weigh(key, old);
+            if (weight > maxBytes) return;
+            cache.put(key, value);
+            usedBytes += weight;
+            Iterator<Map.Entry<String, String>> eldest = cache.entrySet().iterator();
+            while (usedBytes > maxBytes) {
+                Map.Entry<String, String> entry = eldest.next();
+                usedBytes -= weigh(entry.getKey(), entry.getValue());
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entry
+     * @throws Exception when the cache is empty
+     */
+    @Override
+    public void evictKV() throws Exception {
+        lock.lock();
+        try {
+            Iterator<Map.Entry<String, String>> eldest = cache.entrySet().iterator();
+            if (!eldest.hasNext()) throw new Exception("Cache is empty");
+            Map.Entry<String, String> entry = eldest.next();
+            usedBytes -= weigh(entry.getKey(), entry.getValue());
+            eldest.remove();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key
+     */
+    @Override
+    public void deleteKV(String key) {
+        lock.lock();
+        try {
+            String old = cache.remove(key);
+            if (old != null) usedBytes -= weigh(key, old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            cache.clear();
+            usedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return cache.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the estimated bytes the cached entries take
+     */
+    public long usedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the budget in bytes
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+}
@@ -48,4 +48,9 @@ public interface Cache {
      * Clear the cache
      */
     public void clear();
+
+    /**
+     * @return the number of key-value pairs in the cache
+     */
+    public int size();
 }
@@ -0,0 +1,108 @@
+package app_kvServer.cache;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch of recent access frequencies, used by {@link TinyLFUCache}
+ * to decide whether a new key is worth more than the key it would displace.
+ *
+ * Four rows of 4-bit counters, sixteen to a long. A key increments one counter
+ * per row and its frequency is the smallest of them, so collisions can only
+ * make a key look more popular than it is. Once the number of increments
+ * reaches ten times the cache size every counter is halved, which lets old
+ * popularity fade and keeps the counters from saturating.
+ *
+ * Not thread-safe, callers hold the cache's lock.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final int ROWS = SEEDS.length;
+    private static final int MAX_COUNT = 15;
+    /** clears the bit each counter receives from its neighbour when a long is shifted right */
+    private static final long HALVE_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int rowMask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    /**
+     * @param capacity number of entries of the cache the sketch serves
+     */
+    FrequencySketch(int capacity) {
+        // four counters per entry in each row, sixteen per entry in all, keep collisions rare
+        int width = (Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1) * 4;
+        this.rowMask = width - 1;
+        this.table = new long[ROWS * width / 16];
+        this.sampleSize = Math.max(capacity, 1) * 10;
+    }
+
+    /**
+     * @return the estimated number of recent accesses of the key, at most 15
+     */
+    int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            min = Math.min(min, counter(index(hash, row)));
+        }
+        return min;
+    }
+
+    /**
+     * Records an access of the key
+     */
+    void increment(String key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < ROWS; row++) {
+            int i = index(hash, row);
+            if (counter(i) < MAX_COUNT) {
+                table[i >>> 4] += 1L << ((i & 15) << 2);
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            halve();
+        }
+    }
+
+    /**
+     * Forgets everything, e.g. when the cache is cleared
+     */
+    void clear() {
+        Arrays.fill(table, 0L);
+        additions = 0;
+    }
+
+    private void halve() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & HALVE_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int counter(int i) {
+        return (int) (table[i >>> 4] >>> ((i & 15) << 2)) & 0xF;
+    }
+
+    /**
+     * @return position of the key's counter in the given row, over all rows
+     */
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return row * (rowMask + 1) + ((int) h & rowMask);
+    }
+
+    /**
+     * Mixes the bits of a String hash code, whose low bits vary little for similar keys
+     */
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,271 @@
+package app_kvServer.cache;
+
+import shared.MD5;
+import shared.Range;
+import shared.RingHash;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wraps a cache and files every cached key under the bucket of its ring
+ * position, the top bits of its hash, so the keys of a key range can be
+ * dropped without scanning the whole cache. A topology change then only
+ * invalidates the range that moved instead of clearing everything.
+ *
+ * Buckets strictly inside a range are dropped whole; only the keys of the
+ * two buckets holding the range's ends are hashed again and checked. The
+ * wrapped cache evicts on its own, so buckets may still list keys it has
+ * dropped; such keys are pruned once a bucket lists twice as many keys as it
+ * had left after its last prune.
+ *
+ * Every bucket has its own lock, so puts, deletes, subscriber changes and
+ * pruning only contend on keys of the same bucket, and a striped cache
+ * underneath keeps its concurrency.
+ *
+ * The bucket entry of a key also holds its subscribers, separate from the
+ * value, so reads that need both, replication payloads and subscriber lookups
+ * are served from memory. Subscribers are only known once read from storage
+ * with {@link #putKV(String, String, String, Object)}; a plain put keeps them
+ * since it does not change them, and {@link #subscribersChanged(String)}
+ * forgets them. Every change leaves a fresh stamp, so a fill that read
+ * storage before the change cannot store the old list.
+ */
+public class HashBucketCache implements Cache {
+    public static final int BUCKET_BITS = 10;
+    private static final int BUCKETS = 1 << BUCKET_BITS;
+    private static final int MASK = BUCKETS - 1;
+    /** keys a bucket may list before its first prune */
+    private static final int MIN_PRUNE_AT = 16;
+
+    private final Cache cache;
+    private final Bucket[] buckets = new Bucket[BUCKETS];
+
+    /**
+     * Keys of one slice of the ring. Listing a key and caching its value
+     * happen under the bucket's lock, so range invalidation cannot miss a
+     * key that is being put.
+     */
+    private static final class Bucket {
+        /** key to its subscriber line, or to an {@link Unknown} stamp */
+        final ConcurrentHashMap<String, Object> keys = new ConcurrentHashMap<>();
+        final ReentrantLock lock = new ReentrantLock();
+        /** number of subscriber changes, the stamp of keys that are not listed */
+        volatile long subscriberChanges = 0;
+        /** guarded by lock */
+        int pruneAt = MIN_PRUNE_AT;
+    }
+
+    /** subscribers not known; a new instance for every change */
+    private static final class Unknown {
+    }
+
+    public HashBucketCache(Cache cache) {
+        this.cache = cache;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    private Bucket bucketOf(String key) {
+        return buckets[bucket(MD5.hash(key))];
+    }
+
+    private static int bucket(RingHash hash) {
+        return (int) (hash.hi >>> (64 - BUCKET_BITS));
+    }
+
+    /**
+     * @return the wrapped cache
+     */
+    public Cache getCache() {
+        return cache;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return cache.contains(key);
+    }
+
+    @Override
+    public String getKV(String key) throws Exception {
+        return cache.getKV(key);
+    }
+
+    /**
+     * Caches a value, keeping the key's subscribers if they are known
+     */
+    @Override
+    public void putKV(String key, String value) throws Exception {
+        Bucket bucket = bucketOf(key);
+        bucket.lock.lock();
+        try {
+            bucket.keys.putIfAbsent(key, new Unknown());
+            cache.putKV(key, value);
+            if (bucket.keys.size() > bucket.pruneAt) prune(bucket);
+        } finally {
+            bucket.lock.unlock();
+        }
+    }
+
+    /**
+     * Caches a value together with the subscribers read from storage with it
+     * @param subscribers comma separated subscriber IDs, empty for none
+     * @param stamp what {@link #stamp(String)} returned before storage was read
+     */
+    public void putKV(String key, String value, String subscribers, Object stamp) throws Exception {
+        Bucket bucket = bucketOf(key);
+        bucket.lock.lock();
+        try {
+            if (stamp instanceof Long) {
+                Object known = (Long) stamp == bucket.subscriberChanges ? subscribers : new Unknown();
+                bucket.keys.putIfAbsent(key, known);
+            } else {
+                bucket.keys.replace(key, stamp, subscribers);
+            }
+            cache.putKV(key, value);
+            if (bucket.keys.size() > bucket.pruneAt) prune(bucket);
+        } finally {
+            bucket.lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the current state of a key's subscribers. Take it before reading
+     * them from storage and pass it back when caching what was read.
+     * @return an opaque stamp
+     */
+    public Object stamp(String key) {
+        Bucket bucket = bucketOf(key);
+        Object stamp = bucket.keys.get(key);
+        return stamp != null ? stamp : Long.valueOf(bucket.subscriberChanges);
+    }
+
+    /**
+     * @return the key's subscribers as a comma separated line, empty for
+     *         none, or null if they are not known
+     */
+    public String getSubscribers(String key) {
+        Object subscribers = bucketOf(key).keys.get(key);
+        return subscribers instanceof String ? (String) subscribers : null;
+    }
+
+    /**
+     * Records subscribers read from storage without the value
+     * @param stamp what {@link #stamp(String)} returned before storage was read
+     */
+    public void putSubscribers(String key, String subscribers, Object stamp) {
+        // without a cached value there is nothing to attach them to
+        if (!(stamp instanceof Long)) bucketOf(key).keys.replace(key, stamp, subscribers);
+    }
+
+    /**
+     * Forgets the key's subscribers after they changed in storage
+     */
+    public void subscribersChanged(String key) {
+        Bucket bucket = bucketOf(key);
+        // under the bucket's lock, so no fill checks the stamp of an unlisted key in between
+        bucket.lock.lock();
+        try {
+            bucket.subscriberChanges++;
+            bucket.keys.replace(key, new Unknown());
+        } finally {
+            bucket.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the subscriber line and the value in the storage format
+     *         {@code subscribers\nvalue}, or null unless both are cached
+     */
+    public String getWithSubscribers(String key) throws Exception {
+        String subscribers = getSubscribers(key);
+        if (subscribers == null) return null;
+        String value = cache.getKV(key);
+        if (value == null) return null;
+        return subscribers + "\n" + value;
+    }
+
+    @Override
+    public void evictKV() throws Exception {
+        cache.evictKV();
+    }
+
+    @Override
+    public void deleteKV(String key) {
+        Bucket bucket = bucketOf(key);
+        bucket.lock.lock();
+        try {
+            cache.deleteKV(key);
+            bucket.keys.remove(key);
+        } finally {
+            bucket.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        // buckets first, so a value put meanwhile is either listed or cleared
+        for (Bucket bucket : buckets) {
+            bucket.lock.lock();
+            try {
+                bucket.keys.clear();
+                bucket.pruneAt = MIN_PRUNE_AT;
+            } finally {
+                bucket.lock.unlock();
+            }
+        }
+        cache.clear();
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Drops every cached key whose hash lies in the range
+     * @param range range of the ring, may wrap around zero
+     * @return the number of cached keys dropped
+     */
+    public int invalidate(Range range) {
+        int first = bucket(range.start);
+        int last = bucket(range.end);
+        int count = ((last - first) & MASK) + 1;
+        // a range wrapping around zero that starts and ends in one bucket covers all others
+        if (range.start.compareTo(range.end) > 0 && first == last) count = BUCKETS + 1;
+        int dropped = 0;
+        for (int i = 0; i < count; i++) {
+            Bucket bucket = buckets[(first + i) & MASK];
+            boolean edge = i == 0 || i == count - 1;
+            bucket.lock.lock();
+            try {
+                Iterator<String> keys = bucket.keys.keySet().iterator();
+                while (keys.hasNext()) {
+                    String key = keys.next();
+                    if (edge && !range.inRange(MD5.hash(key))) continue;
+                    if (cache.contains(key)) dropped++;
+                    cache.deleteKV(key);
+                    keys.remove();
+                }
+            } finally {
+                bucket.lock.unlock();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Forgets keys of the bucket the wrapped cache no longer holds, and waits
+     * to do so again until it lists twice as many keys as are left; called
+     * under the bucket's lock
+     */
+    private void prune(Bucket bucket) {
+        Iterator<String> keys = bucket.keys.keySet().iterator();
+        while (keys.hasNext()) {
+            if (!cache.contains(keys.next())) keys.remove();
+        }
+        bucket.pruneAt = Math.max(2 * bucket.keys.size(), MIN_PRUNE_AT);
+    }
+}
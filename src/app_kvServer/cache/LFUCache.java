@@ -0,0 +1,185 @@
+package app_kvServer.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Least frequently used cache. Every key counts its accesses and the key with
+ * the lowest count is evicted, the least recently used one among keys with the
+ * same count. Keys are kept in one bucket per count, so every operation is O(1).
+ */
+public class LFUCache implements Cache {
+    private final Map<String, Entry> cache;
+    /** keys by access count, each bucket in least recently used order */
+    private final Map<Integer, LinkedHashSet<String>> buckets = new HashMap<>();
+    private int minCount = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int maxCacheSize;
+
+    private static final class Entry {
+        String value;
+        int count = 1;
+
+        Entry(String value) {
+            this.value = value;
+        }
+    }
+
+    public LFUCache(int cacheSize) {
+        this.maxCacheSize = cacheSize;
+        this.cache = new HashMap<>(cacheSize * 2);
+    }
+
+    /**
+     * @param key
+     * @return {@code true} if the key is in the cache
+     */
+    @Override
+    public boolean contains(String key) {
+        lock.lock();
+        try {
+            return cache.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the value and counts the access
+     * @param key
+     * @return the value, or null if the key is not cached
+     */
+    @Override
+    public String getKV(String key) throws Exception {
+        lock.lock();
+        try {
+            Entry entry = cache.get(key);
+            if (entry == null) return null;
+            touch(key, entry);
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts a key with a count of one, evicting the least frequently used
+     * key if the cache is full. Updating a cached key counts as an access.
+     * @param key
+     * @param value
+     */
+    @Override
+    public void putKV(String key, String value) throws Exception {
+        if (maxCacheSize <= 0) return;
+        lock.lock();
+        try {
+            Entry entry = cache.get(key);
+            if (entry != null) {
+                entry.value = value;
+                touch(key, entry);
+                return;
+            }
+            if (cache.size() >= maxCacheSize) evict();
+            cache.put(key, new Entry(value));
+            bucket(1).add(key);
+            minCount = 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least frequently used key
+     * @throws Exception when the cache is empty
+     */
+    @Override
+    public void evictKV() throws Exception {
+        lock.lock();
+        try {
+            if (cache.isEmpty()) throw new Exception("Cache is empty");
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key
+     */
+    @Override
+    public void deleteKV(String key) {
+        lock.lock();
+        try {
+            Entry entry = cache.remove(key);
+            if (entry != null) removeFromBucket(key, entry.count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            cache.clear();
+            buckets.clear();
+            minCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void touch(String key, Entry entry) {
+        removeFromBucket(key, entry.count);
+        if (entry.count == minCount && !buckets.containsKey(entry.count)) minCount++;
+        entry.count++;
+        bucket(entry.count).add(key);
+    }
+
+    private void evict() {
+        LinkedHashSet<String> lowest = buckets.get(minCount);
+        if (lowest == null) {
+            // minCount is stale after a delete emptied its bucket
+            minCount = Integer.MAX_VALUE;
+            for (int count : buckets.keySet()) minCount = Math.min(minCount, count);
+            lowest = buckets.get(minCount);
+            if (lowest == null) return;
+        }
+        Iterator<String> it = lowest.iterator();
+        String victim = it.next();
+        it.remove();
+        if (lowest.isEmpty()) buckets.remove(minCount);
+        cache.remove(victim);
+    }
+
+    private LinkedHashSet<String> bucket(int count) {
+        LinkedHashSet<String> bucket = buckets.get(count);
+        if (bucket == null) {
+            bucket = new LinkedHashSet<>();
+            buckets.put(count, bucket);
+        }
+        return bucket;
+    }
+
+    private void removeFromBucket(String key, int count) {
+        LinkedHashSet<String> bucket = buckets.get(count);
+        bucket.remove(key);
+        if (bucket.isEmpty()) buckets.remove(count);
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return cache.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,24 +1,26 @@
 package app_kvServer.cache;
 
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class LRUCache implements Cache{
     private Map<String, String> cache;
+    // not a synchronized map: a lock does not pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
     private static int maxCacheSize;
 
     public LRUCache(int cacheSize) {
         this.maxCacheSize = cacheSize;
         // For the Order attribute, true is passed for the last access order (LRU) and false is passed for the insertion order (FIFO)
-        this.cache = Collections.synchronizedMap(new LinkedHashMap<String, String>(cacheSize + 1, 0.75f, true) {
+        this.cache = new LinkedHashMap<String, String>(cacheSize + 1, 0.75f, true) {
             private static final long serialVersionUID = 12345L; // use something random or just suppress the warning
             @Override
             protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
                 return size() > maxCacheSize; // how many entries you want to keep
             }
-        });
+        };
     }
 
     /**
@@ -27,7 +29,12 @@ public class LRUCache implements Cache{
      */
     @Override
     public boolean contains(String key) {
-        return cache.containsKey(key);
+        lock.lock();
+        try {
+            return cache.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -37,7 +44,12 @@ public class LRUCache implements Cache{
      */
     @Override
     public String getKV(String key) throws Exception {
-        return cache.get(key);
+        lock.lock();
+        try {
+            return cache.get(key);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -47,7 +59,12 @@ public class LRUCache implements Cache{
      */
     @Override
     public void putKV(String key, String value) throws Exception {
-        cache.put(key, value);
+        lock.lock();
+        try {
+            cache.put(key, value);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -64,7 +81,12 @@ public class LRUCache implements Cache{
      */
     @Override
     public void deleteKV(String key) {
-        cache.remove(key);
+        lock.lock();
+        try {
+            cache.remove(key);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -72,6 +94,24 @@ public class LRUCache implements Cache{
      */
     @Override
     public void clear() {
-        cache.clear();
+        lock.lock();
+        try {
+            cache.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return cache.size();
+        } finally {
+            lock.unlock();
+        }
     }
 }
@@ -0,0 +1,291 @@
+package app_kvServer.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache that keeps its values outside the Java heap, so a large cache does
+ * not add to the old generation the garbage collector has to walk.
+ *
+ * Values are stored UTF-8 encoded in direct ByteBuffer slabs, memcached
+ * style: every slab is cut into chunks of one size class, the classes
+ * doubling from the minimum chunk size up to the slab size, and a value goes
+ * into a chunk of the smallest class it fits. Slabs are allocated on demand
+ * until the budget is used up; after that a full class evicts its own least
+ * recently used entry to make room. Keys and chunk locations stay in an
+ * on-heap index. A value is decoded to a String only when it is hit.
+ */
+public class OffHeapCache implements Cache {
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 64;
+
+    private final SizeClass[] classes;
+    private final Map<String, Entry> index = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int slabSize;
+    private final int maxSlabs;
+    private int slabCount = 0;
+
+    private static final class Entry {
+        final SizeClass sizeClass;
+        final int chunk;
+        final int length;
+
+        Entry(SizeClass sizeClass, int chunk, int length) {
+            this.sizeClass = sizeClass;
+            this.chunk = chunk;
+            this.length = length;
+        }
+    }
+
+    private static final class SizeClass {
+        final int chunkSize;
+        final int chunksPerSlab;
+        final List<ByteBuffer> slabs = new ArrayList<>();
+        /** stack of unused chunk numbers */
+        int[] free = new int[16];
+        int freeCount = 0;
+        /** keys stored in this class, least recently used first */
+        final LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+        SizeClass(int chunkSize, int slabSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = slabSize / chunkSize;
+        }
+
+        void release(int chunk) {
+            if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+            free[freeCount++] = chunk;
+        }
+
+        /** @return a copy of the slab positioned at the start of the chunk */
+        ByteBuffer at(int chunk) {
+            ByteBuffer buffer = slabs.get(chunk / chunksPerSlab).duplicate();
+            buffer.position((chunk % chunksPerSlab) * chunkSize);
+            return buffer;
+        }
+    }
+
+    /**
+     * @param maxBytes off-heap memory the slabs may take, at least one slab
+     *           is always allowed
+     */
+    public OffHeapCache(long maxBytes) {
+        this(maxBytes, DEFAULT_SLAB_SIZE, DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * @param maxBytes off-heap memory the slabs may take, at least one slab
+     *           is always allowed
+     * @param slabSize bytes allocated at a time, also the largest value that
+     *           can be cached
+     * @param minChunkSize size of the smallest chunks
+     * @throws IllegalArgumentException if a slab is smaller than a chunk
+     */
+    public OffHeapCache(long maxBytes, int slabSize, int minChunkSize) {
+        if (minChunkSize <= 0 || slabSize < minChunkSize)
+            throw new IllegalArgumentException("Slab size " + slabSize + " is smaller than chunk size " + minChunkSize);
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / slabSize));
+        List<SizeClass> sizes = new ArrayList<>();
+        for (long size = minChunkSize; size < slabSize; size <<= 1) {
+            sizes.add(new SizeClass((int) size, slabSize));
+        }
+        sizes.add(new SizeClass(slabSize, slabSize));
+        this.classes = sizes.toArray(new SizeClass[sizes.size()]);
+    }
+
+    /**
+     * @param key
+     * @return {@code true} if the key is in the cache
+     */
+    @Override
+    public boolean contains(String key) {
+        lock.lock();
+        try {
+            return index.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the value out of its slab and decodes it
+     * @param key
+     * @return the value, or null if the key is not cached
+     */
+    @Override
+    public String getKV(String key) throws Exception {
+        byte[] bytes;
+        lock.lock();
+        try {
+            Entry entry = index.get(key);
+            if (entry == null) return null;
+            entry.sizeClass.lru.get(key);
+            bytes = new byte[entry.length];
+            entry.sizeClass.at(entry.chunk).get(bytes);
+        } finally {
+            lock.unlock();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Stores the encoded value in a chunk of the smallest class it fits.
+     * A value larger than a slab, or one whose class has no slab and no room
+     * left for one, is not cached.
+     * @param key
+     * @param value
+     */
+    @Override
+    public void putKV(String key, String value) throws Exception {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        SizeClass sizeClass = classFor(bytes.length);
+        lock.lock();
+        try {
+            remove(key);
+            if (sizeClass == null) return;
+            int chunk = allocate(sizeClass);
+            if (chunk < 0) return;
+            sizeClass.at(chunk).put(bytes);
+            Entry entry = new Entry(sizeClass, chunk, bytes.length);
+            index.put(key, entry);
+            sizeClass.lru.put(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the least recently used entry of the class holding the most bytes
+     * @throws Exception when the cache is empty
+     */
+    @Override
+    public void evictKV() throws Exception {
+        lock.lock();
+        try {
+            SizeClass fullest = null;
+            for (SizeClass sizeClass : classes) {
+                if (!sizeClass.lru.isEmpty() && (fullest == null
+                        || (long) sizeClass.lru.size() * sizeClass.chunkSize > (long) fullest.lru.size() * fullest.chunkSize))
+                    fullest = sizeClass;
+            }
+            if (fullest == null) throw new Exception("Cache is empty");
+            fullest.release(evictEldest(fullest));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key
+     */
+    @Override
+    public void deleteKV(String key) {
+        lock.lock();
+        try {
+            remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Empties the cache, keeping the slabs for reuse
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            index.clear();
+            for (SizeClass sizeClass : classes) {
+                sizeClass.lru.clear();
+                sizeClass.freeCount = 0;
+                for (int chunk = sizeClass.slabs.size() * sizeClass.chunksPerSlab - 1; chunk >= 0; chunk--) {
+                    sizeClass.release(chunk);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of slabs allocated so far
+     */
+    public int slabCount() {
+        lock.lock();
+        try {
+            return slabCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private SizeClass classFor(int length) {
+        if (length > slabSize) return null;
+        for (SizeClass sizeClass : classes) {
+            if (length <= sizeClass.chunkSize) return sizeClass;
+        }
+        return null;
+    }
+
+    /**
+     * @return a free chunk of the class, taken from a new slab or from the
+     *         class's least recently used entry if needed, or -1 if the
+     *         class has no slab and none can be allocated
+     */
+    private int allocate(SizeClass sizeClass) {
+        if (sizeClass.freeCount == 0 && slabCount < maxSlabs) {
+            int first = sizeClass.slabs.size() * sizeClass.chunksPerSlab;
+            sizeClass.slabs.add(ByteBuffer.allocateDirect(slabSize));
+            slabCount++;
+            for (int chunk = first + sizeClass.chunksPerSlab - 1; chunk >= first; chunk--) {
+                sizeClass.release(chunk);
+            }
+        }
+        if (sizeClass.freeCount > 0) return sizeClass.free[--sizeClass.freeCount];
+        if (sizeClass.lru.isEmpty()) return -1;
+        return evictEldest(sizeClass);
+    }
+
+    /**
+     * @return the chunk the evicted entry occupied
+     */
+    private int evictEldest(SizeClass sizeClass) {
+        Iterator<Map.Entry<String, Entry>> eldest = sizeClass.lru.entrySet().iterator();
+        Map.Entry<String, Entry> victim = eldest.next();
+        eldest.remove();
+        index.remove(victim.getKey());
+        return victim.getValue().chunk;
+    }
+
+    private void remove(String key) {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            entry.sizeClass.lru.remove(key);
+            entry.sizeClass.release(entry.chunk);
+        }
+    }
+}
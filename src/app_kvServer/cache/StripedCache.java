@@ -0,0 +1,195 @@
+package app_kvServer.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache split into segments by key hash, each with its own lock, capacity and
+ * FIFO or LRU eviction order, so threads working on different keys rarely
+ * wait for each other.
+ *
+ * Reads take no lock: values live in a ConcurrentHashMap per segment. Only
+ * the eviction order is guarded by the segment lock. In LRU mode a hit tries
+ * that lock to move the key to the back, and skips the move if another
+ * thread holds it; under contention the order is then only approximately
+ * LRU, which a hot key easily survives since most of its hits do get
+ * recorded.
+ */
+public class StripedCache implements Cache {
+    /** Entries a segment should hold at least, so small caches keep a usable order */
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    private final Segment[] segments;
+    private final int mask;
+    private final boolean accessOrder;
+
+    private static final class Segment {
+        final ConcurrentHashMap<String, String> values;
+        /** keys in eviction order, eldest first; guarded by lock */
+        final LinkedHashMap<String, Boolean> order;
+        final ReentrantLock lock = new ReentrantLock();
+        final int capacity;
+
+        Segment(int capacity, boolean accessOrder) {
+            this.capacity = capacity;
+            this.values = new ConcurrentHashMap<>(capacity * 2);
+            this.order = new LinkedHashMap<>(capacity * 2, 0.75f, accessOrder);
+        }
+    }
+
+    /**
+     * @param cacheSize total number of entries
+     * @param accessOrder true for LRU eviction, false for FIFO
+     */
+    public StripedCache(int cacheSize, boolean accessOrder) {
+        this(cacheSize, accessOrder, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param cacheSize total number of entries
+     * @param accessOrder true for LRU eviction, false for FIFO
+     * @param concurrency number of threads expected to use the cache at once,
+     *           rounded up to a power of two segments
+     */
+    public StripedCache(int cacheSize, boolean accessOrder, int concurrency) {
+        int count = 1;
+        while (count < concurrency && (count << 1) * MIN_SEGMENT_SIZE <= cacheSize) {
+            count <<= 1;
+        }
+        this.segments = new Segment[count];
+        this.mask = count - 1;
+        this.accessOrder = accessOrder;
+        for (int i = 0; i < count; i++) {
+            // spread the remainder so the capacities add up to cacheSize
+            segments[i] = new Segment(cacheSize / count + (i < cacheSize % count ? 1 : 0), accessOrder);
+        }
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * @param key
+     * @return {@code true} if the key is in the cache
+     */
+    @Override
+    public boolean contains(String key) {
+        return segmentFor(key).values.containsKey(key);
+    }
+
+    /**
+     * Looks the key up once, without locking
+     * @param key
+     * @return the value, or null on a miss
+     */
+    @Override
+    public String getKV(String key) throws Exception {
+        Segment segment = segmentFor(key);
+        String value = segment.values.get(key);
+        // a FIFO segment never reorders, so only LRU hits touch the order
+        if (value != null && accessOrder && segment.lock.tryLock()) {
+            try {
+                segment.order.get(key);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param key
+     * @param value
+     */
+    @Override
+    public void putKV(String key, String value) throws Exception {
+        Segment segment = segmentFor(key);
+        if (segment.capacity <= 0) return;
+        segment.lock.lock();
+        try {
+            segment.values.put(key, value);
+            segment.order.put(key, Boolean.TRUE);
+            if (segment.order.size() > segment.capacity) {
+                Iterator<String> eldest = segment.order.keySet().iterator();
+                segment.values.remove(eldest.next());
+                eldest.remove();
+            }
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the eldest entry of the fullest segment
+     * @throws Exception when the cache is empty
+     */
+    @Override
+    public void evictKV() throws Exception {
+        Segment fullest = segments[0];
+        for (Segment segment : segments) {
+            if (segment.values.size() > fullest.values.size()) fullest = segment;
+        }
+        fullest.lock.lock();
+        try {
+            Iterator<String> eldest = fullest.order.keySet().iterator();
+            if (!eldest.hasNext()) throw new Exception("Cache is empty");
+            fullest.values.remove(eldest.next());
+            eldest.remove();
+        } finally {
+            fullest.lock.unlock();
+        }
+    }
+
+    /**
+     * @param key
+     */
+    @Override
+    public void deleteKV(String key) {
+        Segment segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.values.remove(key);
+            segment.order.remove(key);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.values.clear();
+                segment.order.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the number of segments
+     */
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.values.size();
+        }
+        return size;
+    }
+}
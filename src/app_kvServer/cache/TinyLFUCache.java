@@ -0,0 +1,205 @@
+package app_kvServer.cache;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * W-TinyLFU cache. New keys enter a small LRU window (1% of the entries) so
+ * that bursts still hit. A key falling out of the window only enters the main
+ * cache if the {@link FrequencySketch} has seen it more often than the key the
+ * main cache would evict for it, so keys that are read once do not push out
+ * popular ones. The main cache is a segmented LRU: keys start in probation and
+ * move to the protected segment (80% of the main cache) when hit again.
+ */
+public class TinyLFUCache implements Cache {
+    private final LinkedHashMap<String, String> window;
+    private final LinkedHashMap<String, String> probation;
+    private final LinkedHashMap<String, String> protectedSegment;
+    private final FrequencySketch sketch;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int maxWindow;
+    private final int maxMain;
+    private final int maxProtected;
+
+    public TinyLFUCache(int cacheSize) {
+        int size = Math.max(cacheSize, 0);
+        this.maxWindow = Math.min(size, Math.max(1, size / 100));
+        this.maxMain = size - maxWindow;
+        this.maxProtected = maxMain * 8 / 10;
+        // access order, so the eldest entry of each segment is its least recently used
+        this.window = new LinkedHashMap<>(maxWindow * 2, 0.75f, true);
+        this.probation = new LinkedHashMap<>(16, 0.75f, true);
+        this.protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+        this.sketch = new FrequencySketch(size);
+    }
+
+    /**
+     * @param key
+     * @return {@code true} if the key is in the cache
+     */
+    @Override
+    public boolean contains(String key) {
+        lock.lock();
+        try {
+            return window.containsKey(key) || probation.containsKey(key) || protectedSegment.containsKey(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the value and records the access
+     * @param key
+     * @return the value, or null if the key is not cached
+     */
+    @Override
+    public String getKV(String key) throws Exception {
+        lock.lock();
+        try {
+            sketch.increment(key);
+            String value = window.get(key);
+            if (value != null) return value;
+            value = protectedSegment.get(key);
+            if (value != null) return value;
+            value = probation.remove(key);
+            if (value != null) promote(key, value);
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caches a key, which counts as an access of it. A new key goes to the
+     * window, possibly pushing the window's oldest key towards the main cache.
+     * @param key
+     * @param value
+     */
+    @Override
+    public void putKV(String key, String value) throws Exception {
+        if (maxWindow == 0) return;
+        lock.lock();
+        try {
+            sketch.increment(key);
+            if (window.containsKey(key)) {
+                window.put(key, value);
+            } else if (protectedSegment.containsKey(key)) {
+                protectedSegment.put(key, value);
+            } else if (probation.remove(key) != null) {
+                promote(key, value);
+            } else {
+                window.put(key, value);
+                if (window.size() > maxWindow) {
+                    Map.Entry<String, String> candidate = removeEldest(window);
+                    admit(candidate.getKey(), candidate.getValue());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts the entry the main cache would give up first, or the window's
+     * oldest if the main cache is empty
+     * @throws Exception when the cache is empty
+     */
+    @Override
+    public void evictKV() throws Exception {
+        lock.lock();
+        try {
+            if (!probation.isEmpty()) removeEldest(probation);
+            else if (!protectedSegment.isEmpty()) removeEldest(protectedSegment);
+            else if (!window.isEmpty()) removeEldest(window);
+            else throw new Exception("Cache is empty");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param key
+     */
+    @Override
+    public void deleteKV(String key) {
+        lock.lock();
+        try {
+            if (window.remove(key) == null && probation.remove(key) == null)
+                protectedSegment.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+            sketch.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Offers a key leaving the window to the main cache. While the main cache
+     * has room it is taken; otherwise it replaces the probation victim only if
+     * it is more popular, and is dropped if not.
+     */
+    private void admit(String key, String value) {
+        if (maxMain == 0) return;
+        if (probation.size() + protectedSegment.size() < maxMain) {
+            probation.put(key, value);
+            return;
+        }
+        LinkedHashMap<String, String> victims = probation.isEmpty() ? protectedSegment : probation;
+        String victim = victims.keySet().iterator().next();
+        if (sketch.frequency(key) > sketch.frequency(victim)) {
+            victims.remove(victim);
+            probation.put(key, value);
+        }
+    }
+
+    /**
+     * Moves a key hit in probation to the protected segment, demoting the
+     * protected segment's oldest key back to probation if it is full
+     */
+    private void promote(String key, String value) {
+        if (maxProtected == 0) {
+            probation.put(key, value);
+            return;
+        }
+        protectedSegment.put(key, value);
+        if (protectedSegment.size() > maxProtected) {
+            Map.Entry<String, String> demoted = removeEldest(protectedSegment);
+            probation.put(demoted.getKey(), demoted.getValue());
+        }
+    }
+
+    private static Map.Entry<String, String> removeEldest(LinkedHashMap<String, String> segment) {
+        Iterator<Map.Entry<String, String>> it = segment.entrySet().iterator();
+        Map.Entry<String, String> eldest = it.next();
+        Map.Entry<String, String> copy = new AbstractMap.SimpleImmutableEntry<>(eldest);
+        it.remove();
+        return copy;
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return window.size() + probation.size() + protectedSegment.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -12,5 +12,11 @@ public interface ClientSocketListener {
 	
 	public void handleNewMessage(KVMessage msg);
 
+	/**
+	 * Called from the connection's reader thread for every NOTIFY message.
+	 * The key is UPDATED_&lt;key&gt; or DELETED_&lt;key&gt;.
+	 */
+	public void handleNotification(KVMessage msg);
+
 	public void handleStatus(SocketStatus status);
 }
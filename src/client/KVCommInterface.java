@@ -25,6 +25,9 @@ public interface KVCommInterface {
 	 * @param value
 	 *            the value that is indexed by the given key.
 	 * @return a message that confirms the insertion of the tuple or an error.
+	 *         PUT_UNDER_REPLICATED and DELETE_UNDER_REPLICATED mean the write
+	 *         took effect, but fewer replicas than the server's ack policy
+	 *         asks confirmed it; retry to replicate it again.
 	 * @throws Exception
 	 *             if put command cannot be executed (e.g. not connected to any
 	 *             KV server).
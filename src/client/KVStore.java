@@ -3,7 +3,9 @@ package client;
 import org.apache.log4j.Logger;
 import shared.comms.CommModule;
 import shared.messages.IKVMessage;
+import shared.messages.KVBatch;
 import shared.messages.KVMessage;
+import shared.messages.KVMetadata;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -12,7 +14,14 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * KVStore provides an API for the client side application to communicate with
@@ -24,21 +33,63 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * Looking through echoClient & echoServer, I realize that receiveMessage and
  * sendMessage can be implemented in a separate class. But the similarities
  * between the two are so few that I don't think it's worth it.
+ *
+ * Every request is asynchronous underneath: a reader thread owns the socket's
+ * input, completes the future of each response and passes NOTIFY messages to
+ * the listeners. The blocking methods simply wait for their future.
  */
 public class KVStore implements KVCommInterface {
 
 	private static Logger logger = Logger.getLogger(KVStore.class);
-	private Set<ClientSocketListener> listeners;
-	private boolean running;
+	private final Set<ClientSocketListener> listeners = new CopyOnWriteArraySet<>();
+	private volatile boolean running;
 
 	private Socket clientSocket;
 	private InputStream input;
 	private OutputStream output;
-	private static final int BUFFER_SIZE = 1024;
-	private static final int DROP_SIZE = 128 * BUFFER_SIZE;
 	private String address;
 	private int port;
-	private final Queue<KVMessage> messageQueue = new ConcurrentLinkedQueue<>();
+	private boolean binaryProtocol = true;
+	private Thread reader;
+
+	/** guards sending together with registering the response's future */
+	private final ReentrantLock sendLock = new ReentrantLock();
+	private int nextRequestId = 1;
+	private volatile Pending pending;
+	/** responses no future was waiting for, see {@link #receiveMessage()} */
+	private final LinkedBlockingQueue<KVMessage> unclaimed = new LinkedBlockingQueue<>();
+
+	/** Requests a pipeline may have in flight before it waits for responses */
+	public static final int PIPELINE_WINDOW = 128;
+	/** Times a batch is split again after a server turned down part of it */
+	public static final int BATCH_ATTEMPTS = 3;
+	/** How long a blocking request waits for its response by default */
+	public static final long RESPONSE_TIMEOUT_MS = 30000;
+
+	private volatile long responseTimeoutMs = RESPONSE_TIMEOUT_MS;
+
+	/** ring used to split batches by server, fetched on the first batch */
+	private volatile KVMetadata metadata;
+	/** connections to the other servers of the ring, opened for batches */
+	private final Map<String, KVStore> peers = new HashMap<>();
+
+	/**
+	 * Requests awaiting a response on one connection. A reader thread that
+	 * outlives its connection only ever touches its own instance.
+	 */
+	private static final class Pending {
+		final Socket socket;
+		/** futures of requests sent with an ID */
+		final Map<Integer, CompletableFuture<IKVMessage>> byId = new ConcurrentHashMap<>();
+		/** futures of requests sent as text, which the server answers in order */
+		final Queue<CompletableFuture<IKVMessage>> inOrder = new ArrayDeque<>();
+		/** set once the reader has failed the futures above */
+		volatile boolean done = false;
+
+		Pending(Socket socket) {
+			this.socket = socket;
+		}
+	}
 
 	/**
 	 * Initialize KVStore with address and port of KVServer
@@ -60,7 +111,31 @@ public class KVStore implements KVCommInterface {
 		else
 			this.address = address;
 		this.port = port;
-		listeners = new HashSet<ClientSocketListener>();
+	}
+
+	/**
+	 * @return true while the connection is open and its reader is running
+	 */
+	public boolean isConnected() {
+		Pending requests = pending;
+		return running && requests != null && !requests.done;
+	}
+
+	/**
+	 * Chooses whether {@link #connect()} negotiates the length-prefixed binary
+	 * wire format (the default) or keeps the CR/LF text format
+	 * @param binary
+	 */
+	public void setBinaryProtocol(boolean binary) {
+		this.binaryProtocol = binary;
+	}
+
+	/**
+	 * @param ms how long the blocking methods wait for a response before
+	 * failing with an IOException
+	 */
+	public void setResponseTimeout(long ms) {
+		this.responseTimeoutMs = ms;
 	}
 
 	@Override
@@ -70,6 +145,19 @@ public class KVStore implements KVCommInterface {
 		input = clientSocket.getInputStream();
 		output = clientSocket.getOutputStream();
 		running = true;
+		if (binaryProtocol)
+			CommModule.requestBinary(clientSocket);
+
+		final Pending requests = new Pending(clientSocket);
+		pending = requests;
+		reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readResponses(requests);
+			}
+		}, "KVStore-reader-" + this.address + ":" + port);
+		reader.setDaemon(true);
+		reader.start();
 		logger.info("Connection established");
 	}
 
@@ -77,7 +165,7 @@ public class KVStore implements KVCommInterface {
 	public void disconnect() {
 		logger.info("try to close connection ...");
 
-		if (!running || listeners == null) {
+		if (!running) {
 			logger.info("connection is already closed.");
 			return;
 		}
@@ -88,10 +176,11 @@ public class KVStore implements KVCommInterface {
 			if (clientSocket != null) {
 				input.close();
 				output.close();
-				clientSocket.close();
+				CommModule.closeSocket(clientSocket);
 				clientSocket = null;
 				logger.info("connection closed!");
 			}
+			closePeers();
 			for(ClientSocketListener listener : listeners) {
 				listener.handleStatus(ClientSocketListener.SocketStatus.DISCONNECTED);
 			}
@@ -100,62 +189,412 @@ public class KVStore implements KVCommInterface {
 		}
 	}
 
+	/**
+	 * Body of the reader thread: completes the future of every response and
+	 * hands notifications to the listeners until the connection closes
+	 */
+	private void readResponses(Pending requests) {
+		try {
+			while (true) {
+				KVMessage msg = CommModule.receiveMessage(requests.socket);
+				if (msg.getStatus() == IKVMessage.StatusType.NOTIFY) {
+					handleNotification(msg);
+					continue;
+				}
+				CompletableFuture<IKVMessage> future;
+				if (msg.getId() != 0) {
+					future = requests.byId.remove(msg.getId());
+				} else {
+					sendLock.lock();
+					try {
+						future = requests.inOrder.poll();
+					} finally {
+						sendLock.unlock();
+					}
+				}
+				if (future != null) {
+					future.complete(msg);
+				} else {
+					unclaimed.add(msg);
+				}
+			}
+		} catch (IOException ioe) {
+			boolean lost = running && pending == requests;
+			failPending(requests, ioe);
+			if (lost) {
+				logger.info("Connection to server was lost.");
+				for (ClientSocketListener listener : listeners) {
+					listener.handleStatus(ClientSocketListener.SocketStatus.CONNECTION_LOST);
+				}
+			}
+		}
+	}
+
+	private void failPending(Pending requests, IOException cause) {
+		sendLock.lock();
+		try {
+			requests.done = true;
+			for (CompletableFuture<IKVMessage> future : requests.byId.values()) {
+				future.completeExceptionally(cause);
+			}
+			requests.byId.clear();
+			for (CompletableFuture<IKVMessage> future : requests.inOrder) {
+				future.completeExceptionally(cause);
+			}
+			requests.inOrder.clear();
+		} finally {
+			sendLock.unlock();
+		}
+	}
+
+	/**
+	 * Sends a request and returns the future of its response. Over the binary
+	 * protocol the request is tagged with an ID; over text the server's
+	 * in-order replies are matched by position.
+	 * @param msg the request
+	 * @return future of the response, failed with an IOException if the
+	 * 		request cannot be sent or the connection is lost before the response
+	 */
+	public CompletableFuture<IKVMessage> sendAsync(KVMessage msg) {
+		CompletableFuture<IKVMessage> future = new CompletableFuture<>();
+		sendLock.lock();
+		try {
+			Pending requests = pending;
+			if (!running || requests == null || requests.done) {
+				throw new IOException("Error! Not connected!");
+			}
+			if (CommModule.isBinary(requests.socket)) {
+				int id = nextRequestId++;
+				if (nextRequestId == 0) nextRequestId = 1;
+				msg.setId(id);
+				requests.byId.put(id, future);
+			} else {
+				msg.setId(0);
+				requests.inOrder.add(future);
+			}
+			try {
+				CommModule.sendMessage(msg, requests.socket);
+			} catch (IOException ioe) {
+				if (!requests.byId.remove(msg.getId(), future)) requests.inOrder.remove(future);
+				throw ioe;
+			}
+		} catch (IOException ioe) {
+			future.completeExceptionally(ioe);
+		} finally {
+			sendLock.unlock();
+		}
+		return future;
+	}
+
+	public CompletableFuture<IKVMessage> putAsync(String key, String value) {
+		return sendAsync(new KVMessage(KVMessage.StatusType.PUT, key, value));
+	}
+
+	public CompletableFuture<IKVMessage> getAsync(String key) {
+		return sendAsync(new KVMessage(KVMessage.StatusType.GET, key, null));
+	}
+
+	public CompletableFuture<IKVMessage> subscribeAsync(String key) {
+		return sendAsync(new KVMessage(KVMessage.StatusType.SUBSCRIBE, key, null));
+	}
+
+	public CompletableFuture<IKVMessage> unsubscribeAsync(String key) {
+		return sendAsync(new KVMessage(KVMessage.StatusType.UNSUBSCRIBE, key, null));
+	}
+
+	/**
+	 * Sends one MULTI_GET to this connection's server, which must serve every key
+	 * @param keys the keys to read
+	 * @return future of the MULTI_GET_SUCCESS carrying the values, see {@link KVBatch}
+	 */
+	public CompletableFuture<IKVMessage> multiGetAsync(List<String> keys) {
+		return sendAsync(new KVMessage(KVMessage.StatusType.MULTI_GET,
+				Integer.toString(keys.size()), KVBatch.encode(keys)));
+	}
+
+	/**
+	 * Sends one MULTI_PUT to this connection's server, which must be the
+	 * primary of every key
+	 * @param pairs keys and values to write, a null value deletes
+	 * @return future of the MULTI_PUT_SUCCESS carrying the status of each pair
+	 */
+	public CompletableFuture<IKVMessage> multiPutAsync(Map<String, String> pairs) {
+		List<String> entries = new ArrayList<>(pairs.size() * 2);
+		for (Map.Entry<String, String> pair : pairs.entrySet()) {
+			entries.add(pair.getKey());
+			entries.add(pair.getValue());
+		}
+		return sendAsync(new KVMessage(KVMessage.StatusType.MULTI_PUT,
+				Integer.toString(pairs.size()), KVBatch.encode(entries)));
+	}
+
+	/**
+	 * Waits for a response for at most {@link #RESPONSE_TIMEOUT_MS}
+	 */
+	static KVMessage await(CompletableFuture<IKVMessage> future) throws IOException {
+		return await(future, RESPONSE_TIMEOUT_MS);
+	}
+
+	/**
+	 * Waits for a response, rethrowing connection failures and timeouts as IOException
+	 */
+	static KVMessage await(CompletableFuture<IKVMessage> future, long timeoutMs) throws IOException {
+		try {
+			return (KVMessage) future.get(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(false);
+			throw new IOException("No response within " + timeoutMs + " ms");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a response", e);
+		}
+	}
+
+	private KVMessage request(KVMessage.StatusType status, String key, String value) throws IOException {
+		return await(sendAsync(new KVMessage(status, key, value)), responseTimeoutMs);
+	}
+
 	@Override
 	public KVMessage put(String key, String value) throws Exception {
-		KVMessage msg = new KVMessage(KVMessage.StatusType.PUT, key, value);
-		sendMessage(msg); // this should throw an exception if the connection is closed... right?
-		KVMessage response = receiveMessage();
-		return response;
+		return request(KVMessage.StatusType.PUT, key, value);
 	}
 
 	@Override
 	public IKVMessage get(String key) throws Exception {
-		KVMessage msg = new KVMessage(KVMessage.StatusType.GET, key, null);
-		sendMessage(msg); // this should throw an exception if the connection is closed... right?
-		KVMessage response = receiveMessage();
-		return response;
+		return request(KVMessage.StatusType.GET, key, null);
 	}
 
 	public IKVMessage getKeyRange() throws Exception {
-		KVMessage msg = new KVMessage(KVMessage.StatusType.KEYRANGE, null, null);
-		sendMessage(msg); // this should throw an exception if the connection is closed... right?
-		KVMessage response = receiveMessage();
-		return response;
+		return request(KVMessage.StatusType.KEYRANGE, null, null);
 	}
 
 	public IKVMessage getKeyRangeRead() throws Exception {
-		KVMessage msg = new KVMessage(KVMessage.StatusType.KEYRANGE_READ, null, null);
-		sendMessage(msg); // this should throw an exception if the connection is closed... right?
-		KVMessage response = receiveMessage();
-		return response;
+		return request(KVMessage.StatusType.KEYRANGE_READ, null, null);
 	}
 
 	public IKVMessage getClientID() throws Exception {
-		KVMessage msg = new KVMessage(KVMessage.StatusType.REQUEST_ID, null, null);
-		sendMessage(msg);
-		KVMessage response = receiveMessage();
-		return response;
+		return request(KVMessage.StatusType.REQUEST_ID, null, null);
 	}
 
 	public IKVMessage sendClientID(String clientID) throws Exception {
-		KVMessage msg = new KVMessage(KVMessage.StatusType.CONNECT, clientID, null);
-		sendMessage(msg);
-		KVMessage response = receiveMessage();
-		return response;
+		return request(KVMessage.StatusType.CONNECT, clientID, null);
 	}
 
 	public IKVMessage subscribe(String key) throws Exception {
-		KVMessage msg = new KVMessage(KVMessage.StatusType.SUBSCRIBE, key, null);
-		sendMessage(msg);
-		KVMessage response = receiveMessage();
-		return response;
+		return request(KVMessage.StatusType.SUBSCRIBE, key, null);
 	}
 
 	public IKVMessage unsubscribe(String key) throws Exception {
-		KVMessage msg = new KVMessage(KVMessage.StatusType.UNSUBSCRIBE, key, null);
-		sendMessage(msg);
-		KVMessage response = receiveMessage();
-		return response;
+		return request(KVMessage.StatusType.UNSUBSCRIBE, key, null);
+	}
+
+	/**
+	 * Reads several keys with one request per server. The keys are split by
+	 * their owner in the ring metadata and the sub-batches are sent in
+	 * parallel; keys a server turns down are split again with fresh metadata.
+	 * @param keys the keys to read
+	 * @return a GET_SUCCESS or GET_ERROR message for every key, or the status
+	 * 		of the batch if a server rejected it, e.g. SERVER_STOPPED
+	 * @throws IOException if a server cannot be reached
+	 */
+	public Map<String, IKVMessage> multiGet(Collection<String> keys) throws IOException {
+		Map<String, IKVMessage> results = new LinkedHashMap<>();
+		List<String> remaining = new ArrayList<>(new LinkedHashSet<>(keys));
+		for (int attempt = 0; !remaining.isEmpty(); attempt++) {
+			Map<KVStore, List<String>> batches = splitByServer(remaining, attempt > 0);
+			Map<KVStore, CompletableFuture<IKVMessage>> futures = new LinkedHashMap<>();
+			for (Map.Entry<KVStore, List<String>> batch : batches.entrySet()) {
+				futures.put(batch.getKey(), batch.getKey().multiGetAsync(batch.getValue()));
+			}
+			remaining = new ArrayList<>();
+			for (Map.Entry<KVStore, List<String>> batch : batches.entrySet()) {
+				List<String> batchKeys = batch.getValue();
+				KVMessage response = await(futures.get(batch.getKey()), responseTimeoutMs);
+				if (response.getStatus() == IKVMessage.StatusType.MULTI_GET_SUCCESS) {
+					List<String> values = KVBatch.decode(response.getValue());
+					for (int i = 0; i < batchKeys.size(); i++) {
+						String value = i < values.size() ? values.get(i) : null;
+						results.put(batchKeys.get(i), new KVMessage(value == null ?
+								IKVMessage.StatusType.GET_ERROR : IKVMessage.StatusType.GET_SUCCESS,
+								batchKeys.get(i), value));
+					}
+				} else if (response.getStatus() == IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE
+						&& attempt + 1 < BATCH_ATTEMPTS) {
+					remaining.addAll(batchKeys);
+				} else {
+					for (String key : batchKeys) {
+						results.put(key, new KVMessage(response.getStatus(), key, null));
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Writes several pairs with one request per server, split and retried
+	 * like {@link #multiGet(Collection)}
+	 * @param pairs keys and values to write, a null value deletes
+	 * @return the outcome for every key, e.g. PUT_SUCCESS or SERVER_WRITE_LOCK
+	 * @throws IOException if a server cannot be reached
+	 */
+	public Map<String, IKVMessage> multiPut(Map<String, String> pairs) throws IOException {
+		Map<String, IKVMessage> results = new LinkedHashMap<>();
+		List<String> remaining = new ArrayList<>(pairs.keySet());
+		for (int attempt = 0; !remaining.isEmpty(); attempt++) {
+			Map<KVStore, List<String>> batches = splitByServer(remaining, attempt > 0);
+			Map<KVStore, CompletableFuture<IKVMessage>> futures = new LinkedHashMap<>();
+			for (Map.Entry<KVStore, List<String>> batch : batches.entrySet()) {
+				Map<String, String> batchPairs = new LinkedHashMap<>();
+				for (String key : batch.getValue()) batchPairs.put(key, pairs.get(key));
+				futures.put(batch.getKey(), batch.getKey().multiPutAsync(batchPairs));
+			}
+			remaining = new ArrayList<>();
+			for (Map.Entry<KVStore, List<String>> batch : batches.entrySet()) {
+				List<String> batchKeys = batch.getValue();
+				KVMessage response = await(futures.get(batch.getKey()), responseTimeoutMs);
+				if (response.getStatus() == IKVMessage.StatusType.MULTI_PUT_SUCCESS) {
+					List<String> statuses = KVBatch.decode(response.getValue());
+					for (int i = 0; i < batchKeys.size(); i++) {
+						IKVMessage.StatusType status = i < statuses.size() ?
+								IKVMessage.StatusType.valueOf(statuses.get(i)) : IKVMessage.StatusType.FAILED;
+						results.put(batchKeys.get(i), new KVMessage(status, batchKeys.get(i), pairs.get(batchKeys.get(i))));
+					}
+				} else if (response.getStatus() == IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE
+						&& attempt + 1 < BATCH_ATTEMPTS) {
+					remaining.addAll(batchKeys);
+				} else {
+					for (String key : batchKeys) {
+						results.put(key, new KVMessage(response.getStatus(), key, pairs.get(key)));
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Groups keys by the server that owns them
+	 * @param keys the keys of a batch
+	 * @param refresh fetch the metadata again, after a server turned keys down
+	 * @return the keys for each server's connection
+	 */
+	private Map<KVStore, List<String>> splitByServer(List<String> keys, boolean refresh) throws IOException {
+		KVMetadata ring = metadata;
+		if (ring == null || refresh) {
+			KVMessage response = request(KVMessage.StatusType.KEYRANGE, null, null);
+			String ranges = response.getKey();
+			// a server that is not part of a ring has no metadata
+			ring = ranges == null || ranges.isEmpty() ? new KVMetadata() : new KVMetadata(ranges);
+			metadata = ring;
+		}
+
+		Map<KVStore, List<String>> batches = new LinkedHashMap<>();
+		for (String key : keys) {
+			String server = ring.isEmpty() ? null : ring.findServer(key);
+			KVStore store = connectionTo(server);
+			List<String> batch = batches.get(store);
+			if (batch == null) {
+				batch = new ArrayList<>();
+				batches.put(store, batch);
+			}
+			batch.add(key);
+		}
+		return batches;
+	}
+
+	/**
+	 * @param server &lt;address&gt;:&lt;port&gt; from the metadata, or null
+	 * @return this connection if it is to that server, otherwise a cached
+	 * 		connection to it
+	 */
+	private KVStore connectionTo(String server) throws IOException {
+		if (server == null || server.equals(address + ":" + port)) return this;
+		synchronized (peers) {
+			KVStore peer = peers.get(server);
+			if (peer != null && peer.running) return peer;
+			int colon = server.lastIndexOf(':');
+			peer = new KVStore(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+			peer.setBinaryProtocol(binaryProtocol);
+			try {
+				peer.connect();
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException("Error! Unable to connect to " + server, e);
+			}
+			peers.put(server, peer);
+			return peer;
+		}
+	}
+
+	private void closePeers() {
+		synchronized (peers) {
+			for (KVStore peer : peers.values()) {
+				peer.disconnect();
+			}
+			peers.clear();
+		}
+	}
+
+	/**
+	 * Starts a batch of pipelined requests on this connection, see {@link Pipeline}
+	 * @return a new pipeline
+	 */
+	public Pipeline pipeline() {
+		return new Pipeline();
+	}
+
+	/**
+	 * Sends requests without waiting for each response, so a batch costs about
+	 * one round trip instead of one per request. Built on {@link #sendAsync},
+	 * so responses are matched by request ID and may arrive in any order, and
+	 * other requests can share the connection meanwhile.
+	 */
+	public class Pipeline {
+		private final ArrayDeque<CompletableFuture<IKVMessage>> outstanding = new ArrayDeque<>();
+		private final List<KVMessage> results = new ArrayList<>();
+
+		/**
+		 * Queues a put (or a delete if value is null)
+		 * @throws IOException if the connection has failed
+		 */
+		public void put(String key, String value) throws IOException {
+			send(new KVMessage(IKVMessage.StatusType.PUT, key, value));
+		}
+
+		/**
+		 * Queues a get
+		 * @throws IOException if the connection has failed
+		 */
+		public void get(String key) throws IOException {
+			send(new KVMessage(IKVMessage.StatusType.GET, key, null));
+		}
+
+		private void send(KVMessage msg) throws IOException {
+			// keep the window bounded so neither side blocks on a full socket buffer
+			while (outstanding.size() >= PIPELINE_WINDOW) {
+				results.add(await(outstanding.poll(), responseTimeoutMs));
+			}
+			outstanding.add(sendAsync(msg));
+		}
+
+		/**
+		 * Waits for every outstanding response
+		 * @return the responses in request order
+		 * @throws IOException if the connection fails
+		 */
+		public List<KVMessage> sync() throws IOException {
+			while (!outstanding.isEmpty()) {
+				results.add(await(outstanding.poll(), responseTimeoutMs));
+			}
+			List<KVMessage> responses = new ArrayList<>(results);
+			results.clear();
+			return responses;
+		}
 	}
 
 
@@ -164,7 +603,8 @@ public class KVStore implements KVCommInterface {
 	}
 
 	/**
-	 * Sends a message to the KVServer.
+	 * Sends a message to the KVServer as is. While no other request is in
+	 * flight, its response can be taken with {@link #receiveMessage()}.
 	 *
 	 * @param msg
 	 * 		  the message to be sent.
@@ -175,74 +615,33 @@ public class KVStore implements KVCommInterface {
 		CommModule.sendMessage(msg, clientSocket);
 	}
 
-
-	public int getInputAvailable(){
-		int avail = -1;
-		try{
-			if(input != null)
-				avail = input.available();
-		} catch (IOException e){
-			System.out.println(e);
-		}
-		return avail;
-	}
-
-	public KVMessage receiveMessage() throws IOException {
-		return receiveMessage(false);
-	}
-
 	/**
-	 * Receives a message from the KVServer.
+	 * Receives the next message that no pending request was waiting for.
 	 *
 	 * @return the received message.
 	 * @throws IOException
-	 * 		  if the message cannot be received.
+	 * 		  if the connection is closed.
 	 */
-	public synchronized KVMessage receiveMessage(boolean notifThread) throws IOException {
-		if (notifThread) {
-			String deleted_notif = handleNewNotifications();
-			if(deleted_notif != null) {
-				KVMessage msg = new KVMessage(IKVMessage.StatusType.NOTIFY, deleted_notif, "");
-				return msg;
+	public KVMessage receiveMessage() throws IOException {
+		try {
+			while (true) {
+				KVMessage msg = unclaimed.poll(100, TimeUnit.MILLISECONDS);
+				if (msg != null) return msg;
+				if (!running || reader == null || !reader.isAlive())
+					throw new IOException("Error! Connection lost!");
 			}
-			return null;
-		}
-
-		KVMessage msg = messageQueue.poll();
-		if (msg != null) {
-			return msg;
-		}
-	    msg = CommModule.receiveMessage(clientSocket);
-		if (msg.getStatus() == IKVMessage.StatusType.NOTIFY) {
-			handleNotification(msg);
-			return receiveMessage();
-		}
-		return msg;
-	}
-
-	//FOR DELETE, RETURN SOMETHING FROM THIS AND HANDLE IN receiveMessage
-	public String handleNewNotifications() throws IOException {
-		KVMessage msg = CommModule.receiveMessage(clientSocket);
-		if (msg.getStatus() == IKVMessage.StatusType.NOTIFY) {
-			handleNotification(msg);
-			if(msg.getKey().substring(0,6).equals("DELETE"))
-				return msg.getKey().substring(8);
-			return null;
-		} else {
-			messageQueue.add(msg);
-			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a message", e);
 		}
 	}
 
+	/**
+	 * Called on the reader thread for every notification from the server
+	 */
 	public void handleNotification (KVMessage msg) {
 		for(ClientSocketListener listener : listeners) {
-			String key = msg.getKey().substring(8);
-			String operation = msg.getKey().substring(0,6);
-			if(operation.equals("DELETE"))
-				System.out.println("NOTIFICATION: Key " + key + " was deleted.");
-			else
-				System.out.println("NOTIFICATION: Key " + key + " was updated.");
-			System.out.print("M4Client> ");
+			listener.handleNotification(msg);
 		}
 	}
 }
@@ -0,0 +1,421 @@
+package client;
+
+import org.apache.log4j.Logger;
+import shared.Range;
+import shared.messages.IKVMessage;
+import shared.messages.KVMessage;
+import shared.messages.KVMetadata;
+import shared.messages.Pair;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client for a whole ring of servers. It caches the ring metadata and keeps
+ * a small pool of persistent {@link KVStore} connections to every server it
+ * has talked to, so each request goes straight to the key's primary over an
+ * open connection. The metadata is only fetched again when a server answers
+ * SERVER_NOT_RESPONSIBLE or cannot be reached.
+ *
+ * All methods may be called from any number of threads. A KVStore already
+ * multiplexes concurrent requests, so a pool needs only a few connections;
+ * requests are spread over them round robin.
+ *
+ * Writes always go to the primary. The two successors of the primary hold
+ * replicas of its range and answer GETs as well, so a {@link ReadPolicy}
+ * can spread reads of hot keys over all three.
+ */
+public class RoutingKVStore implements KVCommInterface {
+
+	private static Logger logger = Logger.getLogger(RoutingKVStore.class);
+
+	/**
+	 * Picks the server a GET is sent to, out of the key's primary and the
+	 * servers replicating it
+	 */
+	public enum ReadPolicy {
+		/** always the primary */
+		PRIMARY,
+		/** primary and replicas in turn */
+		ROUND_ROBIN,
+		/** the server with the fewest requests in flight from this client */
+		LEAST_OUTSTANDING,
+		/** at random, weighted by the inverse of each server's recent latency */
+		LATENCY_WEIGHTED
+	}
+
+	public static final int DEFAULT_CONNECTIONS_PER_SERVER = 2;
+	/** Successors of a primary that replicate its range */
+	public static final int REPLICAS = 2;
+	/** Tries per request, each after fresh metadata */
+	public static final int MAX_ATTEMPTS = 3;
+
+	private final String bootstrap;
+	private final int connectionsPerServer;
+	private final Map<String, ServerPool> pools = new ConcurrentHashMap<>();
+	private final Set<ClientSocketListener> listeners = new CopyOnWriteArraySet<>();
+	/** passes notifications of the pooled connections on to our listeners */
+	private final ClientSocketListener forwarder = new ClientSocketListener() {
+		@Override
+		public void handleNewMessage(KVMessage msg) {
+			for (ClientSocketListener listener : listeners) listener.handleNewMessage(msg);
+		}
+
+		@Override
+		public void handleNotification(KVMessage msg) {
+			for (ClientSocketListener listener : listeners) listener.handleNotification(msg);
+		}
+
+		@Override
+		public void handleStatus(SocketStatus status) {
+			// a pooled connection coming and going is not visible to the application
+		}
+	};
+
+	private volatile KVMetadata metadata = new KVMetadata();
+	private final Object metadataLock = new Object();
+	private volatile String clientID;
+	private volatile boolean running;
+	private volatile ReadPolicy readPolicy = ReadPolicy.PRIMARY;
+	private final AtomicInteger nextReader = new AtomicInteger();
+
+	/**
+	 * @param address address of any server of the ring
+	 * @param port its port
+	 */
+	public RoutingKVStore(String address, int port) {
+		this(address, port, DEFAULT_CONNECTIONS_PER_SERVER);
+	}
+
+	/**
+	 * @param address address of any server of the ring
+	 * @param port its port
+	 * @param connectionsPerServer size of the connection pool of each server
+	 */
+	public RoutingKVStore(String address, int port, int connectionsPerServer) {
+		this.bootstrap = address + ":" + port;
+		this.connectionsPerServer = Math.max(1, connectionsPerServer);
+	}
+
+	/**
+	 * Sets the client ID that every pooled connection registers with its
+	 * server, so that notifications for subscriptions reach this client
+	 * @param clientID ID handed out by a server, or null for none
+	 */
+	public void setClientID(String clientID) {
+		this.clientID = clientID;
+	}
+
+	/**
+	 * @param readPolicy how GETs are spread over a key's primary and replicas
+	 */
+	public void setReadPolicy(ReadPolicy readPolicy) {
+		this.readPolicy = readPolicy;
+	}
+
+	public ReadPolicy getReadPolicy() {
+		return readPolicy;
+	}
+
+	public void addListener(ClientSocketListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Connects to the bootstrap server and fetches the ring metadata
+	 */
+	@Override
+	public void connect() throws Exception {
+		running = true;
+		refreshMetadata(metadata);
+		for (ClientSocketListener listener : listeners) {
+			listener.handleStatus(ClientSocketListener.SocketStatus.CONNECTED);
+		}
+	}
+
+	/**
+	 * Closes every pooled connection
+	 */
+	@Override
+	public void disconnect() {
+		if (!running) return;
+		running = false;
+		for (ServerPool pool : pools.values()) {
+			pool.close();
+		}
+		pools.clear();
+		for (ClientSocketListener listener : listeners) {
+			listener.handleStatus(ClientSocketListener.SocketStatus.DISCONNECTED);
+		}
+	}
+
+	@Override
+	public IKVMessage put(String key, String value) throws IOException {
+		return route(IKVMessage.StatusType.PUT, key, value);
+	}
+
+	@Override
+	public IKVMessage get(String key) throws IOException {
+		return route(IKVMessage.StatusType.GET, key, null);
+	}
+
+	public IKVMessage subscribe(String key) throws IOException {
+		return route(IKVMessage.StatusType.SUBSCRIBE, key, null);
+	}
+
+	public IKVMessage unsubscribe(String key) throws IOException {
+		return route(IKVMessage.StatusType.UNSUBSCRIBE, key, null);
+	}
+
+	/**
+	 * @return the cached ring metadata, empty if the server is not part of a ring
+	 */
+	public KVMetadata getMetadata() {
+		return metadata;
+	}
+
+	/**
+	 * Sends a request to the primary of its key, or a GET to the server the
+	 * read policy picks. When the server turns the request down or cannot be
+	 * reached, the metadata is refreshed and the request sent again, to the
+	 * primary.
+	 */
+	private IKVMessage route(IKVMessage.StatusType status, String key, String value) throws IOException {
+		if (!running) throw new IOException("Error! Not connected!");
+		IKVMessage response = null;
+		IOException failure = null;
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			KVMetadata ring = metadata;
+			ServerPool pool = status == IKVMessage.StatusType.GET && attempt == 0 ?
+					chooseReader(ring, key) : pool(ownerOf(ring, key));
+			try {
+				KVStore connection = pool.acquire();
+				pool.outstanding.incrementAndGet();
+				long start = System.nanoTime();
+				try {
+					response = KVStore.await(connection.sendAsync(new KVMessage(status, key, value)));
+					pool.recordLatency(System.nanoTime() - start);
+				} catch (IOException e) {
+					pool.discard(connection);
+					throw e;
+				} finally {
+					pool.outstanding.decrementAndGet();
+				}
+				if (response.getStatus() != IKVMessage.StatusType.SERVER_NOT_RESPONSIBLE) return response;
+				failure = null;
+			} catch (IOException e) {
+				logger.info("Server " + pool.name + " unreachable: " + e.getMessage());
+				failure = e;
+			}
+			refreshMetadata(ring);
+		}
+		if (failure != null) throw failure;
+		return response;
+	}
+
+	private String ownerOf(KVMetadata ring, String key) {
+		String server = ring.isEmpty() ? null : ring.findServer(key);
+		return server == null ? bootstrap : server;
+	}
+
+	/**
+	 * @return the pool of the server a GET for the key is sent to
+	 */
+	private ServerPool chooseReader(KVMetadata ring, String key) {
+		String primary = ownerOf(ring, key);
+		ReadPolicy policy = readPolicy;
+		if (policy == ReadPolicy.PRIMARY || ring.size() < 2) return pool(primary);
+
+		List<ServerPool> readers = new ArrayList<>(REPLICAS + 1);
+		readers.add(pool(primary));
+		for (int n = 1; n <= REPLICAS && n < ring.size(); n++) {
+			Pair<String, Range> successor = ring.getNthSuccessor(primary, n);
+			if (successor != null) readers.add(pool(successor.getFirst()));
+		}
+
+		switch (policy) {
+			case ROUND_ROBIN:
+				return readers.get((nextReader.getAndIncrement() & Integer.MAX_VALUE) % readers.size());
+			case LEAST_OUTSTANDING: {
+				// start the scan at a rotating offset so ties do not all land on the primary
+				int offset = (nextReader.getAndIncrement() & Integer.MAX_VALUE) % readers.size();
+				ServerPool best = null;
+				for (int i = 0; i < readers.size(); i++) {
+					ServerPool candidate = readers.get((offset + i) % readers.size());
+					if (best == null || candidate.outstanding.get() < best.outstanding.get()) best = candidate;
+				}
+				return best;
+			}
+			case LATENCY_WEIGHTED: {
+				// servers without a measurement yet count as fast as the fastest one, so they get tried
+				long fastest = Long.MAX_VALUE;
+				for (ServerPool reader : readers) {
+					if (reader.latency > 0) fastest = Math.min(fastest, reader.latency);
+				}
+				double[] weights = new double[readers.size()];
+				double total = 0;
+				for (int i = 0; i < readers.size(); i++) {
+					long latency = readers.get(i).latency;
+					if (latency <= 0) latency = fastest == Long.MAX_VALUE ? 1 : fastest;
+					weights[i] = 1.0 / latency;
+					total += weights[i];
+				}
+				double pick = ThreadLocalRandom.current().nextDouble() * total;
+				for (int i = 0; i < readers.size(); i++) {
+					pick -= weights[i];
+					if (pick < 0) return readers.get(i);
+				}
+				return readers.get(readers.size() - 1);
+			}
+			default:
+				return readers.get(0);
+		}
+	}
+
+	private ServerPool pool(String server) {
+		ServerPool pool = pools.get(server);
+		if (pool == null) {
+			ServerPool created = new ServerPool(server);
+			pool = pools.putIfAbsent(server, created);
+			if (pool == null) pool = created;
+		}
+		return pool;
+	}
+
+	/**
+	 * Fetches the metadata from the first server that answers, unless another
+	 * thread has replaced the stale copy already. Pools of servers that left
+	 * the ring are closed.
+	 * @param stale the metadata the caller found to be out of date
+	 * @throws IOException if no known server can be reached
+	 */
+	private void refreshMetadata(KVMetadata stale) throws IOException {
+		synchronized (metadataLock) {
+			if (metadata != stale) return;
+
+			Set<String> candidates = new LinkedHashSet<>();
+			candidates.add(bootstrap);
+			for (Pair<String, ?> entry : stale.metadata) candidates.add(entry.getFirst());
+			candidates.addAll(pools.keySet());
+
+			IOException failure = null;
+			for (String server : candidates) {
+				ServerPool pool = pool(server);
+				try {
+					KVStore connection = pool.acquire();
+					KVMessage response;
+					try {
+						response = KVStore.await(connection.sendAsync(
+								new KVMessage(IKVMessage.StatusType.KEYRANGE, null, null)));
+					} catch (IOException e) {
+						pool.discard(connection);
+						throw e;
+					}
+					String ranges = response.getKey();
+					// a server that is not part of a ring has no metadata
+					KVMetadata fresh = ranges == null || ranges.isEmpty() ? new KVMetadata() : new KVMetadata(ranges);
+					dropRemovedServers(fresh);
+					metadata = fresh;
+					return;
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			throw failure != null ? failure : new IOException("Error! No server to ask for metadata");
+		}
+	}
+
+	private void dropRemovedServers(KVMetadata ring) {
+		Set<String> members = new LinkedHashSet<>();
+		for (Pair<String, ?> entry : ring.metadata) members.add(entry.getFirst());
+		Iterator<Map.Entry<String, ServerPool>> it = pools.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, ServerPool> entry = it.next();
+			if (!entry.getKey().equals(bootstrap) && !members.contains(entry.getKey())) {
+				entry.getValue().close();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Persistent connections to one server, opened on first use and replaced
+	 * when they fail
+	 */
+	private final class ServerPool {
+		final String name;
+		private final KVStore[] connections = new KVStore[connectionsPerServer];
+		private final AtomicInteger next = new AtomicInteger();
+		/** requests in flight to this server */
+		final AtomicInteger outstanding = new AtomicInteger();
+		/** moving average of the response time in nanoseconds, 0 until measured */
+		volatile long latency = 0;
+
+		ServerPool(String name) {
+			this.name = name;
+		}
+
+		void recordLatency(long nanos) {
+			long current = latency;
+			// updates racing each other may lose one sample, which an average can afford
+			latency = current == 0 ? nanos : current + (nanos - current) / 8;
+		}
+
+		KVStore acquire() throws IOException {
+			int slot = (next.getAndIncrement() & Integer.MAX_VALUE) % connections.length;
+			synchronized (this) {
+				KVStore connection = connections[slot];
+				if (connection == null || !connection.isConnected()) {
+					if (connection != null) connection.disconnect();
+					connection = open();
+					connections[slot] = connection;
+				}
+				return connection;
+			}
+		}
+
+		private KVStore open() throws IOException {
+			int colon = name.lastIndexOf(':');
+			KVStore connection = new KVStore(name.substring(0, colon), Integer.parseInt(name.substring(colon + 1)));
+			connection.addListener(forwarder);
+			try {
+				connection.connect();
+				String id = clientID;
+				if (id != null) connection.sendClientID(id);
+			} catch (IOException e) {
+				connection.disconnect();
+				throw e;
+			} catch (Exception e) {
+				connection.disconnect();
+				throw new IOException("Error! Unable to connect to " + name, e);
+			}
+			logger.info("Opened pooled connection to " + name);
+			return connection;
+		}
+
+		synchronized void discard(KVStore connection) {
+			for (int i = 0; i < connections.length; i++) {
+				if (connections[i] == connection) connections[i] = null;
+			}
+			connection.disconnect();
+		}
+
+		synchronized void close() {
+			List<KVStore> open = new ArrayList<>();
+			for (int i = 0; i < connections.length; i++) {
+				if (connections[i] != null) open.add(connections[i]);
+				connections[i] = null;
+			}
+			for (KVStore connection : open) connection.disconnect();
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package database;
 
 
+import shared.Range;
+
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -49,6 +52,19 @@ public interface IKVDatabase {
      */
     public String[] getAllKeys();
 
+    /**
+     * Get the keys whose hash lies in a key range, without visiting the other keys
+     * @param range
+     * @return iterator over the matching keys
+     */
+    public Iterator<String> keysInRange(Range range);
+
+    /**
+     * Forces every write made so far to stable storage
+     * @throws IOException
+     */
+    public void sync() throws IOException;
+
     /* Subscription methods */
 
     /**
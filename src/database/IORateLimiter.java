@@ -0,0 +1,47 @@
+package database;
+
+/**
+ * Paces background I/O to a fixed number of bytes per second so that
+ * maintenance work (e.g. compaction) never saturates the disk that foreground
+ * GET/PUT requests are served from.
+ */
+public class IORateLimiter {
+
+    private volatile long bytesPerSecond;
+    private long nextFreeNanos = 0;
+
+    /**
+     * @param bytesPerSecond sustained rate, {@code <= 0} disables limiting
+     */
+    public IORateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Blocks until the given number of bytes may be transferred
+     * @param bytes
+     * @throws InterruptedException
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        long rate = bytesPerSecond;
+        if (rate <= 0) return;
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (nextFreeNanos < now) nextFreeNanos = now;
+            waitNanos = nextFreeNanos - now;
+            nextFreeNanos += bytes * 1000000000L / rate;
+        }
+        if (waitNanos > 0)
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+    }
+}
@@ -0,0 +1,595 @@
+package database;
+
+import app_kvServer.KVServer;
+import org.apache.log4j.Logger;
+import shared.MD5;
+import shared.Range;
+import shared.RingHash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Log-structured (Bitcask-style) implementation of the key-value store.
+ *
+ * Every write is a single sequential append to the active segment file and
+ * an in-memory key directory maps each live key to the location of its most
+ * recent record. Deletes append a tombstone. Once the active segment grows
+ * past {@code maxSegmentSize} it is sealed and a new one is started.
+ *
+ * Values are stored in the same raw form as {@link KVdatabase}: the first line
+ * holds the comma separated subscriber list, the rest is the value itself.
+ *
+ * Superseded records are reclaimed in the background by a {@link LogCompactor}.
+ */
+public class KVLogDatabase implements IKVDatabase {
+
+    public static Logger logger = Logger.getLogger(KVLogDatabase.class);
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    /** Lists the input segments of a merge whose outputs are complete */
+    private static final String MERGE_MANIFEST = "merge.manifest";
+
+    /**
+     * Location of the latest record of a key
+     */
+    static class KeyDirEntry {
+        final int segmentId;
+        final long offset;
+        final int size;
+        final long seq;
+
+        KeyDirEntry(int segmentId, long offset, int size, long seq) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.size = size;
+            this.seq = seq;
+        }
+    }
+
+    KVServer sv;
+    public String keyPath;
+    String defaultPath = "./src/KVStorage";
+    private final long maxSegmentSize;
+
+    final ConcurrentHashMap<String, KeyDirEntry> keyDir = new ConcurrentHashMap<>();
+    /** Live keys ordered by hash, for range scoped transfers and deletes */
+    private final RingIndex ring = new RingIndex();
+    final ConcurrentHashMap<Integer, LogSegment> segments = new ConcurrentHashMap<>();
+    /** Bytes of each segment that are no longer referenced by the key directory */
+    private final ConcurrentHashMap<Integer, AtomicLong> deadBytes = new ConcurrentHashMap<>();
+    private LogSegment active;
+    private long nextSeq = 1;
+    private int nextSegmentId = 0;
+    /** Serializes appends, segment rollover and key directory relocation */
+    final ReentrantLock writeLock = new ReentrantLock();
+    private final LogCompactor compactor;
+
+    /**
+     * Constructor with default path
+     * @param sv
+     */
+    public KVLogDatabase(KVServer sv) {
+        this(sv, null);
+    }
+
+    /**
+     * Constructor with user-defined path
+     * @param sv
+     * @param dir
+     */
+    public KVLogDatabase(KVServer sv, String dir) {
+        this(sv, dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor with user-defined path and segment size
+     * @param sv
+     * @param dir
+     * @param maxSegmentSize size in bytes after which the active segment is sealed
+     */
+    public KVLogDatabase(KVServer sv, String dir, long maxSegmentSize) {
+        this.sv = sv;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactor = new LogCompactor(this);
+
+        if (dir == null || dir.equals(""))
+            this.keyPath = defaultPath;
+        else
+            this.keyPath = dir;
+
+        logger.debug("Initializing log database with path: " + this.keyPath);
+
+        try {
+            Files.createDirectories(Paths.get(this.keyPath));
+            recover();
+        }
+        catch (IOException e) {
+            logger.warn("Error while initializing database: ", e);
+        }
+    }
+
+    /**
+     * Constructor with no server initialization
+     */
+    public KVLogDatabase() {
+        this(null, null);
+    }
+
+    /**
+     * Rebuilds the key directory from every segment in id order, using the
+     * segment's hint file when a merge left one behind and scanning it
+     * otherwise. A torn record at the tail of the newest segment is truncated away.
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        finishInterruptedMerge();
+        List<Integer> ids = listSegmentIds();
+        Map<String, KeyDirEntry> latest = new HashMap<>();
+        Map<String, Boolean> deleted = new HashMap<>();
+        long maxSeq = 0;
+
+        for (int i = 0; i < ids.size(); i++) {
+            LogSegment segment = LogSegment.open(Paths.get(keyPath), ids.get(i));
+            segments.put(segment.id, segment);
+            nextSegmentId = Math.max(nextSegmentId, segment.id + 1);
+
+            List<LogHint> hints = LogHint.read(LogHint.pathFor(Paths.get(keyPath), segment.id));
+            if (hints != null) {
+                for (LogHint hint : hints) {
+                    KeyDirEntry prev = latest.get(hint.key);
+                    if (prev == null || prev.seq < hint.seq) {
+                        latest.put(hint.key, new KeyDirEntry(segment.id, hint.offset, hint.size, hint.seq));
+                        deleted.put(hint.key, false);
+                    }
+                    maxSeq = Math.max(maxSeq, hint.seq);
+                }
+                continue;
+            }
+
+            long offset = 0;
+            long limit = segment.size();
+            while (offset < limit) {
+                LogRecord record = LogRecord.read(segment.channel, offset, limit);
+                if (record == null) {
+                    logger.warn("Corrupt or incomplete record in segment " + segment.id + " at offset " + offset);
+                    if (i == ids.size() - 1) segment.truncate(offset);
+                    break;
+                }
+                KeyDirEntry prev = latest.get(record.key);
+                if (prev == null || prev.seq < record.seq) {
+                    latest.put(record.key, new KeyDirEntry(segment.id, offset, record.size, record.seq));
+                    deleted.put(record.key, record.tombstone);
+                }
+                maxSeq = Math.max(maxSeq, record.seq);
+                offset += record.size;
+            }
+        }
+
+        Map<Integer, Long> liveBytes = new HashMap<>();
+        for (Map.Entry<String, KeyDirEntry> entry : latest.entrySet()) {
+            if (deleted.get(entry.getKey())) continue;
+            KeyDirEntry e = entry.getValue();
+            keyDir.put(entry.getKey(), e);
+            Long live = liveBytes.get(e.segmentId);
+            liveBytes.put(e.segmentId, (live == null ? 0 : live) + e.size);
+        }
+        String[] keys = keyDir.keySet().toArray(new String[0]);
+        RingHash[] hashes = MD5.hashAll(keys);
+        for (int i = 0; i < keys.length; i++) {
+            ring.add(keys[i], hashes[i]);
+        }
+        for (LogSegment segment : segments.values()) {
+            Long live = liveBytes.get(segment.id);
+            deadBytes.put(segment.id, new AtomicLong(segment.size() - (live == null ? 0 : live)));
+        }
+        nextSeq = maxSeq + 1;
+        // keep appending to the newest segment unless it is a merge output,
+        // whose hint file must stay in sync with its contents
+        if (!ids.isEmpty() && !Files.exists(LogHint.pathFor(Paths.get(keyPath), ids.get(ids.size() - 1))))
+            active = segments.get(ids.get(ids.size() - 1));
+        logger.debug("Recovered " + keyDir.size() + " keys from " + ids.size() + " segments");
+    }
+
+    /**
+     * Completes a merge that crashed after its outputs were made durable but
+     * before all of its input segments were removed.
+     * @throws IOException
+     */
+    private void finishInterruptedMerge() throws IOException {
+        Path manifest = Paths.get(keyPath).resolve(MERGE_MANIFEST);
+        if (!Files.exists(manifest)) return;
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.trim().isEmpty()) continue;
+            int id = Integer.parseInt(line.trim());
+            Files.deleteIfExists(Paths.get(keyPath).resolve(LogSegment.fileName(id)));
+            Files.deleteIfExists(LogHint.pathFor(Paths.get(keyPath), id));
+        }
+        Files.delete(manifest);
+        logger.info("Finished interrupted merge");
+    }
+
+    private List<Integer> listSegmentIds() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(keyPath))) {
+            for (Path p : stream) {
+                int id = LogSegment.parseId(p.getFileName().toString());
+                if (id >= 0) ids.add(id);
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Appends a record to the active segment, rolling over to a new segment
+     * if the active one is full, and updates the key directory.
+     * Must be called while holding {@code writeLock}.
+     * @param key
+     * @param rawValue value with subscriber header, or null for a tombstone
+     * @throws IOException
+     */
+    private void append(String key, String rawValue) throws IOException {
+        long seq = nextSeq++;
+        ByteBuffer record = LogRecord.encode(seq, key, rawValue);
+        int size = record.remaining();
+
+        if (active == null || (active.size() > 0 && active.size() + size > maxSegmentSize)) {
+            rollSegment();
+        }
+        long offset = active.append(record);
+
+        KeyDirEntry prev;
+        if (rawValue == null) {
+            prev = keyDir.remove(key);
+            if (prev != null) ring.remove(key, MD5.hash(key));
+            // the tombstone only exists to shadow older records
+            addDeadBytes(active.id, size);
+        }
+        else {
+            prev = keyDir.put(key, new KeyDirEntry(active.id, offset, size, seq));
+            if (prev == null) ring.add(key, MD5.hash(key));
+        }
+        if (prev != null) addDeadBytes(prev.segmentId, prev.size);
+    }
+
+    private void addDeadBytes(int segmentId, long bytes) {
+        AtomicLong dead = deadBytes.get(segmentId);
+        if (dead != null) dead.addAndGet(bytes);
+    }
+
+    long deadBytes(int segmentId) {
+        AtomicLong dead = deadBytes.get(segmentId);
+        return dead == null ? 0 : dead.get();
+    }
+
+    /**
+     * Seals the active segment and opens a new one. Must hold {@code writeLock}.
+     * @throws IOException
+     */
+    private void rollSegment() throws IOException {
+        Files.createDirectories(Paths.get(keyPath));
+        LogSegment segment = openSegment(allocateSegmentId());
+        segments.put(segment.id, segment);
+        deadBytes.put(segment.id, new AtomicLong());
+        active = segment;
+    }
+
+    int allocateSegmentId() {
+        writeLock.lock();
+        try {
+            return nextSegmentId++;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    LogSegment openSegment(int id) throws IOException {
+        return LogSegment.open(Paths.get(keyPath), id);
+    }
+
+    long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * @return every segment except the active one, oldest first
+     */
+    List<LogSegment> sealedSegments() {
+        writeLock.lock();
+        try {
+            List<LogSegment> sealed = new ArrayList<>();
+            for (LogSegment segment : segments.values()) {
+                if (segment != active) sealed.add(segment);
+            }
+            Collections.sort(sealed, new Comparator<LogSegment>() {
+                @Override
+                public int compare(LogSegment a, LogSegment b) {
+                    return Integer.compare(a.id, b.id);
+                }
+            });
+            return sealed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Makes the result of a merge visible: registers the output segments,
+     * points the key directory at the copied records (unless a key was
+     * rewritten in the meantime) and removes the input segments.
+     * @param inputs merged segments
+     * @param outputs newly written segments, already synced
+     * @param relocations key directory updates
+     * @param batch number of relocations applied per write lock acquisition
+     * @throws IOException
+     */
+    void installMerged(List<LogSegment> inputs, List<LogSegment> outputs,
+                       List<LogCompactor.Relocation> relocations, int batch) throws IOException {
+        Path manifest = Paths.get(keyPath).resolve(MERGE_MANIFEST);
+        StringBuilder ids = new StringBuilder();
+        for (LogSegment segment : inputs) ids.append(segment.id).append("\n");
+        Files.write(manifest, ids.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (LogSegment segment : outputs) {
+            deadBytes.put(segment.id, new AtomicLong());
+            segments.put(segment.id, segment);
+        }
+        for (int i = 0; i < relocations.size(); i += batch) {
+            writeLock.lock();
+            try {
+                for (int j = i; j < Math.min(i + batch, relocations.size()); j++) {
+                    LogCompactor.Relocation r = relocations.get(j);
+                    if (!keyDir.replace(r.key, r.from, r.to))
+                        addDeadBytes(r.to.segmentId, r.to.size);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        for (LogSegment segment : inputs) {
+            segments.remove(segment.id);
+            deadBytes.remove(segment.id);
+            segment.close();
+            Files.deleteIfExists(segment.path);
+            Files.deleteIfExists(LogHint.pathFor(Paths.get(keyPath), segment.id));
+        }
+        Files.delete(manifest);
+    }
+
+    /**
+     * Reads the raw stored value (subscriber header included) of a key.
+     * Retries if a merge retired the segment between the key directory lookup
+     * and the read; by then the key directory points at the merged copy.
+     * @param key
+     * @return raw value or null if the key does not exist
+     */
+    private String readRaw(String key) {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            KeyDirEntry entry = keyDir.get(key);
+            if (entry == null) return null;
+            LogSegment segment = segments.get(entry.segmentId);
+            if (segment == null) continue;
+            try {
+                return LogRecord.readValue(segment.channel, entry.offset, entry.size);
+            }
+            catch (ClosedChannelException cce) {
+                // segment retired by a merge, look the key up again
+            }
+            catch (Exception e) {
+                logger.warn("Exception thrown when trying to read key-value pair: ", e);
+                return null;
+            }
+        }
+        logger.warn("Could not read key " + key + " after concurrent merges");
+        return null;
+    }
+
+    @Override
+    public String getValue(String key, boolean withSub) {
+        String value = readRaw(key);
+        if (value == null) return null;
+        if (!withSub) {
+            int idx = value.indexOf("\n");
+            value = value.substring(idx + 1);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean insertPair(String key, String value, boolean withSub) throws Exception {
+        try {
+            writeLock.lock();
+            try {
+                boolean exists = keyDir.containsKey(key);
+                if (!withSub) {
+                    List<String> subs = exists ? getSubscribers(key) : null;
+                    value = formatSubscribers(subs) + value;
+                }
+                append(key, value);
+                return exists;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        catch (IOException e) {
+            logger.warn("Exception thrown when writing to the key-value store:", e);
+            throw new Exception("Write Exception");
+        }
+    }
+
+    @Override
+    public boolean deletePair(String key) throws IOException {
+        writeLock.lock();
+        try {
+            if (!keyDir.containsKey(key)) {
+                logger.debug("The key you are attempting to delete does not exist");
+                throw new NoSuchFileException(key);
+            }
+            append(key, null);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean clearStorage() {
+        return clearStorage(true);
+    }
+
+    public boolean clearStorage(boolean deleteDir) {
+        compactor.lockMerges();
+        try {
+            writeLock.lock();
+            try {
+                return clearFiles(deleteDir);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        finally {
+            compactor.unlockMerges();
+        }
+    }
+
+    private boolean clearFiles(boolean deleteDir) {
+        keyDir.clear();
+        ring.clear();
+        deadBytes.clear();
+        active = null;
+        try {
+            for (LogSegment segment : segments.values()) {
+                segment.close();
+                Files.deleteIfExists(segment.path);
+                Files.deleteIfExists(LogHint.pathFor(Paths.get(keyPath), segment.id));
+            }
+            segments.clear();
+
+            Path rootPath = Paths.get(keyPath);
+            Path defPath = Paths.get(defaultPath);
+            if (deleteDir && !rootPath.toString().equals(defPath.toString()))
+                Files.deleteIfExists(rootPath);
+        }
+        catch (Exception e) {
+            logger.warn("Exception occurred when deleting files: ", e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void sync() throws IOException {
+        for (LogSegment segment : segments.values()) {
+            try {
+                segment.channel.force(false);
+            }
+            catch (ClosedChannelException cce) {
+                // retired by a merge, its records were synced into the merge output
+            }
+        }
+    }
+
+    /**
+     * @return the background compactor of this database
+     */
+    public LogCompactor getCompactor() {
+        return compactor;
+    }
+
+    /**
+     * @return number of segment files, including the active one
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return total bytes held in segment files
+     */
+    public long getDiskSize() {
+        long total = 0;
+        for (LogSegment segment : segments.values()) total += segment.size();
+        return total;
+    }
+
+    @Override
+    public String[] getAllKeys() {
+        return keyDir.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public Iterator<String> keysInRange(Range range) {
+        return ring.keysInRange(range);
+    }
+
+    @Override
+    public List<String> getSubscribers(String key) {
+        String value = readRaw(key);
+        if (value == null) return null;
+        int idx = value.indexOf("\n");
+        if (idx <= 0) return null;
+        return new ArrayList<>(Arrays.asList(value.substring(0, idx).split(",")));
+    }
+
+    @Override
+    public void addSubscriber(String key, String clientID) throws Exception {
+        writeLock.lock();
+        try {
+            String value = getValue(key, false);
+            if (value == null) throw new IOException("Key " + key + " does not exist");
+            List<String> subs = getSubscribers(key);
+            if (subs == null) subs = new ArrayList<>();
+            if (subs.contains(clientID)) return;
+            subs.add(clientID);
+            append(key, formatSubscribers(subs) + value);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeSubscriber(String key, String clientID) throws Exception {
+        writeLock.lock();
+        try {
+            List<String> subs = getSubscribers(key);
+            if (subs == null || !subs.remove(clientID)) return false;
+            append(key, formatSubscribers(subs) + getValue(key, false));
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Formats a subscriber list into the header line stored in front of a value
+     * @param subs
+     * @return "a,b,c\n", or "\n" for no subscribers
+     */
+    private static String formatSubscribers(List<String> subs) {
+        if (subs == null || subs.isEmpty()) return "\n";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < subs.size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append(subs.get(i));
+        }
+        return sb.append("\n").toString();
+    }
+}
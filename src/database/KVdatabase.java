@@ -2,6 +2,7 @@ package database;
 
 import app_kvServer.KVServer;
 import org.apache.log4j.Logger;
+import shared.Range;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -11,10 +12,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Class for manipulating key-value store database using a simple key to file mapping
@@ -27,9 +27,14 @@ public class KVdatabase implements IKVDatabase{
      * Store the file channel for all open keys in the system
      */
     ConcurrentHashMap<String, FileChannel> channels;
+    /**
+     * Persisted key to file mapping, so listing keys never walks the directory
+     */
+    KeyIndex index;
     KVServer sv;
     public String keyPath;
     String defaultPath = "./src/KVStorage";
+    static final String SUFFIX = ".txt";
     public static Logger logger = Logger.getLogger(KVdatabase.class);
 
     /**
@@ -56,17 +61,24 @@ public class KVdatabase implements IKVDatabase{
 
         logger.debug("Initializing database with path: " + this.keyPath);
 
-        //create datapath directory if it doesn't exist
+        //create datapath directory and its parents if they don't exist
         if (!Files.isDirectory(Paths.get(this.keyPath))){
 
             try {
-                Files.createDirectory(Paths.get(this.keyPath));
+                Files.createDirectories(Paths.get(this.keyPath));
             }
             catch(Exception e){
                 logger.warn("Error while initializing database: ", e);
             }
         }
         channels = new ConcurrentHashMap<>();
+        try {
+            index = new KeyIndex(Paths.get(this.keyPath));
+        }
+        catch (IOException e) {
+            logger.error("Could not load key index: ", e);
+            throw new IllegalStateException("Could not load key index of " + this.keyPath, e);
+        }
     }
 
     /**
@@ -78,7 +90,9 @@ public class KVdatabase implements IKVDatabase{
 
     @Override
     public String getValue(String key, boolean withSub) {
-        String kvFile =  keyPath + "/" +  key + ".txt";
+        // the index lists every stored key, so a miss needs no failed file open
+        if (!index.contains(key)) return null;
+        String kvFile =  keyPath + "/" +  key + SUFFIX;
         String value = "";
         Path path = Paths.get(kvFile);
         FileChannel reader = channels.get(path.toString());
@@ -119,7 +133,7 @@ public class KVdatabase implements IKVDatabase{
 
     @Override
     public boolean insertPair(String key, String value, boolean withSub) throws Exception{
-        String kvFile = keyPath + "/" +  key + ".txt";
+        String kvFile = keyPath + "/" +  key + SUFFIX;
         boolean exists = true;
         Path path = Paths.get(kvFile);
 
@@ -129,6 +143,7 @@ public class KVdatabase implements IKVDatabase{
             String subscribers = "\n";
             if (writer == null) {
                 exists = false;
+                index.add(key, key + SUFFIX);
                 writer = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
                 channels.put(path.toString(), writer);
             }
@@ -162,7 +177,7 @@ public class KVdatabase implements IKVDatabase{
 
     @Override
     public boolean deletePair(String key) throws IOException {
-        String kvFile = keyPath + "/" +  key + ".txt";
+        String kvFile = keyPath + "/" +  key + SUFFIX;
         Path path = Paths.get(kvFile);
         boolean success = false;
         try {
@@ -170,6 +185,7 @@ public class KVdatabase implements IKVDatabase{
             if (channel != null) channel.close();
             channels.remove(path.toString());
             Files.delete(path);
+            index.remove(key);
             success = true;
 
 
@@ -198,30 +214,19 @@ public class KVdatabase implements IKVDatabase{
     public boolean clearStorage(boolean deleteDir) {
         Path rootPath = Paths.get(keyPath);
 
-
-        channels.clear();
         try{
-            Stream<Path> pathStream = Files.walk(rootPath);
-            List<Path> pathList = pathStream.collect(Collectors.<Path>toList());
-            for (Path curr:pathList){
-                if (Files.isDirectory(curr)) continue;
-                String key  = curr.getFileName().toString();
-                String keySub = key.substring(0, 4);
-                if (keySub.equals(".nfs")) continue;
-                FileChannel channel = channels.get(key);
-
-                if (channel != null) {
-                    channel.close();
-                    channels.remove(key);
-                }
-                boolean success = Files.deleteIfExists(curr);
-                if (!success) {
-                    return false;
-                }
+            for (FileChannel channel : channels.values()) {
+                channel.close();
+            }
+            channels.clear();
+            for (KeyIndex.Entry entry : index.entries().values()) {
+                Files.deleteIfExists(rootPath.resolve(entry.location));
             }
+            index.clear();
+
             Path defPath = Paths.get(defaultPath);
             if (!rootPath.toString().equals(defPath.toString()))
-                if (deleteDir) Files.delete(rootPath);
+                if (deleteDir && Files.isDirectory(rootPath)) Files.delete(rootPath);
 
         }
         catch (Exception e){
@@ -232,29 +237,31 @@ public class KVdatabase implements IKVDatabase{
     }
 
     public String[] getAllKeys() {
-        Path rootPath = Paths.get(keyPath);
-        List<String> res = new ArrayList<>();
-        try {
-            Stream<Path> pathStream = Files.walk(rootPath);
-            List<Path> pathList = pathStream.collect(Collectors.<Path>toList());
-            for (Path curr : pathList) {
-                if (Files.isDirectory(curr)) continue;
+        return index.keys();
+    }
 
-                String key = curr.getFileName().toString();
-                String keySub = key.substring(0, 4);
-                if (keySub.equals(".nfs")) continue;
-                res.add(key.replace(".txt", ""));
+    @Override
+    public Iterator<String> keysInRange(Range range) {
+        return index.keysInRange(range);
+    }
 
-            }
+    /**
+     * @return the key index of this database
+     */
+    public KeyIndex getIndex() {
+        return index;
+    }
 
-        } catch (Exception e) {
-            logger.warn("Exception occurred when deleting files: ", e);
+    @Override
+    public void sync() throws IOException {
+        for (FileChannel channel : channels.values()) {
+            if (channel.isOpen()) channel.force(false);
         }
-        return res.toArray(new String[0]);
+        index.sync();
     }
 
     public List<String> getSubscribers(String key){
-        String kvFile =  keyPath + "/" +  key + ".txt";
+        String kvFile =  keyPath + "/" +  key + SUFFIX;
         List<String> subs;
         Path path = Paths.get(kvFile);
         FileChannel reader = channels.get(path.toString());
@@ -304,7 +311,7 @@ public class KVdatabase implements IKVDatabase{
             list = list.replace("[", "");
             list = list.replace("]", "\n");
 
-            String kvFile = keyPath + "/" +  key + ".txt";
+            String kvFile = keyPath + "/" +  key + SUFFIX;
             Path path = Paths.get(kvFile);
             StringBuilder value = new StringBuilder(new String(getValue(key, false)));
             value.insert(0, list);
@@ -328,7 +335,7 @@ public class KVdatabase implements IKVDatabase{
             StringBuilder value = new StringBuilder(new String(getValue(key, false)));
             value.insert(0, list);
 
-            String kvFile = keyPath + "/" +  key + ".txt";
+            String kvFile = keyPath + "/" +  key + SUFFIX;
             Path path = Paths.get(kvFile);
             FileChannel channel = channels.get(path.toString());
             channel.position(0);
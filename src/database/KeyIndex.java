@@ -0,0 +1,366 @@
+package database;
+
+import org.apache.log4j.Logger;
+import shared.MD5;
+import shared.Range;
+import shared.RingHash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persisted index of the keys held by a {@link KVdatabase}, mapping each key to
+ * the file that stores it and its precomputed MD5 hash.
+ *
+ * The index lives in two files inside the data directory: a snapshot written at
+ * every checkpoint and a journal of additions and removals made since. Loading
+ * reads the snapshot and replays the journal, so startup costs O(index size)
+ * instead of a walk over the data directory. Additions are journaled before the
+ * key file is created, so a crash can only leave behind journaled keys without a
+ * file; those are dropped while loading.
+ *
+ * Snapshot and journal record layout:
+ * {@code [op:byte][keyLen:int][key][locationLen:int][location][hash:16]},
+ * where removals only carry the key.
+ */
+public class KeyIndex {
+
+    private static Logger logger = Logger.getLogger(KeyIndex.class);
+
+    static final String SNAPSHOT = ".keyindex";
+    static final String JOURNAL = ".keyindex.journal";
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 4096;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 0;
+
+    /**
+     * Where a key is stored and what it hashes to
+     */
+    public static class Entry {
+        public final String location;
+        public final RingHash hash;
+
+        Entry(String location, RingHash hash) {
+            this.location = location;
+            this.hash = hash;
+        }
+    }
+
+    private final Path dir;
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final RingIndex ring = new RingIndex();
+    private FileChannel journal;
+    private int journaled = 0;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    /** guards the journal; a lock rather than a monitor so journal I/O does not pin virtual threads */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Loads the index of the given data directory, rebuilding it from the
+     * directory contents if no index has been written yet
+     * @param dir data directory
+     * @throws IOException
+     */
+    public KeyIndex(Path dir) throws IOException {
+        this.dir = dir;
+        this.snapshotPath = dir.resolve(SNAPSHOT);
+        this.journalPath = dir.resolve(JOURNAL);
+
+        if (Files.exists(snapshotPath) || Files.exists(journalPath)) {
+            load();
+        } else {
+            rebuild();
+        }
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            ring.add(e.getKey(), e.getValue().hash);
+        }
+        Files.createDirectories(dir);
+        openJournal();
+        if (journaled > 0) checkpoint();
+    }
+
+    /**
+     * @param records number of journal records after which a snapshot is written
+     */
+    public void setCheckpointInterval(int records) {
+        lock.lock();
+        try {
+            this.checkpointInterval = records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public Entry get(String key) {
+        return entries.get(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public String[] keys() {
+        return entries.keySet().toArray(new String[0]);
+    }
+
+    public Map<String, Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * @param range
+     * @return keys whose hash lies in the range, see {@link RingIndex#keysInRange}
+     */
+    public Iterator<String> keysInRange(Range range) {
+        return ring.keysInRange(range);
+    }
+
+    /**
+     * Records a key. Must be called before the key's file is created.
+     * @param key
+     * @param location file name of the key inside the data directory
+     * @throws IOException
+     */
+    public void add(String key, String location) throws IOException {
+        lock.lock();
+        try {
+            if (entries.containsKey(key)) return;
+            Entry entry = new Entry(location, MD5.hash(key));
+            appendJournal(encode(ADD, key, entry));
+            entries.put(key, entry);
+            ring.add(key, entry.hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forgets a key. Called once the key's file has been deleted.
+     * @param key
+     * @throws IOException
+     */
+    public void remove(String key) throws IOException {
+        lock.lock();
+        try {
+            Entry entry = entries.remove(key);
+            if (entry == null) return;
+            ring.remove(key, entry.hash);
+            appendJournal(encode(REMOVE, key, null));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the whole index and empties the journal
+     * @throws IOException
+     */
+    public void checkpoint() throws IOException {
+        lock.lock();
+        try {
+            Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+                 BufferedOutputStream out = new BufferedOutputStream(file)) {
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    out.write(encode(ADD, e.getKey(), e.getValue()));
+                }
+                out.flush();
+                file.getChannel().force(true);
+            }
+            Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journal.truncate(0);
+            journal.force(true);
+            journaled = 0;
+            logger.debug("Checkpointed key index with " + entries.size() + " keys");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the journal to stable storage
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            if (journal.isOpen()) journal.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every key and deletes the index files. The index stays usable
+     * and recreates its files on the next addition.
+     * @throws IOException
+     */
+    public void clear() throws IOException {
+        lock.lock();
+        try {
+            entries.clear();
+            ring.clear();
+            journal.close();
+            Files.deleteIfExists(snapshotPath);
+            Files.deleteIfExists(journalPath);
+            journaled = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void openJournal() throws IOException {
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void appendJournal(byte[] record) throws IOException {
+        if (!journal.isOpen()) {
+            // first write after clear(), which may also have removed the directory
+            Files.createDirectories(dir);
+            openJournal();
+        }
+        ByteBuffer buff = ByteBuffer.wrap(record);
+        while (buff.hasRemaining()) {
+            journal.write(buff);
+        }
+        if (++journaled >= checkpointInterval) checkpoint();
+    }
+
+    private void load() throws IOException {
+        read(snapshotPath, null);
+        List<String> added = new ArrayList<>();
+        journaled = read(journalPath, added);
+
+        // additions are journaled ahead of the file write, so check the last ones
+        int dropped = 0;
+        for (String key : added) {
+            Entry entry = entries.get(key);
+            if (entry != null && !Files.exists(dir.resolve(entry.location))) {
+                entries.remove(key);
+                dropped++;
+            }
+        }
+        logger.info("Loaded key index of " + dir + " with " + entries.size() + " keys"
+                + (dropped > 0 ? " (" + dropped + " unwritten keys dropped)" : ""));
+    }
+
+    /**
+     * Applies every complete record of an index file
+     * @param path snapshot or journal
+     * @param added collects the keys added by the file, may be null
+     * @return number of records read
+     * @throws IOException
+     */
+    private int read(Path path, List<String> added) throws IOException {
+        if (!Files.exists(path)) return 0;
+        int records = 0;
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException eof) {
+                    break;
+                }
+                try {
+                    String key = readString(in);
+                    if (op == ADD) {
+                        String location = readString(in);
+                        RingHash hash = new RingHash(in.readLong(), in.readLong());
+                        entries.put(key, new Entry(location, hash));
+                        if (added != null) added.add(key);
+                    } else {
+                        entries.remove(key);
+                    }
+                    records++;
+                } catch (EOFException eof) {
+                    logger.warn("Ignoring incomplete record at the end of " + path);
+                    break;
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * One-off scan used when a data directory has no index yet
+     * @throws IOException
+     */
+    private void rebuild() throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + KVdatabase.SUFFIX)) {
+            for (Path path : files) {
+                String name = path.getFileName().toString();
+                if (!Files.isRegularFile(path) || name.startsWith(".")) continue;
+                String key = name.substring(0, name.length() - KVdatabase.SUFFIX.length());
+                entries.put(key, new Entry(name, MD5.hash(key)));
+            }
+        }
+        // force a first snapshot so the scan is not repeated
+        journaled = entries.size();
+        if (journaled > 0) logger.info("Rebuilt key index of " + dir + " with " + journaled + " keys");
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) throw new EOFException();
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] encode(byte op, String key, Entry entry) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(op);
+            writeString(out, key);
+            if (op == ADD) {
+                writeString(out, entry.location);
+                out.writeLong(entry.hash.hi);
+                out.writeLong(entry.hash.lo);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException ioe) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(ioe);
+        }
+    }
+}
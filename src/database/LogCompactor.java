@@ -0,0 +1,211 @@
+package database;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background compaction for {@link KVLogDatabase}.
+ *
+ * Periodically checks whether the sealed segments carry too much garbage
+ * (dead-byte ratio) or have become too numerous, and if so merges all of them
+ * into fresh segments that only contain the live version of each key.
+ * Overwritten values and tombstones are dropped, and a hint file is emitted for
+ * every merged segment so recovery does not need to read values.
+ *
+ * Copying is paced by an {@link IORateLimiter} and the database write lock is
+ * only taken for short bookkeeping steps, so foreground requests keep running
+ * while a merge is in progress.
+ */
+public class LogCompactor implements Runnable {
+
+    private static Logger logger = Logger.getLogger(LogCompactor.class);
+
+    public static final double DEFAULT_DEAD_RATIO = 0.5;
+    public static final int DEFAULT_MAX_SEALED_SEGMENTS = 8;
+    public static final long DEFAULT_RATE = 16L * 1024 * 1024;
+    public static final long DEFAULT_CHECK_INTERVAL = 10000;
+
+    /** Number of key directory swaps done per write lock acquisition */
+    private static final int SWAP_BATCH = 1024;
+
+    private final KVLogDatabase db;
+    private final IORateLimiter limiter;
+    private final ReentrantLock mergeLock = new ReentrantLock();
+
+    private volatile double deadRatioTrigger = DEFAULT_DEAD_RATIO;
+    private volatile int segmentCountTrigger = DEFAULT_MAX_SEALED_SEGMENTS;
+    private volatile long checkInterval = DEFAULT_CHECK_INTERVAL;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    /**
+     * Pending key directory update produced by a merge
+     */
+    static class Relocation {
+        final String key;
+        final KVLogDatabase.KeyDirEntry from;
+        final KVLogDatabase.KeyDirEntry to;
+
+        Relocation(String key, KVLogDatabase.KeyDirEntry from, KVLogDatabase.KeyDirEntry to) {
+            this.key = key;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    public LogCompactor(KVLogDatabase db) {
+        this.db = db;
+        this.limiter = new IORateLimiter(DEFAULT_RATE);
+    }
+
+    /**
+     * @param ratio merge once dead bytes make up at least this fraction of the sealed segments
+     */
+    public void setDeadRatioTrigger(double ratio) {
+        this.deadRatioTrigger = ratio;
+    }
+
+    /**
+     * @param count merge once at least this many sealed segments exist
+     */
+    public void setSegmentCountTrigger(int count) {
+        this.segmentCountTrigger = count;
+    }
+
+    /**
+     * @param bytesPerSecond maximum copy rate of a merge, {@code <= 0} for unlimited
+     */
+    public void setRateLimit(long bytesPerSecond) {
+        limiter.setRate(bytesPerSecond);
+    }
+
+    /**
+     * @param millis time between trigger checks
+     */
+    public void setCheckInterval(long millis) {
+        this.checkInterval = millis;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "log-compactor");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) thread.interrupt();
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(checkInterval);
+                if (shouldCompact()) compact();
+            } catch (InterruptedException ie) {
+                return;
+            } catch (Exception e) {
+                logger.warn("Compaction failed: ", e);
+            }
+        }
+    }
+
+    /**
+     * @return true if either trigger is met
+     */
+    public boolean shouldCompact() {
+        List<LogSegment> sealed = db.sealedSegments();
+        if (sealed.isEmpty()) return false;
+        if (sealed.size() >= segmentCountTrigger) return true;
+
+        long total = 0;
+        long dead = 0;
+        for (LogSegment segment : sealed) {
+            total += segment.size();
+            dead += db.deadBytes(segment.id);
+        }
+        return total > 0 && (double) dead / total >= deadRatioTrigger;
+    }
+
+    /**
+     * Merges all sealed segments into new segments holding only live records
+     * @return true if a merge was performed
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public boolean compact() throws IOException, InterruptedException {
+        mergeLock.lock();
+        try {
+            List<LogSegment> inputs = db.sealedSegments();
+            if (inputs.isEmpty()) return false;
+
+            List<LogSegment> outputs = new ArrayList<>();
+            List<Relocation> relocations = new ArrayList<>();
+            List<LogHint> hints = new ArrayList<>();
+            LogSegment out = null;
+            long copied = 0;
+
+            for (LogSegment segment : inputs) {
+                long offset = 0;
+                long limit = segment.size();
+                while (offset < limit) {
+                    LogRecord record = LogRecord.read(segment.channel, offset, limit);
+                    if (record == null) break;
+
+                    KVLogDatabase.KeyDirEntry current = db.keyDir.get(record.key);
+                    boolean live = !record.tombstone && current != null
+                            && current.segmentId == segment.id && current.offset == offset;
+                    if (live) {
+                        limiter.acquire(record.size);
+                        if (out == null || out.size() + record.size > db.getMaxSegmentSize()) {
+                            if (out != null) seal(out, hints);
+                            out = db.openSegment(db.allocateSegmentId());
+                            outputs.add(out);
+                            hints = new ArrayList<>();
+                        }
+                        long newOffset = out.append(LogRecord.encode(record.seq, record.key, record.value));
+                        hints.add(new LogHint(record.key, record.seq, newOffset, record.size));
+                        relocations.add(new Relocation(record.key, current,
+                                new KVLogDatabase.KeyDirEntry(out.id, newOffset, record.size, record.seq)));
+                        copied += record.size;
+                    }
+                    offset += record.size;
+                }
+            }
+            if (out != null) seal(out, hints);
+
+            db.installMerged(inputs, outputs, relocations, SWAP_BATCH);
+            logger.info("Merged " + inputs.size() + " segments into " + outputs.size()
+                    + " (" + copied + " live bytes)");
+            return true;
+        }
+        finally {
+            mergeLock.unlock();
+        }
+    }
+
+    private void seal(LogSegment segment, List<LogHint> hints) throws IOException {
+        segment.channel.force(true);
+        LogHint.write(LogHint.pathFor(segment.path.getParent(), segment.id), hints);
+    }
+
+    /**
+     * Blocks merges while the storage directory is being wiped
+     */
+    void lockMerges() {
+        mergeLock.lock();
+    }
+
+    void unlockMerges() {
+        mergeLock.unlock();
+    }
+}
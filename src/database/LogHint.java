@@ -0,0 +1,94 @@
+package database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hint file written next to a merged segment. It lists the key and location
+ * of every record in the segment so that recovery can rebuild the key
+ * directory without reading the values.
+ *
+ * Layout per entry: {@code [seq:long][offset:long][size:int][keyLen:int][key]}
+ */
+class LogHint {
+
+    static final String SUFFIX = ".hint";
+
+    final String key;
+    final long seq;
+    final long offset;
+    final int size;
+
+    LogHint(String key, long seq, long offset, int size) {
+        this.key = key;
+        this.seq = seq;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    static Path pathFor(Path dir, int segmentId) {
+        return dir.resolve(String.format("%010d", segmentId) + SUFFIX);
+    }
+
+    /**
+     * Writes and syncs a hint file
+     * @param path
+     * @param hints
+     * @throws IOException
+     */
+    static void write(Path path, List<LogHint> hints) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(path.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            for (LogHint hint : hints) {
+                byte[] keyBytes = hint.key.getBytes(StandardCharsets.UTF_8);
+                out.writeLong(hint.seq);
+                out.writeLong(hint.offset);
+                out.writeInt(hint.size);
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+            }
+            out.flush();
+            file.getChannel().force(true);
+        }
+    }
+
+    /**
+     * Reads a hint file
+     * @param path
+     * @return the entries, or null if the file is missing or truncated
+     */
+    static List<LogHint> read(Path path) {
+        if (!Files.exists(path)) return null;
+        List<LogHint> hints = new ArrayList<>();
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            while (true) {
+                long seq;
+                try {
+                    seq = in.readLong();
+                } catch (EOFException eof) {
+                    return hints;
+                }
+                long offset = in.readLong();
+                int size = in.readInt();
+                byte[] keyBytes = new byte[in.readInt()];
+                in.readFully(keyBytes);
+                hints.add(new LogHint(new String(keyBytes, StandardCharsets.UTF_8), seq, offset, size));
+            }
+        } catch (IOException e) {
+            KVLogDatabase.logger.warn("Ignoring unreadable hint file " + path, e);
+            return null;
+        }
+    }
+}
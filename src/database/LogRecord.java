@@ -0,0 +1,128 @@
+package database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * A single entry of an append-only segment file.
+ *
+ * On disk a record is laid out as
+ * {@code [crc:int][seq:long][flags:byte][keyLen:int][valueLen:int][key][value]}
+ * where the checksum covers everything after itself. A tombstone (written by
+ * a delete) carries no value bytes.
+ */
+class LogRecord {
+
+    static final int HEADER_SIZE = 4 + 8 + 1 + 4 + 4;
+    static final byte FLAG_TOMBSTONE = 1;
+
+    /** Upper bound on key/value sizes, used to reject garbage at the tail of a torn segment */
+    private static final int MAX_FIELD_SIZE = 64 * 1024 * 1024;
+
+    final long seq;
+    final boolean tombstone;
+    final String key;
+    final String value;
+    final int size;
+
+    LogRecord(long seq, boolean tombstone, String key, String value, int size) {
+        this.seq = seq;
+        this.tombstone = tombstone;
+        this.key = key;
+        this.value = value;
+        this.size = size;
+    }
+
+    /**
+     * Encodes a record into a buffer ready to be appended to a segment
+     * @param seq sequence number of the write
+     * @param key
+     * @param value raw value (subscriber header included), null for a tombstone
+     * @return flipped buffer containing the whole record
+     */
+    static ByteBuffer encode(long seq, String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buff = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + valueBytes.length);
+        buff.putInt(0);
+        buff.putLong(seq);
+        buff.put(value == null ? FLAG_TOMBSTONE : 0);
+        buff.putInt(keyBytes.length);
+        buff.putInt(valueBytes.length);
+        buff.put(keyBytes);
+        buff.put(valueBytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(buff.array(), 4, buff.position() - 4);
+        buff.putInt(0, (int) crc.getValue());
+        buff.flip();
+        return buff;
+    }
+
+    /**
+     * Reads the record starting at the given offset of a channel
+     * @param channel segment channel
+     * @param offset position of the record header
+     * @param limit number of valid bytes in the channel
+     * @return the record, or null if the bytes at offset do not form a complete,
+     *         uncorrupted record (e.g. the tail of a write interrupted by a crash)
+     * @throws IOException
+     */
+    static LogRecord read(FileChannel channel, long offset, long limit) throws IOException {
+        if (offset + HEADER_SIZE > limit) return null;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, offset);
+        header.flip();
+        int crc = header.getInt();
+        long seq = header.getLong();
+        byte flags = header.get();
+        int keyLen = header.getInt();
+        int valueLen = header.getInt();
+
+        if (keyLen < 0 || valueLen < 0 || keyLen > MAX_FIELD_SIZE || valueLen > MAX_FIELD_SIZE)
+            return null;
+        int size = HEADER_SIZE + keyLen + valueLen;
+        if (offset + size > limit) return null;
+
+        ByteBuffer body = ByteBuffer.allocate(keyLen + valueLen);
+        readFully(channel, body, offset + HEADER_SIZE);
+
+        CRC32 check = new CRC32();
+        check.update(header.array(), 4, HEADER_SIZE - 4);
+        check.update(body.array(), 0, body.capacity());
+        if ((int) check.getValue() != crc) return null;
+
+        boolean tombstone = (flags & FLAG_TOMBSTONE) != 0;
+        String key = new String(body.array(), 0, keyLen, StandardCharsets.UTF_8);
+        String value = tombstone ? null : new String(body.array(), keyLen, valueLen, StandardCharsets.UTF_8);
+        return new LogRecord(seq, tombstone, key, value, size);
+    }
+
+    /**
+     * Reads only the value of a record whose location is already known to be valid
+     * @param channel segment channel
+     * @param offset position of the record header
+     * @param size total record size
+     * @return decoded value
+     * @throws IOException
+     */
+    static String readValue(FileChannel channel, long offset, int size) throws IOException {
+        ByteBuffer buff = ByteBuffer.allocate(size);
+        readFully(channel, buff, offset);
+        int keyLen = buff.getInt(4 + 8 + 1);
+        int valueOffset = HEADER_SIZE + keyLen;
+        return new String(buff.array(), valueOffset, size - valueOffset, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buff, long position) throws IOException {
+        while (buff.hasRemaining()) {
+            int n = channel.read(buff, position + buff.position());
+            if (n < 0) throw new IOException("Unexpected end of segment");
+        }
+    }
+}
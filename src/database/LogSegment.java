@@ -0,0 +1,95 @@
+package database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One append-only data file of a {@link KVLogDatabase}.
+ * Only the active segment is ever appended to; once sealed a segment is
+ * read-only. Reads use positional I/O so they never contend with appends.
+ */
+class LogSegment {
+
+    static final String SUFFIX = ".seg";
+
+    final int id;
+    final Path path;
+    final FileChannel channel;
+    private volatile long size;
+
+    private LogSegment(int id, Path path, FileChannel channel, long size) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    /**
+     * Opens (or creates) the segment with the given id in a directory
+     * @param dir data directory
+     * @param id segment id
+     * @return the opened segment
+     * @throws IOException
+     */
+    static LogSegment open(Path dir, int id) throws IOException {
+        Path path = dir.resolve(fileName(id));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        return new LogSegment(id, path, channel, channel.size());
+    }
+
+    static String fileName(int id) {
+        return String.format("%010d", id) + SUFFIX;
+    }
+
+    /**
+     * Parses the segment id out of a file name
+     * @param fileName
+     * @return the id, or -1 if the file is not a segment
+     */
+    static int parseId(String fileName) {
+        if (!fileName.endsWith(SUFFIX)) return -1;
+        try {
+            return Integer.parseInt(fileName.substring(0, fileName.length() - SUFFIX.length()));
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /**
+     * Appends an encoded record. Callers serialize appends.
+     * @param record
+     * @return offset the record was written at
+     * @throws IOException
+     */
+    long append(ByteBuffer record) throws IOException {
+        long offset = size;
+        long position = offset;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        size = position;
+        return offset;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Drops everything after the given offset (used to cut off a torn write on recovery)
+     * @param length new size
+     * @throws IOException
+     */
+    void truncate(long length) throws IOException {
+        channel.truncate(length);
+        size = length;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,120 @@
+package database;
+
+import shared.Range;
+import shared.RingHash;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Keys ordered by their position on the hash ring, so that the keys of a
+ * {@link Range} can be listed in O(log n + keys in range) instead of hashing
+ * every key in the store.
+ *
+ * Slots are ordered by hash and then by key, which keeps two keys with the same
+ * hash apart. Iteration is weakly consistent, like the underlying skip list.
+ */
+public class RingIndex {
+
+    /**
+     * Position of a key on the ring. A null key sorts before every key with
+     * the same hash and is only used as a search bound.
+     */
+    static class Slot {
+        final RingHash hash;
+        final String key;
+
+        Slot(RingHash hash, String key) {
+            this.hash = hash;
+            this.key = key;
+        }
+    }
+
+    private static final Comparator<Slot> ORDER = new Comparator<Slot>() {
+        @Override
+        public int compare(Slot a, Slot b) {
+            int c = a.hash.compareTo(b.hash);
+            if (c != 0) return c;
+            if (a.key == null) return b.key == null ? 0 : -1;
+            if (b.key == null) return 1;
+            return a.key.compareTo(b.key);
+        }
+    };
+
+    private final ConcurrentSkipListSet<Slot> slots = new ConcurrentSkipListSet<>(ORDER);
+
+    public void add(String key, RingHash hash) {
+        slots.add(new Slot(hash, key));
+    }
+
+    public void remove(String key, RingHash hash) {
+        slots.remove(new Slot(hash, key));
+    }
+
+    public void clear() {
+        slots.clear();
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    /**
+     * Lists the keys whose hash lies in the given range, with the same bounds
+     * as {@link Range#inRange}: both ends are inclusive and a range whose start
+     * is past its end wraps around zero.
+     * @param range
+     * @return keys in ring order, starting at the range start
+     */
+    public Iterator<String> keysInRange(Range range) {
+        NavigableSet<Slot> fromStart = slots.tailSet(new Slot(range.start, null), true);
+        if (range.start.compareTo(range.end) <= 0)
+            return new KeyIterator(upToEnd(fromStart, range.end), null);
+        return new KeyIterator(fromStart, upToEnd(slots, range.end));
+    }
+
+    /**
+     * @return the slots of the view whose hash is at most {@code end}
+     */
+    private static NavigableSet<Slot> upToEnd(NavigableSet<Slot> view, RingHash end) {
+        if (end.equals(RingHash.MAX)) return view;
+        return view.headSet(new Slot(end.next(), null), false);
+    }
+
+    /**
+     * Walks one or two slot views and hands out their keys
+     */
+    private static class KeyIterator implements Iterator<String> {
+        private Iterator<Slot> current;
+        private NavigableSet<Slot> next;
+
+        KeyIterator(NavigableSet<Slot> first, NavigableSet<Slot> second) {
+            this.current = first.iterator();
+            this.next = second;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (next == null) return false;
+                current = next.iterator();
+                next = null;
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return current.next().key;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
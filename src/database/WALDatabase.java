@@ -0,0 +1,214 @@
+package database;
+
+import org.apache.log4j.Logger;
+import shared.Range;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Makes any {@link IKVDatabase} durable through a {@link WriteAheadLog}.
+ *
+ * Every mutation is appended to the log and applied to the wrapped database
+ * under a per-key lock (so log order and apply order agree for each key), and
+ * the call only returns once the log entry is durable. On construction the
+ * entries left behind by a crash are replayed. Once the log grows past the
+ * checkpoint size the wrapped database is synced and the log truncated.
+ */
+public class WALDatabase implements IKVDatabase {
+
+    public static Logger logger = Logger.getLogger(WALDatabase.class);
+    public static final long DEFAULT_CHECKPOINT_SIZE = 64L * 1024 * 1024;
+    private static final int NUM_STRIPES = 64;
+
+    private final IKVDatabase db;
+    private final WriteAheadLog wal;
+    private final ReentrantLock[] stripes = new ReentrantLock[NUM_STRIPES];
+    /** Appliers hold the read lock, checkpoints take the write lock */
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    private volatile long checkpointSize = DEFAULT_CHECKPOINT_SIZE;
+
+    /**
+     * Wraps a database and replays the log found at the given path
+     * @param db database the log protects
+     * @param logPath log file
+     * @param durability
+     * @throws IOException when the log cannot be opened or replayed
+     */
+    public WALDatabase(IKVDatabase db, Path logPath, WriteAheadLog.Durability durability) throws IOException {
+        this.db = db;
+        for (int i = 0; i < NUM_STRIPES; i++) stripes[i] = new ReentrantLock();
+        this.wal = new WriteAheadLog(logPath, durability);
+        recover();
+    }
+
+    /**
+     * Re-applies every logged operation. Operations are idempotent, so entries
+     * that had already reached the database before the crash are harmless.
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        List<WriteAheadLog.Entry> entries = wal.readAll();
+        if (entries.isEmpty()) return;
+
+        int failed = 0;
+        for (WriteAheadLog.Entry entry : entries) {
+            try {
+                apply(entry.op, entry.key, entry.value);
+            } catch (Exception e) {
+                // e.g. deleting a key whose delete already reached storage
+                failed++;
+            }
+        }
+        db.sync();
+        wal.truncate();
+        logger.info("Replayed " + entries.size() + " log entries (" + failed + " were no-ops)");
+    }
+
+    public WriteAheadLog getLog() {
+        return wal;
+    }
+
+    /**
+     * @param bytes log size after which the database is synced and the log truncated
+     */
+    public void setCheckpointSize(long bytes) {
+        this.checkpointSize = bytes;
+    }
+
+    private boolean apply(WriteAheadLog.Op op, String key, String value) throws Exception {
+        switch (op) {
+            case PUT:
+                return db.insertPair(key, value, false);
+            case PUT_RAW:
+                return db.insertPair(key, value, true);
+            case DELETE:
+                return db.deletePair(key);
+            case ADD_SUBSCRIBER:
+                db.addSubscriber(key, value);
+                return true;
+            case REMOVE_SUBSCRIBER:
+                return db.removeSubscriber(key, value);
+            default:
+                throw new IllegalArgumentException("Unknown log operation " + op);
+        }
+    }
+
+    /**
+     * Logs an operation, applies it and waits for the log entry to be durable
+     * @return result of the applied operation
+     * @throws Exception whatever the wrapped database throws
+     */
+    private boolean logAndApply(WriteAheadLog.Op op, String key, String value) throws Exception {
+        long position;
+        boolean result;
+        checkpointLock.readLock().lock();
+        try {
+            ReentrantLock stripe = stripes[(key.hashCode() & 0x7fffffff) % NUM_STRIPES];
+            stripe.lock();
+            try {
+                position = wal.append(op, key, value);
+                result = apply(op, key, value);
+            } finally {
+                stripe.unlock();
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        wal.awaitDurable(position);
+        maybeCheckpoint();
+        return result;
+    }
+
+    private void maybeCheckpoint() {
+        if (wal.size() < checkpointSize) return;
+        try {
+            if (!checkpointLock.writeLock().tryLock(50, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            if (wal.size() >= checkpointSize) {
+                db.sync();
+                wal.truncate();
+                logger.debug("Checkpointed write-ahead log");
+            }
+        } catch (IOException ioe) {
+            logger.warn("Checkpoint failed: ", ioe);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String getValue(String key, boolean withSub) {
+        return db.getValue(key, withSub);
+    }
+
+    @Override
+    public boolean insertPair(String key, String value, boolean withSubs) throws Exception {
+        return logAndApply(withSubs ? WriteAheadLog.Op.PUT_RAW : WriteAheadLog.Op.PUT, key, value);
+    }
+
+    @Override
+    public boolean deletePair(String key) throws IOException {
+        try {
+            return logAndApply(WriteAheadLog.Op.DELETE, key, null);
+        } catch (IOException ioe) {
+            throw ioe;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean clearStorage() {
+        checkpointLock.writeLock().lock();
+        try {
+            boolean success = db.clearStorage();
+            wal.truncate();
+            return success;
+        } catch (IOException ioe) {
+            logger.warn("Could not truncate write-ahead log: ", ioe);
+            return false;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String[] getAllKeys() {
+        return db.getAllKeys();
+    }
+
+    @Override
+    public Iterator<String> keysInRange(Range range) {
+        return db.keysInRange(range);
+    }
+
+    @Override
+    public void sync() throws IOException {
+        db.sync();
+    }
+
+    @Override
+    public List<String> getSubscribers(String key) {
+        return db.getSubscribers(key);
+    }
+
+    @Override
+    public void addSubscriber(String key, String clientID) throws Exception {
+        logAndApply(WriteAheadLog.Op.ADD_SUBSCRIBER, key, clientID);
+    }
+
+    @Override
+    public boolean removeSubscriber(String key, String clientID) throws Exception {
+        return logAndApply(WriteAheadLog.Op.REMOVE_SUBSCRIBER, key, clientID);
+    }
+}
@@ -0,0 +1,336 @@
+package database;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only redo log for storage mutations with group commit.
+ *
+ * Writers append their entry and then wait until it is durable. With
+ * {@link Durability#BATCH} the first waiter becomes the leader, optionally
+ * lingers for the commit window to let more writers append, and issues a
+ * single {@code FileChannel.force} that covers every entry written so far;
+ * all other waiters are released by that one sync.
+ *
+ * Entry layout: {@code [crc:int][op:byte][keyLen:int][valueLen:int][key][value]}
+ * with a value length of -1 meaning null.
+ */
+public class WriteAheadLog {
+
+    private static Logger logger = Logger.getLogger(WriteAheadLog.class);
+
+    public enum Durability {
+        NONE,   /* entries reach the page cache only */
+        BATCH,  /* one force per commit window shared by all concurrent writers */
+        WRITE   /* one force per entry */
+    }
+
+    /**
+     * Logged operation
+     */
+    public enum Op {
+        PUT, PUT_RAW, DELETE, ADD_SUBSCRIBER, REMOVE_SUBSCRIBER
+    }
+
+    /**
+     * Decoded log entry handed out during replay
+     */
+    public static class Entry {
+        public final Op op;
+        public final String key;
+        public final String value;
+
+        Entry(Op op, String key, String value) {
+            this.op = op;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 4;
+
+    private final Path path;
+    private final FileChannel channel;
+    private volatile Durability durability;
+    private volatile long commitWindowMicros = 0;
+
+    /** Serializes appends */
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private long written;
+
+    /** Guards the group commit state below */
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private long durable;
+    private boolean syncing = false;
+    private long syncCount = 0;
+
+    /**
+     * Opens (or creates) the log file
+     * @param path
+     * @param durability
+     * @throws IOException
+     */
+    public WriteAheadLog(Path path, Durability durability) throws IOException {
+        this.path = path;
+        this.durability = durability;
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        this.written = channel.size();
+        this.durable = written;
+    }
+
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @param micros how long a group commit leader waits for more writers before syncing
+     */
+    public void setCommitWindow(long micros) {
+        this.commitWindowMicros = micros;
+    }
+
+    /**
+     * @return number of forces issued so far
+     */
+    public long getSyncCount() {
+        syncLock.lock();
+        try {
+            return syncCount;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    public long size() {
+        appendLock.lock();
+        try {
+            return written;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends an entry. The entry is not necessarily durable until
+     * {@link #awaitDurable(long)} returns for the returned position.
+     * @param op
+     * @param key
+     * @param value
+     * @return log position just past the entry
+     * @throws IOException
+     */
+    public long append(Op op, String key, String value) throws IOException {
+        ByteBuffer buff = encode(op, key, value);
+        appendLock.lock();
+        try {
+            long position = written;
+            while (buff.hasRemaining()) {
+                position += channel.write(buff, position);
+            }
+            written = position;
+            if (durability == Durability.WRITE) {
+                channel.force(false);
+                markDurable(position);
+            }
+            return position;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until everything up to the given log position is on stable storage,
+     * according to the configured durability mode
+     * @param position value returned by {@link #append}
+     * @throws IOException
+     */
+    public void awaitDurable(long position) throws IOException {
+        if (durability != Durability.BATCH) return;
+
+        while (true) {
+            syncLock.lock();
+            try {
+                while (durable < position && syncing) {
+                    try {
+                        synced.await();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for commit");
+                    }
+                }
+                if (durable >= position) return;
+                syncing = true;
+            } finally {
+                syncLock.unlock();
+            }
+
+            // this thread leads the next group commit
+            long target;
+            try {
+                long window = commitWindowMicros;
+                if (window > 0) TimeUnit.MICROSECONDS.sleep(window);
+                appendLock.lock();
+                try {
+                    target = written;
+                } finally {
+                    appendLock.unlock();
+                }
+                channel.force(false);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                releaseLeadership();
+                throw new IOException("Interrupted while committing");
+            } catch (IOException ioe) {
+                releaseLeadership();
+                throw ioe;
+            }
+            syncLock.lock();
+            try {
+                syncing = false;
+                syncCount++;
+                if (target > durable) durable = target;
+                synced.signalAll();
+            } finally {
+                syncLock.unlock();
+            }
+        }
+    }
+
+    private void markDurable(long position) {
+        syncLock.lock();
+        try {
+            syncCount++;
+            if (position > durable) durable = position;
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void releaseLeadership() {
+        syncLock.lock();
+        try {
+            syncing = false;
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Reads every complete entry in the log. A torn entry at the tail ends the replay.
+     * @return entries in log order
+     * @throws IOException
+     */
+    public List<Entry> readAll() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long limit = channel.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (offset + HEADER_SIZE <= limit) {
+            header.clear();
+            readFully(header, offset);
+            header.flip();
+            int crc = header.getInt();
+            byte op = header.get();
+            int keyLen = header.getInt();
+            int valueLen = header.getInt();
+            int bodyLen = keyLen + Math.max(valueLen, 0);
+            if (keyLen < 0 || valueLen < -1 || op < 0 || op >= Op.values().length
+                    || offset + HEADER_SIZE + bodyLen > limit) break;
+
+            ByteBuffer body = ByteBuffer.allocate(bodyLen);
+            readFully(body, offset + HEADER_SIZE);
+            CRC32 check = new CRC32();
+            check.update(header.array(), 4, HEADER_SIZE - 4);
+            check.update(body.array(), 0, bodyLen);
+            if ((int) check.getValue() != crc) break;
+
+            String key = new String(body.array(), 0, keyLen, StandardCharsets.UTF_8);
+            String value = valueLen < 0 ? null : new String(body.array(), keyLen, valueLen, StandardCharsets.UTF_8);
+            entries.add(new Entry(Op.values()[op], key, value));
+            offset += HEADER_SIZE + bodyLen;
+        }
+        if (offset < limit)
+            logger.warn("Ignoring " + (limit - offset) + " bytes of incomplete log tail in " + path);
+        return entries;
+    }
+
+    /**
+     * Discards all entries. Callers must make sure the entries were applied
+     * durably and that no appends run concurrently.
+     * @throws IOException
+     */
+    public void truncate() throws IOException {
+        appendLock.lock();
+        try {
+            channel.truncate(0);
+            channel.force(true);
+            written = 0;
+            syncLock.lock();
+            try {
+                durable = 0;
+            } finally {
+                syncLock.unlock();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    private void readFully(ByteBuffer buff, long position) throws IOException {
+        while (buff.hasRemaining()) {
+            if (channel.read(buff, position + buff.position()) < 0)
+                throw new IOException("Unexpected end of log");
+        }
+    }
+
+    private static ByteBuffer encode(Op op, String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        int valueLen = valueBytes == null ? 0 : valueBytes.length;
+
+        ByteBuffer buff = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + valueLen);
+        buff.putInt(0);
+        buff.put((byte) op.ordinal());
+        buff.putInt(keyBytes.length);
+        buff.putInt(valueBytes == null ? -1 : valueLen);
+        buff.put(keyBytes);
+        if (valueBytes != null) buff.put(valueBytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(buff.array(), 4, buff.position() - 4);
+        buff.putInt(0, (int) crc.getValue());
+        buff.flip();
+        return buff;
+    }
+}
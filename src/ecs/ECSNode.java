@@ -118,7 +118,7 @@ public class ECSNode implements IECSNode{
 
     public int getAvailableSocketBytes() {
         try {
-            return socket.getInputStream().available();
+            return CommModule.available(socket);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -1,29 +1,140 @@
 package shared;
 
 import java.math.BigInteger;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
 
+/**
+ * MD5 hashing of keys and server names onto the ring.
+ *
+ * Each thread keeps its own {@link MessageDigest} together with reusable input
+ * and output buffers, so hashing a key costs no provider lookup and, for keys
+ * up to the current buffer size, no allocation besides the returned hash.
+ * Strings are always encoded as UTF-8.
+ */
 public class MD5 {
-    public static BigInteger getHash(String input) {
-        try {
 
-            // Static getInstance method is called with hashing MD5
-            MessageDigest md = MessageDigest.getInstance("MD5");
+    private static final int DIGEST_LENGTH = 16;
+
+    /**
+     * Per-thread digest and scratch buffers
+     */
+    private static final class Hasher {
+        final MessageDigest md;
+        final byte[] out = new byte[DIGEST_LENGTH];
+        byte[] in = new byte[256];
 
-            // digest() method is called to calculate message digest
-            // of an input digest() return array of byte
-            byte[] messageDigest = md.digest(input.getBytes());
+        Hasher() {
+            try {
+                md = MessageDigest.getInstance("MD5");
+            }
+            // For specifying wrong message digest algorithms
+            catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
 
-            // Convert byte array into signum representation
-            BigInteger no = new BigInteger(1, messageDigest);
+        /**
+         * Digests a string into {@link #out}
+         * @param input
+         */
+        void digest(String input) {
+            int len = encode(input);
+            md.update(in, 0, len);
+            try {
+                md.digest(out, 0, DIGEST_LENGTH);
+            }
+            catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * UTF-8 encodes a string into {@link #in}, growing it if needed
+         * @return number of bytes written
+         */
+        private int encode(String s) {
+            int chars = s.length();
+            // a UTF-16 char never takes more than 3 UTF-8 bytes
+            if (in.length < chars * 3) in = new byte[Math.max(chars * 3, in.length * 2)];
+            byte[] buf = in;
+            int pos = 0;
+            for (int i = 0; i < chars; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[pos++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[pos++] = (byte) (0xc0 | (c >> 6));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[pos++] = (byte) (0xf0 | (cp >> 18));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    // unpaired surrogate, encoded as '?' like String.getBytes does
+                    buf[pos++] = (byte) '?';
+                } else {
+                    buf[pos++] = (byte) (0xe0 | (c >> 12));
+                    buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    buf[pos++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            return pos;
+        }
+    }
 
-            return no;
+    private static final ThreadLocal<Hasher> HASHER = new ThreadLocal<Hasher>() {
+        @Override
+        protected Hasher initialValue() {
+            return new Hasher();
         }
+    };
 
-        // For specifying wrong message digest algorithms
-        catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    /**
+     * Hashes a key or server name onto the ring
+     * @param input
+     * @return position on the ring
+     */
+    public static RingHash hash(String input) {
+        Hasher hasher = HASHER.get();
+        hasher.digest(input);
+        return RingHash.fromBytes(hasher.out);
+    }
+
+    /**
+     * Hashes many keys with a single digest lookup
+     * @param inputs
+     * @return positions on the ring, in input order
+     */
+    public static RingHash[] hashAll(String[] inputs) {
+        Hasher hasher = HASHER.get();
+        RingHash[] hashes = new RingHash[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            hasher.digest(inputs[i]);
+            hashes[i] = RingHash.fromBytes(hasher.out);
         }
+        return hashes;
+    }
+
+    /**
+     * @param inputs
+     * @return positions on the ring, in iteration order
+     */
+    public static RingHash[] hashAll(Collection<String> inputs) {
+        return hashAll(inputs.toArray(new String[0]));
+    }
+
+    /**
+     * Same position as {@link #hash(String)} as a BigInteger, for callers
+     * that still do arithmetic on it
+     * @param input
+     * @return position on the ring
+     */
+    public static BigInteger getHash(String input) {
+        return hash(input).toBigInteger();
     }
 }
@@ -6,25 +6,27 @@ import java.math.BigInteger;
  * Class responsible for managing individual key ranges of a server
  */
 public class Range {
-    public BigInteger start;
-    public BigInteger end;
-    public final BigInteger FFFF = new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF", 16);
+    public RingHash start;
+    public RingHash end;
+    /** Largest hash value, kept for callers that still work with BigInteger */
+    public static final BigInteger FFFF = RingHash.MAX.toBigInteger();
 
     /**
      * Constructors initialize to a definite range or to -1 indicating unincorporated server
      * @param first
      * @param second
      */
-    public Range(BigInteger first, BigInteger second){
+    public Range(RingHash first, RingHash second){
         start = first;
         end = second;
     }
+    public Range(BigInteger first, BigInteger second){
+        this(RingHash.fromBigInteger(first), RingHash.fromBigInteger(second));
+    }
     public Range(String range){
         String[] values = range.split(",");
-        this.start = new BigInteger(values[0], 16);
-        this.end = new BigInteger(values[1], 16);
-//        this.start = new BigInteger(1, values[0].getBytes());
-//        this.end = new BigInteger(1, values[1].getBytes());
+        this.start = RingHash.fromHex(values[0]);
+        this.end = RingHash.fromHex(values[1]);
     }
     public Range() {
         start = null;
@@ -35,21 +37,25 @@ public class Range {
      * @param first
      * @param second
      */
-    public void updateRange(BigInteger first, BigInteger second){
+    public void updateRange(RingHash first, RingHash second){
         start = first;
         end = second;
     };
 
+    public void updateRange(BigInteger first, BigInteger second){
+        updateRange(RingHash.fromBigInteger(first), RingHash.fromBigInteger(second));
+    };
+
     public boolean equals(Range other){
         if (this.start.equals(other.start) && this.end.equals(other.end)) return true;
         else return false;
     }
 
-    public void updateStart(BigInteger first){
+    public void updateStart(RingHash first){
         start = first;
     };
 
-    public void updateEnd(BigInteger second){
+    public void updateEnd(RingHash second){
         end = second;
     };
 
@@ -58,18 +64,18 @@ public class Range {
      * @param hash
      * @return
      */
-    public boolean inRange(BigInteger hash){
+    public boolean inRange(RingHash hash){
 
-        //handle corner case when keyrange wraps around zero>=
-        if (start.compareTo(end) == 1) {
-            if (hash.compareTo(BigInteger.ZERO) >=0 && hash.compareTo(end) <= 0) return true;
-            else if (hash.compareTo(start) >= 0 && hash.compareTo(FFFF) <= 0) return true;
-            else return false;
+        //handle corner case when keyrange wraps around zero, every hash is >= 0 and <= FFFF
+        if (start.compareTo(end) > 0) {
+            return hash.compareTo(end) <= 0 || hash.compareTo(start) >= 0;
         }
 
-        if (hash.compareTo(end) <= 0  && hash.compareTo(start) >= 0) return true;
-        else return false;
+        return hash.compareTo(end) <= 0 && hash.compareTo(start) >= 0;
+    }
 
+    public boolean inRange(BigInteger hash){
+        return inRange(RingHash.fromBigInteger(hash));
     }
 
     /**
@@ -77,7 +83,7 @@ public class Range {
      * @return String
      */
     public String toString(){
-        String res = start.toString(16) + "," + end.toString(16);
+        String res = start.toHex() + "," + end.toHex();
         return res;
     }
 
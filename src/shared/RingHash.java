@@ -0,0 +1,125 @@
+package shared;
+
+import java.math.BigInteger;
+
+/**
+ * Position on the 128-bit hash ring, held as two longs and compared as an
+ * unsigned number. Replaces {@link BigInteger} on the routing path so that
+ * range checks do not allocate.
+ *
+ * The hex form matches {@code BigInteger.toString(16)} (lower case, no leading
+ * zeros), which is what metadata and key ranges use on the wire.
+ */
+public final class RingHash implements Comparable<RingHash> {
+
+    public static final RingHash ZERO = new RingHash(0L, 0L);
+    public static final RingHash MAX = new RingHash(-1L, -1L);
+
+    /** Upper and lower 64 bits */
+    public final long hi;
+    public final long lo;
+
+    public RingHash(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    /**
+     * @param digest 16 byte big-endian value, e.g. an MD5 digest
+     * @return the hash
+     */
+    public static RingHash fromBytes(byte[] digest) {
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < 8; i++) hi = (hi << 8) | (digest[i] & 0xff);
+        for (int i = 8; i < 16; i++) lo = (lo << 8) | (digest[i] & 0xff);
+        return new RingHash(hi, lo);
+    }
+
+    /**
+     * Parses the hex form, with or without leading zeros
+     * @param hex up to 32 hex digits
+     * @return the hash
+     * @throws NumberFormatException if the string is empty, too long or not hex
+     */
+    public static RingHash fromHex(String hex) {
+        int len = hex.length();
+        if (len == 0 || len > 32) throw new NumberFormatException("Not a 128-bit hex value: " + hex);
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < len; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) throw new NumberFormatException("Not a 128-bit hex value: " + hex);
+            hi = (hi << 4) | (lo >>> 60);
+            lo = (lo << 4) | digit;
+        }
+        return new RingHash(hi, lo);
+    }
+
+    /**
+     * @param value number in [0, 2^128)
+     * @return the hash
+     * @throws IllegalArgumentException if the value does not fit on the ring
+     */
+    public static RingHash fromBigInteger(BigInteger value) {
+        if (value.signum() < 0 || value.bitLength() > 128)
+            throw new IllegalArgumentException("Not a 128-bit ring position: " + value.toString(16));
+        return new RingHash(value.shiftRight(64).longValue(), value.longValue());
+    }
+
+    public BigInteger toBigInteger() {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (hi >>> (56 - 8 * i));
+            bytes[8 + i] = (byte) (lo >>> (56 - 8 * i));
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * @return the next position on the ring, wrapping from {@link #MAX} to {@link #ZERO}
+     */
+    public RingHash next() {
+        long nextLo = lo + 1;
+        return new RingHash(nextLo == 0 ? hi + 1 : hi, nextLo);
+    }
+
+    @Override
+    public int compareTo(RingHash other) {
+        // flipping the sign bit turns signed comparison into unsigned comparison
+        if (hi != other.hi) return (hi + Long.MIN_VALUE) < (other.hi + Long.MIN_VALUE) ? -1 : 1;
+        if (lo != other.lo) return (lo + Long.MIN_VALUE) < (other.lo + Long.MIN_VALUE) ? -1 : 1;
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RingHash)) return false;
+        RingHash other = (RingHash) o;
+        return hi == other.hi && lo == other.lo;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = hi ^ lo;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return lower case hex without leading zeros
+     */
+    public String toHex() {
+        if (hi == 0) return Long.toHexString(lo);
+        String low = Long.toHexString(lo);
+        StringBuilder sb = new StringBuilder(32);
+        sb.append(Long.toHexString(hi));
+        for (int i = low.length(); i < 16; i++) sb.append('0');
+        return sb.append(low).toString();
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
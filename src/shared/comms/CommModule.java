@@ -4,24 +4,178 @@ import org.apache.log4j.Logger;
 import shared.messages.IKVMessage;
 import shared.messages.KVMessage;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class implements methods to send and receive KVMessages over a TCP socket
+ *
+ * Two wire formats are understood. The text format is the original
+ * {@code "STATUS key value\r\n"} line. The binary format is a length-prefixed frame
+ * {@code [0x00][status:byte][keyLen:int][valueLen:int][key][value]} with UTF-8
+ * strings and a length of -1 for null. A message with a request ID (see
+ * {@link KVMessage#getId()}) is sent as {@code [0x01][id:int]} followed by the
+ * same fields. A text message never starts with either byte, so the receiver
+ * tells the formats apart by the first byte and always accepts all of them.
+ *
+ * The format a socket sends is chosen per socket. It is text until the peers
+ * have agreed on binary through {@link #requestBinary(Socket)}.
+ *
+ * Each socket gets buffered streams and a reusable scratch buffer, so receiving a
+ * message costs a handful of reads instead of one read per byte. The scratch
+ * buffer stays small; a large value is read into an array of its own, so it
+ * does not stay pinned to the connection.
+ *
+ * Socket I/O is guarded by {@link ReentrantLock}s rather than monitors, so a
+ * virtual thread blocked on a socket does not pin its carrier thread.
  */
 public final class CommModule {
 
     public static Logger logger = Logger.getLogger(CommModule.class);
     private static final int BUFFER_SIZE = 1024;
     private static final int DROP_SIZE = 128 * BUFFER_SIZE;
+    // kept small: blocking servers hold one pair per connection, and larger reads bypass the buffer
+    private static final int STREAM_BUFFER_SIZE = 8 * BUFFER_SIZE;
+    /** largest scratch buffer a connection keeps; bigger messages get their own array */
+    private static final int MAX_SCRATCH_SIZE = STREAM_BUFFER_SIZE;
+    /** Largest key or value accepted in a binary frame */
+    public static final int MAX_FIELD_SIZE = 64 * 1024 * 1024;
+
+    private static final byte FRAME_MARKER = 0;
+    private static final byte FRAME_MARKER_ID = 1;
+    private static final byte RETURN = 13;
+    private static final byte LINE_FEED = 10;
+    public static final String BINARY = "BINARY";
+
+    /**
+     * Buffered streams and framing state of one socket
+     */
+    private static final class Connection {
+        final InputStream input;
+        final OutputStream output;
+        volatile boolean binary = false;
+        byte[] scratch = new byte[BUFFER_SIZE];
+        final ReentrantLock readLock = new ReentrantLock();
+        final ReentrantLock writeLock = new ReentrantLock();
+        final ReentrantLock exchangeLock = new ReentrantLock();
+
+        Connection(Socket socket) throws IOException {
+            this.input = new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_SIZE);
+            this.output = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_SIZE);
+        }
+
+        /**
+         * @return scratch buffer of at least the given size, kept for the
+         *         next message unless it is larger than MAX_SCRATCH_SIZE
+         */
+        byte[] scratch(int size) {
+            if (size > MAX_SCRATCH_SIZE) return new byte[size];
+            if (scratch.length < size) scratch = new byte[Math.min(Math.max(size, scratch.length * 2), MAX_SCRATCH_SIZE)];
+            return scratch;
+        }
+    }
+
+    /**
+     * State of every socket in use, guarded by itself. The streams of a
+     * connection refer to its socket, so entries are never collected on
+     * their own: {@link #closeSocket(Socket)} removes them, and sockets closed
+     * some other way are swept out once the map has doubled since the last
+     * sweep.
+     */
+    private static final Map<Socket, Connection> connections = new HashMap<>();
+    private static final int MIN_SWEEP_AT = 64;
+    private static int sweepAt = MIN_SWEEP_AT;
 
     private CommModule() {
 
     }
 
+    private static Connection connection(Socket socket) throws IOException {
+        synchronized (connections) {
+            Connection conn = connections.get(socket);
+            if (conn == null) {
+                if (connections.size() >= sweepAt) sweepClosed();
+                conn = new Connection(socket);
+                connections.put(socket, conn);
+            }
+            return conn;
+        }
+    }
+
+    /**
+     * Forgets sockets that were closed without {@link #closeSocket(Socket)};
+     * called holding the map
+     */
+    private static void sweepClosed() {
+        Iterator<Socket> sockets = connections.keySet().iterator();
+        while (sockets.hasNext()) {
+            if (sockets.next().isClosed()) sockets.remove();
+        }
+        sweepAt = Math.max(2 * connections.size(), MIN_SWEEP_AT);
+    }
+
+    /**
+     * @return the number of sockets whose state is kept
+     */
+    public static int connectionCount() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    /**
+     * Switches the messages sent over this socket to the binary format
+     * @param socket
+     * @param binary
+     * @throws IOException
+     */
+    public static void setBinary(Socket socket, boolean binary) throws IOException {
+        connection(socket).binary = binary;
+    }
+
+    public static boolean isBinary(Socket socket) throws IOException {
+        return connection(socket).binary;
+    }
+
+    /**
+     * Asks the peer to use the binary format on this socket. The request is sent
+     * as text, so a peer that does not know the binary format simply rejects it
+     * and both sides keep using text.
+     * @param socket
+     * @return true if both sides now send binary frames
+     * @throws IOException
+     */
+    public static boolean requestBinary(Socket socket) throws IOException {
+        sendMessage(new KVMessage(IKVMessage.StatusType.PROTOCOL, BINARY, null), socket);
+        KVMessage response = receiveMessage(socket);
+        boolean accepted = response.getStatus() == IKVMessage.StatusType.PROTOCOL_SUCCESS
+                && BINARY.equals(response.getKey());
+        setBinary(socket, accepted);
+        return accepted;
+    }
+
+    /**
+     * Number of bytes that can be read without blocking, including bytes
+     * already pulled into this module's buffer
+     * @param socket
+     * @return available bytes
+     * @throws IOException
+     */
+    public static int available(Socket socket) throws IOException {
+        return connection(socket).input.available();
+    }
+
     /**
      * Method sends a KVMessage using this socket.
      * @param msg the message that is to be sent.
@@ -29,11 +183,12 @@ public final class CommModule {
      * @throws IOException some I/O error regarding the output stream
      */
     public static void sendMessage(KVMessage msg, Socket socket) throws IOException {
-        // synchronize on socket to prevent concurrent access
-        OutputStream output = socket.getOutputStream();
-        synchronized (output) {
-
-            byte[] msgBytes = msg.toByteArray();
+        Connection conn = connection(socket);
+        // lock the socket to prevent concurrent access
+        OutputStream output = conn.output;
+        conn.writeLock.lock();
+        try {
+            byte[] msgBytes = encode(msg, conn.binary);
             output.write(msgBytes, 0, msgBytes.length);
             output.flush();
             if(msg.getStatus() != IKVMessage.StatusType.WAGWAN) {
@@ -42,6 +197,28 @@ public final class CommModule {
                         + socket.getPort() + ">: '"
                         + msg + "'");
             }
+        } finally {
+            conn.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends a request and waits for its response. No other request/response
+     * pair can interleave on this socket, so concurrent callers sharing it each
+     * get the response to their own request.
+     * @param msg the request
+     * @param socket the socket to use
+     * @return the response
+     * @throws IOException some I/O error regarding the socket
+     */
+    public static KVMessage exchange(KVMessage msg, Socket socket) throws IOException {
+        Connection conn = connection(socket);
+        conn.exchangeLock.lock();
+        try {
+            sendMessage(msg, socket);
+            return receiveMessage(socket);
+        } finally {
+            conn.exchangeLock.unlock();
         }
     }
 
@@ -52,70 +229,34 @@ public final class CommModule {
      * @throws IOException some I/O error regarding the input stream
      */
     public static KVMessage receiveMessage(Socket socket) throws IOException {
-        // synchronize on socket to prevent concurrent access
-        InputStream input = socket.getInputStream();
-        synchronized (input) {
-
-            int index = 0;
-            byte[] msgBytes = null, tmp = null;
-            byte[] bufferBytes = new byte[BUFFER_SIZE];
-
-            /* read first char from stream */
-            byte read = (byte) input.read();
-            boolean reading = true;
-
-            while(read != 13 && read != -1 && reading) {/* CR, disconnect, error */
-                /* if buffer filled, copy to msg array */
-                if(index == BUFFER_SIZE) {
-                    if(msgBytes == null){
-                        tmp = new byte[BUFFER_SIZE];
-                        System.arraycopy(bufferBytes, 0, tmp, 0, BUFFER_SIZE);
-                    } else {
-                        tmp = new byte[msgBytes.length + BUFFER_SIZE];
-                        System.arraycopy(msgBytes, 0, tmp, 0, msgBytes.length);
-                        System.arraycopy(bufferBytes, 0, tmp, msgBytes.length,
-                                BUFFER_SIZE);
-                    }
-
-                    msgBytes = tmp;
-                    bufferBytes = new byte[BUFFER_SIZE];
-                    index = 0;
-                }
-
-                /* only read valid characters, i.e. letters and constants */
-                bufferBytes[index] = read;
-                index++;
+        Connection conn = connection(socket);
+        // lock the socket to prevent concurrent access
+        InputStream input = conn.input;
+        conn.readLock.lock();
+        try {
 
-                /* stop reading is DROP_SIZE is reached */
-                if(msgBytes != null && msgBytes.length + index >= DROP_SIZE) {
-                    reading = false;
-                }
-
-                /* read next char from stream */
-                read = (byte) input.read();
+            /* skip the line feed left over from the previous text message */
+            int first = input.read();
+            while (first == LINE_FEED || first == RETURN) {
+                first = input.read();
             }
-
-            if(msgBytes == null){
-                tmp = new byte[index];
-                System.arraycopy(bufferBytes, 0, tmp, 0, index);
-            } else {
-                tmp = new byte[msgBytes.length + index];
-                System.arraycopy(msgBytes, 0, tmp, 0, msgBytes.length);
-                System.arraycopy(bufferBytes, 0, tmp, msgBytes.length, index);
+            if (first == -1) {
+                throw new IOException("Error! Connection lost!");
             }
 
-            msgBytes = tmp;
-
-            // TODO: might need to refactor this to return a null
-            //       when there's no message to read
-
-            /* Check for empty message indicating a disconnect */
-            if(msgBytes.length < 2) {
-                throw new IOException("Error! Connection lost!");
+            KVMessage msg;
+            if (first == FRAME_MARKER) {
+                msg = readFrame(conn, input);
+            } else if (first == FRAME_MARKER_ID) {
+                byte[] id = conn.scratch(4);
+                readFully(input, id, 4);
+                int requestId = readInt(id, 0);
+                msg = readFrame(conn, input);
+                msg.setId(requestId);
+            } else {
+                msg = readLine(conn, input, (byte) first);
             }
 
-            /* build final String */
-            KVMessage msg = new KVMessage(msgBytes);
             if(msg.getStatus() != IKVMessage.StatusType.WAGWAN) {
                 if (msg.getStatus() == IKVMessage.StatusType.NOTIFY) {  // to let the client print properly
                     // move cursor to the beginning of the line
@@ -127,7 +268,190 @@ public final class CommModule {
                         + msg + "'");
             }
             return msg;
+        } finally {
+            conn.readLock.unlock();
+        }
+    }
+
+    /**
+     * Reads a text message up to its CR. Like before, anything past
+     * {@code DROP_SIZE} bytes is dropped.
+     */
+    private static KVMessage readLine(Connection conn, InputStream input, byte first) throws IOException {
+        byte[] buff = conn.scratch(BUFFER_SIZE);
+        int index = 0;
+        int read = first;
+
+        while (read != RETURN && read != -1) {/* CR, disconnect, error */
+            if (index < DROP_SIZE) {
+                if (index == buff.length) {
+                    byte[] grown = new byte[buff.length * 2];
+                    System.arraycopy(buff, 0, grown, 0, index);
+                    buff = grown;
+                    if (grown.length <= MAX_SCRATCH_SIZE) conn.scratch = grown;
+                }
+                buff[index++] = (byte) read;
+            }
+            read = input.read();
+        }
+
+        /* Check for empty message indicating a disconnect */
+        if (index < 2) {
+            throw new IOException("Error! Connection lost!");
+        }
+
+        byte[] msgBytes = new byte[index];
+        System.arraycopy(buff, 0, msgBytes, 0, index);
+        return new KVMessage(msgBytes);
+    }
+
+    /**
+     * Reads the rest of a binary frame after its marker byte
+     */
+    private static KVMessage readFrame(Connection conn, InputStream input) throws IOException {
+        byte[] header = conn.scratch(9);
+        readFully(input, header, 9);
+        int status = header[0] & 0xff;
+        int keyLen = readInt(header, 1);
+        int valueLen = readInt(header, 5);
+
+        IKVMessage.StatusType[] types = IKVMessage.StatusType.values();
+        if (status >= types.length || keyLen < -1 || valueLen < -1
+                || keyLen > MAX_FIELD_SIZE || valueLen > MAX_FIELD_SIZE) {
+            throw new IOException("Error! Malformed frame!");
+        }
+
+        String key = readString(conn, input, keyLen);
+        String value = readString(conn, input, valueLen);
+        return new KVMessage(types[status], key, value);
+    }
+
+    private static String readString(Connection conn, InputStream input, int len) throws IOException {
+        if (len < 0) return null;
+        byte[] buff = conn.scratch(len);
+        readFully(input, buff, len);
+        return new String(buff, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serializes a message in the text or the binary format
+     * @param msg the message
+     * @param binary true for a length-prefixed frame
+     * @return the bytes to put on the wire
+     */
+    public static byte[] encode(KVMessage msg, boolean binary) {
+        if (!binary) return msg.toByteArray();
+
+        byte[] key = msg.getKey() == null ? null : msg.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] value = msg.getValue() == null ? null : msg.getValue().getBytes(StandardCharsets.UTF_8);
+        int keyLen = key == null ? 0 : key.length;
+        int valueLen = value == null ? 0 : value.length;
+
+        // the ID, if any, sits between the marker and the status
+        int off = msg.getId() == 0 ? 1 : 5;
+        byte[] frame = new byte[off + 9 + keyLen + valueLen];
+        if (msg.getId() == 0) {
+            frame[0] = FRAME_MARKER;
+        } else {
+            frame[0] = FRAME_MARKER_ID;
+            writeInt(frame, 1, msg.getId());
+        }
+        frame[off] = (byte) msg.getStatus().ordinal();
+        writeInt(frame, off + 1, key == null ? -1 : keyLen);
+        writeInt(frame, off + 5, value == null ? -1 : valueLen);
+        if (key != null) System.arraycopy(key, 0, frame, off + 9, keyLen);
+        if (value != null) System.arraycopy(value, 0, frame, off + 9 + keyLen, valueLen);
+        return frame;
+    }
+
+    /**
+     * Takes the next complete message, in either format, off a buffer that is
+     * being filled from a non-blocking channel. The buffer must be in read mode.
+     * If no complete message is available yet, the position is left where it was
+     * (apart from skipped line feeds) and null is returned.
+     * @param buffer bytes received so far
+     * @return the message or null if more bytes are needed
+     * @throws IOException if the bytes cannot be a valid message
+     */
+    public static KVMessage decode(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get(buffer.position());
+            if (b != LINE_FEED && b != RETURN) break;
+            buffer.position(buffer.position() + 1);
+        }
+        if (!buffer.hasRemaining()) return null;
+
+        int start = buffer.position();
+        int limit = buffer.limit();
+        byte marker = buffer.get(start);
+        if (marker == FRAME_MARKER || marker == FRAME_MARKER_ID) {
+            int off = start + (marker == FRAME_MARKER ? 1 : 5);
+            if (limit - off < 9) return null;
+            int status = buffer.get(off) & 0xff;
+            int keyLen = buffer.getInt(off + 1);
+            int valueLen = buffer.getInt(off + 5);
+            IKVMessage.StatusType[] types = IKVMessage.StatusType.values();
+            if (status >= types.length || keyLen < -1 || valueLen < -1
+                    || keyLen > MAX_FIELD_SIZE || valueLen > MAX_FIELD_SIZE) {
+                throw new IOException("Error! Malformed frame!");
+            }
+            int keyBytes = Math.max(keyLen, 0);
+            int valueBytes = Math.max(valueLen, 0);
+            if ((long) limit - off < 9L + keyBytes + valueBytes) return null;
+
+            String key = decodeString(buffer, off + 9, keyLen);
+            String value = decodeString(buffer, off + 9 + keyBytes, valueLen);
+            buffer.position(off + 9 + keyBytes + valueBytes);
+            KVMessage msg = new KVMessage(types[status], key, value);
+            if (marker == FRAME_MARKER_ID) msg.setId(buffer.getInt(start + 1));
+            return msg;
         }
+
+        for (int i = start; i < limit; i++) {
+            if (buffer.get(i) != RETURN) continue;
+            /* like the stream reader, drop whatever exceeds DROP_SIZE */
+            int len = Math.min(i - start, DROP_SIZE);
+            if (len < 2) throw new IOException("Error! Connection lost!");
+            byte[] msgBytes = new byte[len];
+            buffer.get(msgBytes);
+            buffer.position(i + 1);
+            return new KVMessage(msgBytes);
+        }
+        if (limit - start > MAX_FIELD_SIZE) {
+            throw new IOException("Error! Message too long!");
+        }
+        return null;
+    }
+
+    private static String decodeString(ByteBuffer buffer, int off, int len) {
+        if (len < 0) return null;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + off, len, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) bytes[i] = buffer.get(off + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(InputStream input, byte[] buff, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = input.read(buff, off, len - off);
+            if (n < 0) throw new EOFException("Error! Connection lost!");
+            off += n;
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
     }
 
     /**
@@ -144,6 +468,9 @@ public final class CommModule {
                 + socket.getInetAddress().getHostAddress() + ":"
                 + socket.getPort() + ">: '"
                 + " ...");
+        synchronized (connections) {
+            connections.remove(socket);
+        }
         socket.close();
         logger.info("connection closed!");
     }
@@ -82,6 +82,22 @@ public interface IKVMessage {
 		NOTIFY,				/* <key>. Server sends to client to notify it of a key update */
 		NOTIFY_SUCCESS,		/* Client sends to server to confirm that it has been notified */
 		NOTIFY_ERROR,		/* Client sends to server in the case of notification error */
+
+		// wire protocol negotiation
+		PROTOCOL,			/* <format>. Either side asks its peer to switch to a wire format, e.g. BINARY */
+		PROTOCOL_SUCCESS,	/* <format>. Peer confirms and sends in that format from now on */
+
+		// batch messages, the lists are encoded by KVBatch
+		MULTI_GET,			/* <count> <keys>. Get - request for several keys owned by one server */
+		MULTI_GET_SUCCESS,	/* <count> <values>. Values in request order, null if not found */
+		MULTI_PUT,			/* <count> <key, value pairs>. Put - request for several keys owned by one server */
+		MULTI_PUT_SUCCESS,	/* <count> <statuses>. Status of every pair, e.g. PUT_SUCCESS or DELETE_ERROR */
+		SERVER_MULTI_PUT,	/* <count> <key, value pairs>. Primary replicates a whole MULTI_PUT in one message */
+
+		// replication acknowledgement, see the server's -r option. The write is not rolled back:
+		// it is stored on the primary, later GETs return it and subscribers are notified
+		PUT_UNDER_REPLICATED,		/* Put - value stored, but fewer replicas than the ack policy asks confirmed it */
+		DELETE_UNDER_REPLICATED,	/* Delete - tuple removed, but fewer replicas than the ack policy asks confirmed it */
 	}
 	public enum ServerState {
 		SERVER_STOPPED,
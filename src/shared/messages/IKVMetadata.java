@@ -1,8 +1,7 @@
 package shared.messages;
 
 import shared.Range;
-
-import java.math.BigInteger;
+import shared.RingHash;
 
 public interface IKVMetadata {
 
@@ -10,7 +9,7 @@ public interface IKVMetadata {
 	 * Adds a server to metadata. Used in metadata reconstruction from string.
 	 * @param serverAddPort, startpoint, endpoint
 	 */
-	public void addServer(String serverAddPort, BigInteger startpoint, BigInteger endpoint);
+	public void addServer(String serverAddPort, RingHash startpoint, RingHash endpoint);
 
 	/**
 	 * adds a new server to the metadata and returns the new server's
@@ -0,0 +1,70 @@
+package shared.messages;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoding of the lists carried by MULTI_GET and MULTI_PUT messages.
+ *
+ * The list goes in the value field of a single message as netstring-style
+ * entries {@code <length>:<string>,} where the length counts the chars of the
+ * string, so keys and values may hold any character, including spaces and
+ * the separators themselves. A null entry is written as {@code -1:,}.
+ *
+ * MULTI_GET carries the keys, and MULTI_GET_SUCCESS the values in the same
+ * order (null for a missing key). MULTI_PUT and SERVER_MULTI_PUT carry
+ * alternating keys and values (null deletes), and MULTI_PUT_SUCCESS the
+ * status of each pair. The key field of these messages holds the number of
+ * keys, for logging.
+ */
+public class KVBatch {
+
+    private KVBatch() {
+    }
+
+    /**
+     * @param entries strings to encode, may contain null
+     * @return the encoded list
+     */
+    public static String encode(List<String> entries) {
+        int size = 0;
+        for (String entry : entries) size += entry == null ? 4 : entry.length() + 12;
+        StringBuilder sb = new StringBuilder(size);
+        for (String entry : entries) {
+            if (entry == null) {
+                sb.append("-1:,");
+            } else {
+                sb.append(entry.length()).append(':').append(entry).append(',');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param encoded a list built by {@link #encode(List)}; null or empty for no entries
+     * @return the entries
+     * @throws IllegalArgumentException if the string is not a valid list
+     */
+    public static List<String> decode(String encoded) {
+        List<String> entries = new ArrayList<>();
+        if (encoded == null) return entries;
+        int pos = 0;
+        while (pos < encoded.length()) {
+            int colon = encoded.indexOf(':', pos);
+            if (colon < 0) throw new IllegalArgumentException("Missing length at " + pos);
+            int length;
+            try {
+                length = Integer.parseInt(encoded.substring(pos, colon));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid length at " + pos);
+            }
+            int end = colon + 1 + Math.max(length, 0);
+            if (length < -1 || end >= encoded.length() || encoded.charAt(end) != ',') {
+                throw new IllegalArgumentException("Invalid entry at " + pos);
+            }
+            entries.add(length < 0 ? null : encoded.substring(colon + 1, end));
+            pos = end + 1;
+        }
+        return entries;
+    }
+}
@@ -28,6 +28,11 @@ public class KVMessage implements IKVMessage {
      * in non-client-server messages, acts as the message body
      */
     String value;
+    /**
+     * Correlation ID of a pipelined request, echoed in its response.
+     * 0 means none. Only the binary wire format carries it.
+     */
+    int id = 0;
     private static final char LINE_FEED = 0x0A;
     private static final char RETURN = 0x0D;
     private static final String DELIMITER = " ";
@@ -96,6 +101,18 @@ public class KVMessage implements IKVMessage {
         this.value = value;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Sets the correlation ID (used by pipelining clients, echoed by the server)
+     * @param id
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
     /**
      * Sets the key of the message (Used by server)
      * @param key
@@ -1,12 +1,17 @@
 package shared.messages;
 
 import shared.Range;
+import shared.RingHash;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
-import static shared.MD5.getHash;
+import static shared.MD5.hash;
 
 //IMPLEMENT REMOVE NODE THAT RETURNS SUCCESSOR
 //IMPLEMENT GET RANGE FROM SERVER
@@ -16,7 +21,62 @@ public class KVMetadata implements IKVMetadata{
     //WHEN INSERTING, SEARCH FOR SERVER WITH KEY RANGE AND UPDATE THOSE TWO RANGES
 
     public List<Pair<String, Range>> metadata = new Vector<Pair<String, Range>>(1);
-    public final BigInteger FFFF = new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF", 16);
+
+    /**
+     * Immutable, array-backed view of the ring used for lookups. Entries keep
+     * the order of {@link #metadata}, which is the successor order; a second
+     * array orders them by end hash for binary search, and names map to their
+     * position. Rebuilt by every change to the list, so a lookup never sees
+     * a snapshot older than the last change.
+     */
+    private static final class Ring {
+        final Pair<String, Range>[] entries;
+        final RingHash[] ends;      /* sorted ascending */
+        final int[] byEnd;          /* entry index for each element of ends */
+        final Map<String, Integer> index;
+
+        @SuppressWarnings("unchecked")
+        Ring(List<Pair<String, Range>> list) {
+            entries = (Pair<String, Range>[]) list.toArray(new Pair<?, ?>[0]);
+            index = new HashMap<String, Integer>(entries.length * 2);
+            Integer[] order = new Integer[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                order[i] = i;
+                if (!index.containsKey(entries[i].p1)) index.put(entries[i].p1, i);
+            }
+            final RingHash[] entryEnds = new RingHash[entries.length];
+            for (int i = 0; i < entries.length; i++) entryEnds[i] = entries[i].p2.end;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return entryEnds[a].compareTo(entryEnds[b]);
+                }
+            });
+            ends = new RingHash[entries.length];
+            byEnd = new int[entries.length];
+            for (int i = 0; i < order.length; i++) {
+                byEnd[i] = order[i];
+                ends[i] = entryEnds[order[i]];
+            }
+        }
+
+        /**
+         * @return index of the entry whose range should hold the hash: the first
+         *         one ending at or after it, wrapping to the lowest end
+         */
+        int ownerOf(RingHash hash) {
+            int lo = 0;
+            int hi = ends.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (ends[mid].compareTo(hash) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return byEnd[lo == ends.length ? 0 : lo];
+        }
+    }
+
+    private volatile Ring ring = new Ring(metadata);
 
     /**
      * Default constructor
@@ -33,6 +93,7 @@ public class KVMetadata implements IKVMetadata{
         Pair<String, Range> new_pair = new Pair<String, Range>();
         new_pair.setValue(key, range);
         metadata.add(new_pair);
+        rebuild();
     }
 
     /**
@@ -45,24 +106,29 @@ public class KVMetadata implements IKVMetadata{
         for(int i = 0; i < tokens.length; i++)
         {
             String[] vals = tokens[i].split(",");
-            BigInteger start = new BigInteger(vals[0], 16);
-            BigInteger end = new BigInteger(vals[1], 16);
+            RingHash start = RingHash.fromHex(vals[0]);
+            RingHash end = RingHash.fromHex(vals[1]);
             this.addServer(vals[2], start, end);
         }
     }
 
-    public void addServer(String serverAddPort, BigInteger startpoint, BigInteger endpoint){
+    public void addServer(String serverAddPort, RingHash startpoint, RingHash endpoint){
         Range range = new Range(startpoint, endpoint);
         Pair<String, Range> new_pair = new Pair<String, Range>();
         new_pair.setValue(serverAddPort, range);
         metadata.add(new_pair);
+        rebuild();
+    }
+
+    public void addServer(String serverAddPort, BigInteger startpoint, BigInteger endpoint){
+        addServer(serverAddPort, RingHash.fromBigInteger(startpoint), RingHash.fromBigInteger(endpoint));
     }
 
     public Pair<String, Range> addServer(String serverAddress, int port){
 
         String serverAddPort = serverAddress + ":" + port;
-        BigInteger hash = getHash(serverAddPort);
-        BigInteger start = hash.add(BigInteger.ONE).mod(FFFF.add(BigInteger.ONE));
+        RingHash hash = hash(serverAddPort);
+        RingHash start = hash.next();
         Range range;
         Pair rangeServer = new Pair();
         Pair newEntry = new Pair();
@@ -87,6 +153,7 @@ public class KVMetadata implements IKVMetadata{
                     metadata.get(i).p2.updateStart(start);
                     newEntry.setValue(serverAddPort, range);
                     metadata.add(i, newEntry);
+                    rebuild();
                     rangeServer.setValue(metadata.get(i+1).p1, range);
                     return rangeServer;
                 }
@@ -108,13 +175,13 @@ public class KVMetadata implements IKVMetadata{
     public Pair<String, Range> removeServer(String serverAddress, int port){
 
         String serverAddPort = serverAddress + ":" + port;
-        BigInteger hash = getHash(serverAddPort);
         Pair rangeServer = new Pair();
 
         for (int i = 0; i < metadata.size(); i++)
         {
             if (metadata.size() == 1 && metadata.get(0).p1.compareTo(serverAddPort) == 0){
                 metadata.remove(0);
+                rebuild();
                 return null;
             }
             //if last element, wraps
@@ -124,12 +191,14 @@ public class KVMetadata implements IKVMetadata{
                     metadata.get(0).p2.updateStart(metadata.get(i).p2.start);
                     rangeServer = metadata.get(0);
                     metadata.remove(i);
+                    rebuild();
                     return rangeServer;
                 }
                 //return metadata.get(0);
                 metadata.get(i + 1).p2.updateStart(metadata.get(i).p2.start);
                 rangeServer = metadata.get(i + 1);
                 metadata.remove(i);
+                rebuild();
                 return rangeServer;
             }
         }
@@ -137,22 +206,44 @@ public class KVMetadata implements IKVMetadata{
     }
 
     public String findServer(String key){
-        BigInteger hash = getHash(key);
-        for (int i = 0; i < metadata.size(); i++)
+        RingHash hash = hash(key);
+        Ring r = ring();
+        if (r.entries.length == 0) return null;
+        Pair<String, Range> owner = r.entries[r.ownerOf(hash)];
+        if (owner.p2.inRange(hash))
+            return owner.p1;
+
+        // ranges do not tile the ring, fall back to the first range holding the hash
+        for (int i = 0; i < r.entries.length; i++)
         {
-            if(metadata.get(i).p2.inRange(hash))
-                return metadata.get(i).p1;
+            if(r.entries[i].p2.inRange(hash))
+                return r.entries[i].p1;
         }
         return null;
     }
 
     public Range getRange(String serverAddPort){
-        for (int i = 0; i < metadata.size(); i++)
-        {
-            if(metadata.get(i).p1.compareTo(serverAddPort) == 0)
-                return metadata.get(i).p2;
+        Ring r = ring();
+        Integer i = r.index.get(serverAddPort);
+        return i == null ? null : r.entries[i].p2;
+    }
+
+    /**
+     * @return the current lookup snapshot
+     */
+    private Ring ring() {
+        return ring;
+    }
+
+    /**
+     * Replaces the lookup snapshot after the ring was modified. The list is
+     * read and the snapshot published under the list's lock, so a rebuild
+     * cannot publish a snapshot older than one already published.
+     */
+    private void rebuild() {
+        synchronized (metadata) {
+            ring = new Ring(metadata);
         }
-        return null;
     }
 
     public boolean isEmpty(){
@@ -167,7 +258,7 @@ public class KVMetadata implements IKVMetadata{
         String returned_string = "";
         for (int i = 0; i < metadata.size(); i++)
         {
-            returned_string = returned_string + metadata.get(i).p2.start.toString(16) + "," + metadata.get(i).p2.end.toString(16) + "," + metadata.get(i).p1 + ";";
+            returned_string = returned_string + metadata.get(i).p2.start.toHex() + "," + metadata.get(i).p2.end.toHex() + "," + metadata.get(i).p1 + ";";
         }
 
         return returned_string;
@@ -186,45 +277,29 @@ public class KVMetadata implements IKVMetadata{
         }
 
         //IF THERE'S ONLY ONE NODE, RETURN SELF
-        if(metadata.size() == 1 && metadata.get(0).p1.compareTo(name) == 0){
+        Ring r = ring();
+        if(r.entries.length == 1 && r.entries[0].p1.compareTo(name) == 0){
             returnRange = getRange(name);
             returnPair.setValue(name, returnRange);
             return returnPair;
         }
 
-        int server_index = -1;
+        Integer server_index = r.index.get(name);
 
-        for(int i=0; i<metadata.size(); i++){
-            if(metadata.get(i).p1.compareTo(name) == 0){
-                server_index = i;
-                break;
-            }
-        }
-
-        if (server_index == -1)
+        if (server_index == null)
             return null;
 
-       // int successor_index = (server_index + n) % metadata.size();
-        int increment = n % metadata.size();
-
-        int successor_index = server_index + increment;
-
-        if(successor_index < 0){
-            successor_index = metadata.size() + successor_index;
-        }
-
-        if(successor_index >= metadata.size()){
-            successor_index = successor_index - metadata.size();
-        }
+        int size = r.entries.length;
+        int successor_index = (server_index + n % size + size) % size;
 
-        return metadata.get(successor_index);
+        return r.entries[successor_index];
     }
 
     public String toKeyRangeReadString(){
         String returned_string = "";
         for (int i = 0; i < metadata.size(); i++)
         {
-            returned_string = returned_string + getNthSuccessor(metadata.get(i).p1, -2).p2.start.toString(16) + "," + metadata.get(i).p2.end.toString(16) + "," + metadata.get(i).p1 + ";";
+            returned_string = returned_string + getNthSuccessor(metadata.get(i).p1, -2).p2.start.toHex() + "," + metadata.get(i).p2.end.toHex() + "," + metadata.get(i).p1 + ";";
         }
 
         return returned_string;
@@ -35,15 +35,30 @@ public class AllTests {
 		TestSuite clientSuite = new TestSuite("Basic Storage ServerTest-Suite");
 		clientSuite.addTestSuite(ConnectionTest.class);
 //		clientSuite.addTestSuite(InteractionTest.class);
-		clientSuite.addTestSuite(KVMessageTest.class);
+		clientSuite.addTestSuite(KVMessageTest.class);
+		clientSuite.addTestSuite(CommModuleTest.class);
+		clientSuite.addTestSuite(NioFrontEndTest.class);
+		clientSuite.addTestSuite(PipelineTest.class);
+		clientSuite.addTestSuite(KVStoreAsyncTest.class);
+		clientSuite.addTestSuite(RoutingKVStoreTest.class);
 		//clientSuite.addTestSuite(KVServerTest.class);
-		clientSuite.addTestSuite(KVDatabaseTest.class);
+		clientSuite.addTestSuite(KVDatabaseTest.class);
+		clientSuite.addTestSuite(KVLogDatabaseTest.class);
+		clientSuite.addTestSuite(WriteAheadLogTest.class);
 		clientSuite.addTestSuite(FIFOCacheUnitTest.class);
 		//clientSuite.addTestSuite(FIFOCacheTest.class);
-		clientSuite.addTestSuite(LRUCacheUnitTest.class);
+		clientSuite.addTestSuite(LRUCacheUnitTest.class);
+		clientSuite.addTestSuite(LFUCacheUnitTest.class);
+		clientSuite.addTestSuite(TinyLFUCacheUnitTest.class);
+		clientSuite.addTestSuite(CacheHitRatioTest.class);
+		clientSuite.addTestSuite(StripedCacheUnitTest.class);
+		clientSuite.addTestSuite(ByteBudgetCacheUnitTest.class);
+		clientSuite.addTestSuite(OffHeapCacheUnitTest.class);
+		clientSuite.addTestSuite(HashBucketCacheUnitTest.class);
 		//clientSuite.addTestSuite(LRUCacheTest.class);
 		clientSuite.addTestSuite(KVMetadataTest.class);
-		clientSuite.addTestSuite(RangeTest.class);
+		clientSuite.addTestSuite(RangeTest.class);
+		clientSuite.addTestSuite(ReplicatorTest.class);
 		clientSuite.addTestSuite(ResponsibleReplicaTest.class);
 		clientSuite.addTestSuite(SubDatabaseTest.class);
 		return clientSuite;
@@ -0,0 +1,63 @@
+package testing;
+
+import app_kvServer.cache.ByteBudgetCache;
+import junit.framework.TestCase;
+
+public class ByteBudgetCacheUnitTest extends TestCase {
+
+    private static String value(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append('v');
+        return sb.toString();
+    }
+
+    public void testPutGetByteBudgetCacheUNIT() throws Exception {
+        ByteBudgetCache cache = new ByteBudgetCache(1024);
+        cache.putKV("foo", "bar");
+        assertEquals("bar", cache.getKV("foo"));
+        assertEquals(ByteBudgetCache.weigh("foo", "bar"), cache.usedBytes());
+        cache.putKV("foo", "bazz");
+        assertEquals("bazz", cache.getKV("foo"));
+        assertEquals(ByteBudgetCache.weigh("foo", "bazz"), cache.usedBytes());
+        cache.deleteKV("foo");
+        assertFalse(cache.contains("foo"));
+        assertEquals(0, cache.usedBytes());
+    }
+
+    public void testEvictionByBytesByteBudgetCacheUNIT() throws Exception {
+        long entry = ByteBudgetCache.weigh("key0", value(1000));
+        ByteBudgetCache cache = new ByteBudgetCache(entry * 3);
+        cache.putKV("key0", value(1000));
+        cache.putKV("key1", value(1000));
+        cache.putKV("key2", value(1000));
+        cache.getKV("key0");
+        // two entries' worth of bytes push out the two least recently used
+        cache.putKV("key3", value(2000 + (int) ByteBudgetCache.weigh("", "")));
+        assertTrue(cache.contains("key0"));
+        assertFalse(cache.contains("key1"));
+        assertFalse(cache.contains("key2"));
+        assertTrue(cache.contains("key3"));
+        assertTrue(cache.usedBytes() <= cache.maxBytes());
+
+        // many small values fit where few large ones do
+        cache.clear();
+        for (int i = 0; i < 100; i++) cache.putKV("k" + i, "v");
+        assertTrue(cache.contains("k99"));
+        assertTrue(cache.usedBytes() <= cache.maxBytes());
+    }
+
+    public void testOversizedValueByteBudgetCacheUNIT() throws Exception {
+        ByteBudgetCache cache = new ByteBudgetCache(512);
+        cache.putKV("small", "value");
+        cache.putKV("small", value(1024));
+        // too large to cache at all, and the stale value is gone
+        assertFalse(cache.contains("small"));
+        assertEquals(0, cache.usedBytes());
+        try {
+            cache.evictKV();
+            fail("evicted from an empty cache");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package testing;
+
+import app_kvServer.cache.Cache;
+import app_kvServer.cache.FIFOCache;
+import app_kvServer.cache.LFUCache;
+import app_kvServer.cache.LRUCache;
+import app_kvServer.cache.TinyLFUCache;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Hit ratios of the cache strategies on a Zipfian trace, replayed the way
+ * KVServer uses its cache: a hit is read with getKV, a miss is loaded with putKV.
+ */
+public class CacheHitRatioTest extends TestCase {
+
+    private static final int KEYS = 10000;
+    private static final int REQUESTS = 200000;
+    private static final int CACHE_SIZE = 100;
+    private static final double SKEW = 0.9;
+
+    /**
+     * @return key indexes drawn from a Zipf distribution, rank 0 most popular
+     */
+    private static int[] zipfTrace(long seed) {
+        double[] cdf = new double[KEYS];
+        double sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += 1.0 / Math.pow(i + 1, SKEW);
+            cdf[i] = sum;
+        }
+        Random random = new Random(seed);
+        int[] trace = new int[REQUESTS];
+        for (int r = 0; r < REQUESTS; r++) {
+            double u = random.nextDouble() * sum;
+            int lo = 0;
+            int hi = KEYS - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u) lo = mid + 1;
+                else hi = mid;
+            }
+            trace[r] = lo;
+        }
+        return trace;
+    }
+
+    private static double hitRatio(Cache cache, int[] trace) throws Exception {
+        int hits = 0;
+        for (int k : trace) {
+            String key = "key" + k;
+            if (cache.contains(key)) {
+                cache.getKV(key);
+                hits++;
+            } else {
+                cache.putKV(key, "value");
+            }
+        }
+        return hits / (double) trace.length;
+    }
+
+    public void testZipfHitRatios() throws Exception {
+        int[] trace = zipfTrace(42);
+        double fifo = hitRatio(new FIFOCache(CACHE_SIZE), trace);
+        double lru = hitRatio(new LRUCache(CACHE_SIZE), trace);
+        double lfu = hitRatio(new LFUCache(CACHE_SIZE), trace);
+        double tinyLfu = hitRatio(new TinyLFUCache(CACHE_SIZE), trace);
+        System.out.printf("Zipf(%.1f) keys=%d cache=%d: FIFO=%.3f LRU=%.3f LFU=%.3f TinyLFU=%.3f%n",
+                SKEW, KEYS, CACHE_SIZE, fifo, lru, lfu, tinyLfu);
+
+        assertTrue(lfu > lru);
+        assertTrue(tinyLfu > lru);
+        assertTrue(tinyLfu > fifo);
+    }
+}
@@ -0,0 +1,94 @@
+package testing;
+
+import app_kvServer.cache.Cache;
+import app_kvServer.cache.LRUCache;
+import app_kvServer.cache.StripedCache;
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of the single-lock LRUCache against the lock-striped
+ * StripedCache as the number of threads grows. Every thread runs a mix of
+ * 90% reads and 10% writes over Zipfian keys for a fixed time; a read that
+ * misses loads the key, as KVServer does.
+ */
+public class CacheScalingPerformanceTest extends TestCase {
+
+    public static int KEYS = 100000;
+    public static int CACHE_SIZE = 10000;
+    public static double SKEW = 0.9;
+    public static long DURATION_MS = 2000;
+
+    private static String[] zipfKeys(int count, long seed) {
+        double[] cdf = new double[KEYS];
+        double sum = 0;
+        for (int i = 0; i < KEYS; i++) {
+            sum += 1.0 / Math.pow(i + 1, SKEW);
+            cdf[i] = sum;
+        }
+        Random random = new Random(seed);
+        String[] keys = new String[count];
+        for (int r = 0; r < count; r++) {
+            double u = random.nextDouble() * sum;
+            int lo = 0;
+            int hi = KEYS - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u) lo = mid + 1;
+                else hi = mid;
+            }
+            keys[r] = "key" + lo;
+        }
+        return keys;
+    }
+
+    private static double throughput(final Cache cache, int threadCount, final String[] keys) throws Exception {
+        final AtomicLong ops = new AtomicLong();
+        final long end = System.currentTimeMillis() + DURATION_MS;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t * (keys.length / threadCount);
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long done = 0;
+                    try {
+                        int i = offset;
+                        while (System.currentTimeMillis() < end) {
+                            for (int n = 0; n < 1000; n++, i++) {
+                                String key = keys[i % keys.length];
+                                if (i % 10 == 0) {
+                                    cache.putKV(key, "value");
+                                } else if (cache.getKV(key) == null) {
+                                    cache.putKV(key, "value");
+                                }
+                            }
+                            done += 1000;
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    ops.addAndGet(done);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        return ops.get() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    public void testCacheScaling() throws Exception {
+        String[] keys = zipfKeys(1 << 20, 42);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("cores=" + cores + " keys=" + KEYS + " cache=" + CACHE_SIZE);
+        for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+            double lru = throughput(new LRUCache(CACHE_SIZE), threads, keys);
+            double striped = throughput(new StripedCache(CACHE_SIZE, true), threads, keys);
+            System.out.printf("threads=%3d LRUCache=%,12.0f ops/s StripedCache=%,12.0f ops/s%n",
+                    threads, lru, striped);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package testing;
+
+import junit.framework.TestCase;
+import shared.comms.CommModule;
+import shared.messages.IKVMessage;
+import shared.messages.KVMessage;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CommModuleTest extends TestCase {
+
+    private ServerSocket server;
+    private Socket client;
+    private Socket accepted;
+
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        accepted = server.accept();
+    }
+
+    public void tearDown() throws Exception {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    public void testTextMessages() throws Exception {
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.PUT, "foo", "bar baz"), client);
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.GET, "foo", null), client);
+
+        KVMessage put = CommModule.receiveMessage(accepted);
+        assertEquals(IKVMessage.StatusType.PUT, put.getStatus());
+        assertEquals("foo", put.getKey());
+        assertEquals("bar baz", put.getValue());
+
+        KVMessage get = CommModule.receiveMessage(accepted);
+        assertEquals(IKVMessage.StatusType.GET, get.getStatus());
+        assertNull(get.getValue());
+
+        // longer than the scratch buffer a connection keeps
+        String big = repeat('y', 100 * 1024);
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.PUT, "big", big), client);
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.PUT, "small", "value"), client);
+        assertEquals(big, CommModule.receiveMessage(accepted).getValue());
+        assertEquals("value", CommModule.receiveMessage(accepted).getValue());
+    }
+
+    public void testBinaryFramesCarryLargeValues() throws Exception {
+        CommModule.setBinary(client, true);
+        String big = repeat('x', 300 * 1024);
+        String multiline = "sub1,sub2\nline one\r\nline two \u00e9";
+
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.SERVER_PUT, "big", big), client);
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.SERVER_PUT, "raw", multiline), client);
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.KEYRANGE, null, null), client);
+
+        KVMessage first = CommModule.receiveMessage(accepted);
+        assertEquals(IKVMessage.StatusType.SERVER_PUT, first.getStatus());
+        assertEquals(big, first.getValue());
+        assertEquals(multiline, CommModule.receiveMessage(accepted).getValue());
+        KVMessage empty = CommModule.receiveMessage(accepted);
+        assertEquals(IKVMessage.StatusType.KEYRANGE, empty.getStatus());
+        assertNull(empty.getKey());
+        assertNull(empty.getValue());
+    }
+
+    /**
+     * Opens a connected pair and sends a message each way, so both sockets
+     * have their state kept
+     */
+    private Socket[] openPair() throws Exception {
+        Socket c = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        Socket a = server.accept();
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.GET, "key", null), c);
+        CommModule.receiveMessage(a);
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.GET_ERROR, "key", null), a);
+        CommModule.receiveMessage(c);
+        return new Socket[] {c, a};
+    }
+
+    public void testConnectionsForgottenAfterClose() throws Exception {
+        int before = CommModule.connectionCount();
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            for (Socket socket : openPair()) sockets.add(socket);
+        }
+        assertTrue(CommModule.connectionCount() >= 200);
+        for (Socket socket : sockets) CommModule.closeSocket(socket);
+        assertTrue(CommModule.connectionCount() <= before);
+
+        // closed directly, they are swept out once the map grows
+        sockets.clear();
+        for (int i = 0; i < 100; i++) {
+            for (Socket socket : openPair()) socket.close();
+        }
+        int leaked = CommModule.connectionCount();
+        try {
+            for (int i = 0; i < 1000 && CommModule.connectionCount() >= leaked; i++) {
+                for (Socket socket : openPair()) sockets.add(socket);
+            }
+            assertTrue(CommModule.connectionCount() < leaked);
+        } finally {
+            for (Socket socket : sockets) CommModule.closeSocket(socket);
+        }
+    }
+
+    public void testNegotiation() throws Exception {
+        Thread peer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    KVMessage request = CommModule.receiveMessage(accepted);
+                    CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.PROTOCOL_SUCCESS,
+                            request.getKey(), null), accepted);
+                    CommModule.setBinary(accepted, true);
+                    // echo one message back
+                    CommModule.sendMessage(CommModule.receiveMessage(accepted), accepted);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        peer.start();
+
+        assertTrue(CommModule.requestBinary(client));
+        assertTrue(CommModule.isBinary(client));
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.PUT, "k", "v"), client);
+        KVMessage echo = CommModule.receiveMessage(client);
+        assertEquals("v", echo.getValue());
+        peer.join();
+    }
+
+    public void testRequestIds() throws Exception {
+        CommModule.setBinary(client, true);
+        KVMessage tagged = new KVMessage(IKVMessage.StatusType.GET, "key", null);
+        tagged.setId(42);
+        CommModule.sendMessage(tagged, client);
+        CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.GET, "plain", null), client);
+
+        KVMessage first = CommModule.receiveMessage(accepted);
+        assertEquals(42, first.getId());
+        assertEquals("key", first.getKey());
+        assertEquals(0, CommModule.receiveMessage(accepted).getId());
+
+        // the buffer decoder must agree, also when the frame arrives in pieces
+        byte[] frame = CommModule.encode(tagged, true);
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length);
+        buffer.put(frame, 0, 3).flip();
+        assertNull(CommModule.decode(buffer));
+        buffer.compact().put(frame, 3, frame.length - 3).flip();
+        KVMessage decoded = CommModule.decode(buffer);
+        assertEquals(42, decoded.getId());
+        assertEquals(IKVMessage.StatusType.GET, decoded.getStatus());
+        assertFalse(buffer.hasRemaining());
+    }
+}
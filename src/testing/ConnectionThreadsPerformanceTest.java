@@ -0,0 +1,132 @@
+package testing;
+
+import app_kvServer.KVServer;
+import junit.framework.TestCase;
+import shared.Range;
+import shared.RingHash;
+import shared.comms.CommModule;
+import shared.messages.IKVMessage;
+import shared.messages.KVMessage;
+
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Connection count against threads, heap and GET latency for the ways the
+ * server can serve clients: a platform thread per connection, a virtual
+ * thread per connection and the selector front end.
+ *
+ * Each mode gets its own server. For every connection count, that many
+ * sockets are opened and kept open, then GETs are sent round robin over
+ * them and the per-request latency is recorded. Thread stacks are native
+ * memory, so the live thread count of the JVM is reported next to the heap.
+ * The client sockets live in the same JVM, so the heap figure includes their
+ * CommModule buffers as well.
+ *
+ * The virtual thread mode is only measured on runtimes that have virtual
+ * threads; elsewhere the server falls back to platform threads and the
+ * figures would repeat the platform ones.
+ */
+public class ConnectionThreadsPerformanceTest extends TestCase {
+
+    public static int[] CONNECTIONS = {100, 1000, 2000};
+    public static int REQUESTS = 5000;
+    /** below the ephemeral range, so closed client sockets cannot hold it */
+    public static int BASE_PORT = 30200;
+
+    private enum Mode { PLATFORM, VIRTUAL, SELECTOR }
+
+    private static KVServer start(Mode mode, int port) throws Exception {
+        final KVServer server = new KVServer(port, 10, "FIFO", false);
+        server.keyRange = new Range(RingHash.ZERO, RingHash.MAX);
+        if (mode == Mode.VIRTUAL) server.enableVirtualThreads();
+        if (mode == Mode.SELECTOR) server.enableNonBlockingIO(2);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.run();
+            }
+        }).start();
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket(server.bindAddress, port).close();
+                break;
+            } catch (Exception e) {
+                Thread.sleep(50);
+            }
+        }
+        return server;
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void measure(Mode mode, int port) throws Exception {
+        KVServer server = start(mode, port);
+        KVMessage request = new KVMessage(IKVMessage.StatusType.GET, "missing", null);
+
+        for (int count : CONNECTIONS) {
+            long heapBefore = usedHeap();
+            List<Socket> sockets = new ArrayList<>(count);
+            try {
+                for (int i = 0; i < count; i++) {
+                    Socket socket = new Socket(server.bindAddress, port);
+                    socket.setTcpNoDelay(true);
+                    sockets.add(socket);
+                }
+                // one round trip each so every connection is fully set up
+                for (Socket socket : sockets) {
+                    assertEquals(IKVMessage.StatusType.GET_ERROR, CommModule.exchange(request, socket).getStatus());
+                }
+                int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+                long heap = usedHeap() - heapBefore;
+
+                long[] latencies = new long[REQUESTS];
+                for (int i = 0; i < REQUESTS; i++) {
+                    Socket socket = sockets.get(i % count);
+                    long start = System.nanoTime();
+                    CommModule.exchange(request, socket);
+                    latencies[i] = System.nanoTime() - start;
+                }
+                Arrays.sort(latencies);
+
+                System.out.printf("%-8s connections=%5d threads=%5d heap=%6.1f MB p50=%6d us p99=%6d us%n",
+                        mode, count, threads, heap / (1024.0 * 1024.0),
+                        latencies[REQUESTS / 2] / 1000, latencies[REQUESTS * 99 / 100] / 1000);
+            } finally {
+                for (Socket socket : sockets) {
+                    CommModule.closeSocket(socket);
+                }
+            }
+            Thread.sleep(500);
+        }
+        server.kill();
+    }
+
+    public void testConnectionScaling() throws Exception {
+        System.out.println("java " + System.getProperty("java.version"));
+        measure(Mode.PLATFORM, BASE_PORT);
+        if (hasVirtualThreads()) {
+            measure(Mode.VIRTUAL, BASE_PORT + 1);
+        } else {
+            System.out.println("VIRTUAL  skipped, this runtime has no virtual threads");
+        }
+        measure(Mode.SELECTOR, BASE_PORT + 2);
+    }
+}
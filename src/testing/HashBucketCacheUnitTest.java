@@ -0,0 +1,103 @@
+package testing;
+
+import app_kvServer.cache.HashBucketCache;
+import app_kvServer.cache.LRUCache;
+import app_kvServer.cache.StripedCache;
+import junit.framework.TestCase;
+import shared.MD5;
+import shared.Range;
+import shared.RingHash;
+
+import java.math.BigInteger;
+
+public class HashBucketCacheUnitTest extends TestCase {
+
+    private static final RingHash HALF = RingHash.fromBigInteger(BigInteger.ONE.shiftLeft(127));
+
+    public void testInvalidateRangeHashBucketCacheUNIT() throws Exception {
+        HashBucketCache cache = new HashBucketCache(new StripedCache(5000, true));
+        for (int i = 0; i < 2000; i++) cache.putKV("key" + i, "value" + i);
+        assertEquals(2000, cache.size());
+
+        Range range = new Range(RingHash.fromBigInteger(BigInteger.ONE.shiftLeft(126)), HALF);
+        int dropped = cache.invalidate(range);
+        assertTrue(dropped > 0 && dropped < 2000);
+        for (int i = 0; i < 2000; i++) {
+            String key = "key" + i;
+            assertEquals(!range.inRange(MD5.hash(key)), cache.contains(key));
+        }
+        assertEquals(2000 - dropped, cache.size());
+    }
+
+    public void testInvalidateWrappingRangeHashBucketCacheUNIT() throws Exception {
+        HashBucketCache cache = new HashBucketCache(new StripedCache(5000, false));
+        for (int i = 0; i < 2000; i++) cache.putKV("key" + i, "value" + i);
+
+        // starts and ends in the same bucket, covering the rest of the ring
+        Range wrapping = new Range(HALF.next(), HALF);
+        assertEquals(2000, cache.invalidate(wrapping) + cache.size());
+        for (int i = 0; i < 2000; i++) {
+            String key = "key" + i;
+            assertEquals(!wrapping.inRange(MD5.hash(key)), cache.contains(key));
+        }
+
+        for (int i = 0; i < 2000; i++) cache.putKV("key" + i, "value" + i);
+        assertEquals(2000, cache.invalidate(new Range(RingHash.ZERO, RingHash.MAX)));
+        assertEquals(0, cache.size());
+    }
+
+    public void testEvictedKeysHashBucketCacheUNIT() throws Exception {
+        HashBucketCache cache = new HashBucketCache(new LRUCache(100));
+        for (int i = 0; i < 10000; i++) cache.putKV("key" + i, "value");
+        assertEquals(100, cache.size());
+        // keys the wrapped cache evicted are not counted as dropped
+        assertEquals(100, cache.invalidate(new Range(RingHash.ZERO, RingHash.MAX)));
+        cache.putKV("foo", "bar");
+        cache.deleteKV("foo");
+        assertFalse(cache.contains("foo"));
+    }
+
+    public void testSubscribersHashBucketCacheUNIT() throws Exception {
+        HashBucketCache cache = new HashBucketCache(new LRUCache(100));
+        cache.putKV("foo", "bar");
+        // a plain put does not know the subscribers
+        assertNull(cache.getSubscribers("foo"));
+        assertNull(cache.getWithSubscribers("foo"));
+
+        cache.putKV("foo", "bar", "1,2", cache.stamp("foo"));
+        assertEquals("1,2", cache.getSubscribers("foo"));
+        assertEquals("1,2\nbar", cache.getWithSubscribers("foo"));
+        assertEquals("bar", cache.getKV("foo"));
+        // a new value leaves the subscribers as they are
+        cache.putKV("foo", "baz");
+        assertEquals("1,2\nbaz", cache.getWithSubscribers("foo"));
+
+        cache.subscribersChanged("foo");
+        assertNull(cache.getSubscribers("foo"));
+        cache.putSubscribers("foo", "1,2,3", cache.stamp("foo"));
+        assertEquals("1,2,3", cache.getSubscribers("foo"));
+
+        cache.putKV("none", "value", "", cache.stamp("none"));
+        assertEquals("\nvalue", cache.getWithSubscribers("none"));
+        cache.deleteKV("none");
+        assertNull(cache.getSubscribers("none"));
+    }
+
+    public void testStaleSubscribersHashBucketCacheUNIT() throws Exception {
+        HashBucketCache cache = new HashBucketCache(new LRUCache(100));
+        cache.putKV("foo", "bar");
+        // read from storage, then the subscribers change before the fill
+        Object stamp = cache.stamp("foo");
+        cache.subscribersChanged("foo");
+        cache.putKV("foo", "bar", "1", stamp);
+        assertNull(cache.getSubscribers("foo"));
+        assertEquals("bar", cache.getKV("foo"));
+
+        // the same for a key that was not cached yet
+        Object unlisted = cache.stamp("new");
+        cache.subscribersChanged("new");
+        cache.putKV("new", "value", "1", unlisted);
+        assertNull(cache.getSubscribers("new"));
+        assertEquals("value", cache.getKV("new"));
+    }
+}
@@ -3,11 +3,18 @@ package testing;
 import database.KVdatabase;
 import junit.framework.TestCase;
 import org.apache.log4j.BasicConfigurator;
+import shared.MD5;
+import shared.Range;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 
 public class KVDatabaseTest extends TestCase{
@@ -110,4 +117,67 @@ public class KVDatabaseTest extends TestCase{
         assertEquals(false, exists);
 
     }
+
+    public void testKeysSurviveRestart() throws Exception {
+        KVdatabase store = new KVdatabase(null, "./src/KVStorage/indextest");
+        store.getIndex().setCheckpointInterval(4);
+        for (int i = 0; i < 10; i++) {
+            store.insertPair("key" + i, "value" + i, false);
+        }
+        store.deletePair("key3");
+        store.deletePair("key7");
+
+        // reload from the snapshot plus journal, not from the directory
+        KVdatabase reopened = new KVdatabase(null, "./src/KVStorage/indextest");
+        List<String> keys = Arrays.asList(reopened.getAllKeys());
+        assertEquals(8, keys.size());
+        assertFalse(keys.contains("key3"));
+        assertTrue(keys.contains("key9"));
+        assertEquals(MD5.hash("key9"), reopened.getIndex().get("key9").hash);
+        assertEquals("value9", reopened.getValue("key9", false));
+
+        assertTrue(reopened.clearStorage());
+        assertEquals(0, reopened.getAllKeys().length);
+        assertFalse(Files.exists(Paths.get("./src/KVStorage/indextest")));
+    }
+
+    public void testMissingParentDirectory() throws Exception {
+        String dir = "./src/KVStorage/missing/parent/store";
+        assertFalse(Files.exists(Paths.get("./src/KVStorage/missing")));
+        KVdatabase store = new KVdatabase(null, dir);
+        assertTrue(Files.isDirectory(Paths.get(dir)));
+        store.insertPair("key", "value", false);
+        assertEquals("value", store.getValue("key", false));
+
+        assertTrue(store.clearStorage());
+        Files.deleteIfExists(Paths.get("./src/KVStorage/missing/parent"));
+        Files.deleteIfExists(Paths.get("./src/KVStorage/missing"));
+    }
+
+    public void testKeysInRange() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            db.insertPair("key" + i, "value" + i, false);
+        }
+        db.deletePair("key10");
+
+        Range[] ranges = {
+                new Range("40000000000000000000000000000000,bfffffffffffffffffffffffffffffff"),
+                // wraps around zero
+                new Range("c0000000000000000000000000000000,3fffffffffffffffffffffffffffffff")
+        };
+        int total = 0;
+        for (Range range : ranges) {
+            Set<String> expected = new HashSet<>();
+            for (String key : db.getAllKeys()) {
+                if (range.inRange(MD5.hash(key))) expected.add(key);
+            }
+            Set<String> actual = new HashSet<>();
+            Iterator<String> keys = db.keysInRange(range);
+            while (keys.hasNext()) actual.add(keys.next());
+
+            assertEquals(expected, actual);
+            total += actual.size();
+        }
+        assertEquals(49, total);
+    }
 }
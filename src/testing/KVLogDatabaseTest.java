@@ -0,0 +1,129 @@
+package testing;
+
+import database.KVLogDatabase;
+import junit.framework.TestCase;
+import org.apache.log4j.BasicConfigurator;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.List;
+
+
+public class KVLogDatabaseTest extends TestCase {
+
+    private static final String DIR = "./src/KVStorage/logtest";
+    KVLogDatabase db;
+
+    public void setUp() {
+        BasicConfigurator.configure();
+        db = new KVLogDatabase(null, DIR, 256);
+        db.clearStorage(false);
+    }
+
+    public void tearDown() {
+        db.clearStorage();
+    }
+
+    public void testInsertGet() throws Exception {
+        boolean existed = db.insertPair("foo", "bar", false);
+        assertFalse(existed);
+        assertEquals("bar", db.getValue("foo", false));
+        assertEquals("\nbar", db.getValue("foo", true));
+    }
+
+    public void testUpdate() throws Exception {
+        db.insertPair("foo", "bar", false);
+        boolean existed = db.insertPair("foo", "yeah", false);
+        assertTrue(existed);
+        assertEquals("yeah", db.getValue("foo", false));
+    }
+
+    public void testDelete() throws Exception {
+        db.insertPair("foo", "bar", false);
+        assertTrue(db.deletePair("foo"));
+        assertNull(db.getValue("foo", false));
+        assertEquals(0, db.getAllKeys().length);
+
+        boolean thrown = false;
+        try {
+            db.deletePair("foo");
+        } catch (NoSuchFileException e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+    }
+
+    public void testSubscribersSurviveUpdate() throws Exception {
+        db.insertPair("foo", "bar", false);
+        db.addSubscriber("foo", "1");
+        db.addSubscriber("foo", "2");
+        db.insertPair("foo", "baz", false);
+
+        assertEquals(Arrays.asList("1", "2"), db.getSubscribers("foo"));
+        assertEquals("baz", db.getValue("foo", false));
+        assertTrue(db.removeSubscriber("foo", "1"));
+        assertFalse(db.removeSubscriber("foo", "3"));
+        assertEquals(Arrays.asList("2"), db.getSubscribers("foo"));
+    }
+
+    public void testRecoveryAcrossSegments() throws Exception {
+        // small segment size forces several rollovers
+        for (int i = 0; i < 50; i++) {
+            db.insertPair("key" + i, "value" + i, false);
+        }
+        for (int i = 0; i < 50; i += 2) {
+            db.deletePair("key" + i);
+        }
+        db.insertPair("key1", "updated", false);
+
+        KVLogDatabase reopened = new KVLogDatabase(null, DIR, 256);
+        List<String> keys = Arrays.asList(reopened.getAllKeys());
+        assertEquals(25, keys.size());
+        assertFalse(keys.contains("key0"));
+        assertEquals("updated", reopened.getValue("key1", false));
+        assertEquals("value49", reopened.getValue("key49", false));
+    }
+
+    public void testCompactionDropsDeadRecords() throws Exception {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 20; i++) {
+                db.insertPair("key" + i, "value" + i + "_" + round, false);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            db.deletePair("key" + i);
+        }
+        long sizeBefore = db.getDiskSize();
+        int segmentsBefore = db.getSegmentCount();
+
+        db.getCompactor().setRateLimit(0);
+        assertTrue(db.getCompactor().shouldCompact());
+        assertTrue(db.getCompactor().compact());
+
+        assertTrue(db.getDiskSize() < sizeBefore);
+        assertTrue(db.getSegmentCount() < segmentsBefore);
+        assertEquals(10, db.getAllKeys().length);
+        assertNull(db.getValue("key0", false));
+        assertEquals("value15_4", db.getValue("key15", false));
+
+        // writes after the merge land in the active segment and win on recovery
+        db.insertPair("key15", "fresh", false);
+        KVLogDatabase reopened = new KVLogDatabase(null, DIR, 256);
+        assertEquals(10, reopened.getAllKeys().length);
+        assertNull(reopened.getValue("key3", false));
+        assertEquals("fresh", reopened.getValue("key15", false));
+        assertEquals("value19_4", reopened.getValue("key19", false));
+    }
+
+    public void testClear() throws Exception {
+        db.insertPair("foo", "bar", false);
+        db.insertPair("foo2", "bar2", false);
+        assertTrue(db.clearStorage(false));
+        assertNull(db.getValue("foo", false));
+
+        // the store stays usable after being cleared
+        db.insertPair("foo", "again", false);
+        assertEquals("again", db.getValue("foo", false));
+    }
+}
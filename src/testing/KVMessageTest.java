@@ -1,10 +1,15 @@
 package testing;
 
 import app_kvECS.ECSClient;
+import shared.messages.KVBatch;
 import shared.messages.KVMessage;
 import shared.messages.IKVMessage.StatusType;
 
 import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
 public class KVMessageTest extends TestCase{
 
     public void testToString() {
@@ -143,4 +148,24 @@ public class KVMessageTest extends TestCase{
         assertEquals(StatusType.KEYRANGE, msg.getStatus());
         assertNull(e);
     }
+
+    public void testBatchRoundTrip() {
+        List<String> entries = Arrays.asList("key", "a value, with: separators", null, "", "12:x,");
+        String encoded = KVBatch.encode(entries);
+        assertEquals("3:key,25:a value, with: separators,-1:,0:,5:12:x,,", encoded);
+        assertEquals(entries, KVBatch.decode(encoded));
+        assertTrue(KVBatch.decode(null).isEmpty());
+    }
+
+    public void testBatchMalformed() {
+        String[] bad = {"3:ke,", "x:abc,", "3:abc", "-2:,"};
+        for (String encoded : bad) {
+            try {
+                KVBatch.decode(encoded);
+                fail("accepted " + encoded);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
 }
@@ -174,4 +174,39 @@ public class KVMetadataTest extends TestCase{
 
     }
 
+    @Test
+    public void testKVMetadataLookupLargeRing(){
+        md.removeServer("localhost",5000);
+        for (int port = 6000; port < 6300; port++) {
+            md.addServer("localhost", port);
+        }
+        // a copy built from the wire format gets its lookup snapshot eagerly
+        KVMetadata copy = new KVMetadata(md.toString());
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "key" + i;
+            String expected = null;
+            for (Pair<String, Range> entry : md.metadata) {
+                if (entry.getSecond().inRange(getHash(key))) {
+                    expected = entry.getFirst();
+                    break;
+                }
+            }
+            assertEquals(expected, md.findServer(key));
+            assertEquals(expected, copy.findServer(key));
+        }
+
+        int size = md.metadata.size();
+        for (int i = 0; i < size; i += 7) {
+            String name = md.metadata.get(i).getFirst();
+            assertSame(md.metadata.get(i).getSecond(), md.getRange(name));
+            assertEquals(md.metadata.get((i + 2) % size).getFirst(), md.getNthSuccessor(name, 2).getFirst());
+            assertEquals(md.metadata.get((i - 1 + size) % size).getFirst(), md.getNthSuccessor(name, -1).getFirst());
+        }
+
+        // the snapshot follows later changes to the ring
+        md.removeServer("localhost", 6100);
+        assertNull(md.getRange("localhost:6100"));
+        assertNotNull(md.findServer("key1"));
+    }
 }
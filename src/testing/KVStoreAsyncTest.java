@@ -0,0 +1,226 @@
+package testing;
+
+import app_kvServer.KVServer;
+import client.ClientSocketListener;
+import client.KVStore;
+import junit.framework.TestCase;
+import shared.Range;
+import shared.RingHash;
+import shared.comms.CommModule;
+import shared.messages.IKVMessage;
+import shared.messages.KVMessage;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class KVStoreAsyncTest extends TestCase {
+
+    private static final int PORT = 30112;
+    private static boolean started = false;
+
+    public void setUp() throws Exception {
+        synchronized (KVStoreAsyncTest.class) {
+            if (started) return;
+            final KVServer server = new KVServer(PORT, 10, "FIFO", false);
+            server.keyRange = new Range(RingHash.ZERO, RingHash.MAX);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    server.run();
+                }
+            }).start();
+            for (int i = 0; i < 100; i++) {
+                try {
+                    new Socket(server.bindAddress, PORT).close();
+                    break;
+                } catch (Exception e) {
+                    Thread.sleep(50);
+                }
+            }
+            started = true;
+        }
+    }
+
+    /**
+     * Several threads share one connection; every future gets its own response
+     */
+    public void testConcurrentFutures() throws Exception {
+        final KVStore kvClient = new KVStore("localhost", PORT);
+        kvClient.connect();
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        List<CompletableFuture<IKVMessage>> puts = new ArrayList<>();
+                        for (int i = 0; i < 100; i++) {
+                            puts.add(kvClient.putAsync("async" + thread + "_" + i, "v" + i));
+                        }
+                        for (CompletableFuture<IKVMessage> put : puts) {
+                            assertEquals(IKVMessage.StatusType.PUT_SUCCESS, put.get(10, TimeUnit.SECONDS).getStatus());
+                        }
+                        for (int i = 0; i < 100; i++) {
+                            IKVMessage get = kvClient.getAsync("async" + thread + "_" + i).get(10, TimeUnit.SECONDS);
+                            assertEquals("v" + i, get.getValue());
+                            kvClient.put("async" + thread + "_" + i, null);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        kvClient.disconnect();
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    public void testMultiGetPut() throws Exception {
+        KVStore kvClient = new KVStore("localhost", PORT);
+        kvClient.connect();
+        Map<String, String> pairs = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) pairs.put("batch" + i, "value " + i);
+        pairs.put("batch spaced key?", "a, b: c");
+
+        Map<String, IKVMessage> put = kvClient.multiPut(pairs);
+        assertEquals(pairs.size(), put.size());
+        for (IKVMessage result : put.values()) {
+            assertEquals(IKVMessage.StatusType.PUT_SUCCESS, result.getStatus());
+        }
+        assertEquals("value 7", kvClient.get("batch7").getValue());
+
+        List<String> keys = new ArrayList<>(pairs.keySet());
+        keys.add("batchMissing");
+        Map<String, IKVMessage> got = kvClient.multiGet(keys);
+        assertEquals(keys.size(), got.size());
+        for (Map.Entry<String, String> pair : pairs.entrySet()) {
+            assertEquals(IKVMessage.StatusType.GET_SUCCESS, got.get(pair.getKey()).getStatus());
+            assertEquals(pair.getValue(), got.get(pair.getKey()).getValue());
+        }
+        assertEquals(IKVMessage.StatusType.GET_ERROR, got.get("batchMissing").getStatus());
+
+        Map<String, String> deletes = new LinkedHashMap<>();
+        for (String key : pairs.keySet()) deletes.put(key, null);
+        for (IKVMessage result : kvClient.multiPut(deletes).values()) {
+            assertEquals(IKVMessage.StatusType.DELETE_SUCCESS, result.getStatus());
+        }
+        assertEquals(IKVMessage.StatusType.GET_ERROR,
+                kvClient.multiGet(Arrays.asList("batch0", "batch1")).get("batch0").getStatus());
+        kvClient.disconnect();
+    }
+
+    /**
+     * A notification between request and response goes to the listener and
+     * the future still gets the response; a lost connection fails the futures
+     */
+    public void testNotificationsAndConnectionLoss() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    KVMessage get = CommModule.receiveMessage(socket);
+                    CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.NOTIFY, "DELETED_other", ""), socket);
+                    CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.GET_SUCCESS, get.getKey(), "value"), socket);
+                    CommModule.receiveMessage(socket);
+                    socket.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).start();
+
+        final List<String> notified = new CopyOnWriteArrayList<>();
+        final List<ClientSocketListener.SocketStatus> statuses = new CopyOnWriteArrayList<>();
+        KVStore kvClient = new KVStore("127.0.0.1", server.getLocalPort());
+        kvClient.setBinaryProtocol(false);
+        kvClient.addListener(new ClientSocketListener() {
+            @Override
+            public void handleNewMessage(KVMessage msg) {
+            }
+
+            @Override
+            public void handleNotification(KVMessage msg) {
+                notified.add(msg.getKey());
+            }
+
+            @Override
+            public void handleStatus(SocketStatus status) {
+                statuses.add(status);
+            }
+        });
+        kvClient.connect();
+
+        IKVMessage get = kvClient.getAsync("key").get(10, TimeUnit.SECONDS);
+        assertEquals(IKVMessage.StatusType.GET_SUCCESS, get.getStatus());
+        assertEquals("value", get.getValue());
+        assertEquals(1, notified.size());
+        assertEquals("DELETED_other", notified.get(0));
+
+        // the server closes after this request without answering
+        try {
+            kvClient.getAsync("unanswered").get(10, TimeUnit.SECONDS);
+            fail("future should fail when the connection is lost");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertTrue(kvClient.getAsync("after").isCompletedExceptionally());
+        // listeners are told after the futures have failed
+        for (int i = 0; i < 100 && statuses.isEmpty(); i++) Thread.sleep(50);
+        assertTrue(statuses.contains(ClientSocketListener.SocketStatus.CONNECTION_LOST));
+        server.close();
+    }
+
+    /**
+     * A blocking request fails with an IOException once the response timeout passes
+     */
+    public void testResponseTimeout() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = server.accept();
+                    CommModule.receiveMessage(socket);
+                    done.await(10, TimeUnit.SECONDS);
+                    socket.close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).start();
+
+        KVStore kvClient = new KVStore("127.0.0.1", server.getLocalPort());
+        kvClient.setBinaryProtocol(false);
+        kvClient.setResponseTimeout(200);
+        kvClient.connect();
+        long start = System.nanoTime();
+        try {
+            kvClient.get("unanswered");
+            fail("get should time out");
+        } catch (IOException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        } finally {
+            done.countDown();
+            kvClient.disconnect();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package testing;
+
+import app_kvServer.cache.LFUCache;
+import junit.framework.TestCase;
+
+public class LFUCacheUnitTest extends TestCase {
+
+    public LFUCache cache = new LFUCache(3);
+
+    public void testPutGetLFUCacheUNIT() throws Exception {
+        cache.putKV("foo", "bar");
+        assertEquals("bar", cache.getKV("foo"));
+        cache.putKV("foo", "baz");
+        assertEquals("baz", cache.getKV("foo"));
+        assertNull(cache.getKV("missing"));
+    }
+
+    public void testEvictionLFUCacheUNIT() throws Exception {
+        cache.putKV("foo1", "bar");
+        cache.putKV("foo2", "bar");
+        cache.putKV("foo3", "bar");
+        cache.getKV("foo1");
+        cache.getKV("foo1");
+        cache.getKV("foo3");
+        cache.putKV("foo4", "bar");
+        // foo2 was used least often
+        assertFalse(cache.contains("foo2"));
+        assertTrue(cache.contains("foo1") && cache.contains("foo3") && cache.contains("foo4"));
+
+        // foo4 has a count of one and goes next, not foo3 which was used earlier
+        cache.putKV("foo5", "bar");
+        assertFalse(cache.contains("foo4"));
+        assertTrue(cache.contains("foo3"));
+    }
+
+    public void testDeleteKeyLFUCacheUNIT() throws Exception {
+        cache.putKV("foo1", "bar");
+        cache.putKV("foo2", "bar");
+        cache.deleteKV("foo1");
+        assertFalse(cache.contains("foo1"));
+        cache.evictKV();
+        assertFalse(cache.contains("foo2"));
+        try {
+            cache.evictKV();
+            fail("evicted from an empty cache");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package testing;
+
+import junit.framework.TestCase;
+import shared.MD5;
+import shared.RingHash;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Micro benchmark of key hashing: the previous implementation (digest lookup
+ * and default charset encoding per call, BigInteger result) against the
+ * thread-local {@link MD5#hash} and the batch {@link MD5#hashAll}.
+ *
+ * Each variant is warmed up before it is timed, and the results are consumed
+ * so the JIT cannot drop the work.
+ */
+public class MD5PerformanceTest extends TestCase {
+
+    public static int NUM_KEYS = 10000;
+    public static int WARMUP_ROUNDS = 20;
+    public static int MEASURED_ROUNDS = 50;
+
+    private String[] keys;
+    private long sink;
+
+    public void setUp() {
+        keys = new String[NUM_KEYS];
+        for (int i = 0; i < NUM_KEYS; i++) {
+            keys[i] = "client_" + (i % 16) + "_key_" + i;
+        }
+    }
+
+    private static BigInteger legacyHash(String input) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            return new BigInteger(1, md.digest(input.getBytes()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void runLegacy() {
+        for (String key : keys) sink += legacyHash(key).intValue();
+    }
+
+    private void runThreadLocal() {
+        for (String key : keys) sink += MD5.hash(key).lo;
+    }
+
+    private void runBatch() {
+        for (RingHash hash : MD5.hashAll(keys)) sink += hash.lo;
+    }
+
+    private double nanosPerKey(Runnable variant) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) variant.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) variant.run();
+        return (double) (System.nanoTime() - start) / ((long) MEASURED_ROUNDS * NUM_KEYS);
+    }
+
+    public void testHashingThroughput() {
+        for (String key : keys) {
+            assertEquals(legacyHash(key), MD5.getHash(key));
+        }
+
+        double legacy = nanosPerKey(new Runnable() {
+            @Override
+            public void run() {
+                runLegacy();
+            }
+        });
+        double threadLocal = nanosPerKey(new Runnable() {
+            @Override
+            public void run() {
+                runThreadLocal();
+            }
+        });
+        double batch = nanosPerKey(new Runnable() {
+            @Override
+            public void run() {
+                runBatch();
+            }
+        });
+
+        System.out.println("MD5 getInstance per call: " + String.format("%.1f", legacy) + " ns/key");
+        System.out.println("MD5 thread-local hash:    " + String.format("%.1f", threadLocal) + " ns/key");
+        System.out.println("MD5 batch hashAll:        " + String.format("%.1f", batch) + " ns/key");
+        System.out.println("(checksum " + sink + ")");
+    }
+}
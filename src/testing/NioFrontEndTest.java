@@ -0,0 +1,118 @@
+package testing;
+
+import app_kvServer.KVServer;
+import client.KVStore;
+import junit.framework.TestCase;
+import shared.Range;
+import shared.RingHash;
+import shared.comms.CommModule;
+import shared.messages.IKVMessage;
+import shared.messages.KVMessage;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NioFrontEndTest extends TestCase {
+
+    private static final int PORT = 30100;
+    private static KVServer server;
+
+    public void setUp() throws Exception {
+        synchronized (NioFrontEndTest.class) {
+            if (server != null) return;
+            server = new KVServer(PORT, 10, "FIFO", false);
+            server.keyRange = new Range(RingHash.ZERO, RingHash.MAX);
+            server.enableNonBlockingIO(2);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    server.run();
+                }
+            }).start();
+            // wait for the listening socket
+            for (int i = 0; i < 100; i++) {
+                try {
+                    new Socket(server.bindAddress, PORT).close();
+                    return;
+                } catch (Exception e) {
+                    Thread.sleep(50);
+                }
+            }
+        }
+    }
+
+    public void testPutGet() throws Exception {
+        KVStore kvClient = new KVStore("localhost", PORT);
+        kvClient.connect();
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 200 * 1024; i++) big.append((char) ('a' + i % 26));
+
+        IKVMessage put = kvClient.put("nio", big.toString());
+        assertEquals(IKVMessage.StatusType.PUT_SUCCESS, put.getStatus());
+        IKVMessage get = kvClient.get("nio");
+        assertEquals(IKVMessage.StatusType.GET_SUCCESS, get.getStatus());
+        assertEquals(big.toString(), get.getValue());
+        assertEquals(IKVMessage.StatusType.DELETE_SUCCESS, kvClient.put("nio", null).getStatus());
+        kvClient.disconnect();
+    }
+
+    /**
+     * A client that reads its responses only after sending all requests gets
+     * every response in order, although the server stops handling its requests
+     * while more than a megabyte of responses waits for it
+     */
+    public void testSlowReaderGetsAllResponses() throws Exception {
+        KVStore kvClient = new KVStore("localhost", PORT);
+        kvClient.connect();
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100 * 1024; i++) big.append((char) ('a' + i % 26));
+        assertEquals(IKVMessage.StatusType.PUT_SUCCESS, kvClient.put("slow", big.toString()).getStatus());
+
+        Socket socket = new Socket(server.bindAddress, PORT);
+        try {
+            for (int i = 0; i < 100; i++) {
+                CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.GET, "slow", null), socket);
+            }
+            // give the server time to fill the queue
+            Thread.sleep(200);
+            for (int i = 0; i < 100; i++) {
+                KVMessage response = CommModule.receiveMessage(socket);
+                assertEquals(IKVMessage.StatusType.GET_SUCCESS, response.getStatus());
+                assertEquals(big.toString(), response.getValue());
+            }
+        } finally {
+            CommModule.closeSocket(socket);
+            kvClient.put("slow", null);
+            kvClient.disconnect();
+        }
+    }
+
+    /**
+     * Many connections, each pipelining text requests, all answered in order
+     */
+    public void testManyPipelinedConnections() throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                Socket socket = new Socket(server.bindAddress, PORT);
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                for (int j = 0; j < 3; j++) {
+                    CommModule.sendMessage(new KVMessage(IKVMessage.StatusType.GET, "k" + i + "-" + j, null), socket);
+                }
+            }
+            for (int i = 0; i < sockets.size(); i++) {
+                for (int j = 0; j < 3; j++) {
+                    KVMessage response = CommModule.receiveMessage(sockets.get(i));
+                    assertEquals(IKVMessage.StatusType.GET_ERROR, response.getStatus());
+                    assertEquals("k" + i + "-" + j, response.getKey());
+                }
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                CommModule.closeSocket(socket);
+            }
+        }
+    }
+}
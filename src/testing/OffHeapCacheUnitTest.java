@@ -0,0 +1,73 @@
+package testing;
+
+import app_kvServer.cache.OffHeapCache;
+import junit.framework.TestCase;
+
+public class OffHeapCacheUnitTest extends TestCase {
+
+    private static String value(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) sb.append((char) ('a' + i % 26));
+        return sb.toString();
+    }
+
+    public void testPutGetOffHeapCacheUNIT() throws Exception {
+        OffHeapCache cache = new OffHeapCache(1 << 16, 1 << 12, 64);
+        cache.putKV("foo", "bar");
+        assertEquals("bar", cache.getKV("foo"));
+        // a larger value moves to a larger size class
+        cache.putKV("foo", value(1000));
+        assertEquals(value(1000), cache.getKV("foo"));
+        cache.putKV("utf", "gr\u00fc\u00dfe \u4e16\u754c");
+        assertEquals("gr\u00fc\u00dfe \u4e16\u754c", cache.getKV("utf"));
+        assertEquals(2, cache.size());
+        cache.deleteKV("foo");
+        assertFalse(cache.contains("foo"));
+        assertNull(cache.getKV("foo"));
+        assertNull(cache.getKV("missing"));
+    }
+
+    public void testEvictionOffHeapCacheUNIT() throws Exception {
+        // a single slab of four 256 byte chunks
+        OffHeapCache cache = new OffHeapCache(1024, 1024, 256);
+        for (int i = 0; i < 4; i++) cache.putKV("key" + i, value(200));
+        assertEquals(1, cache.slabCount());
+        cache.getKV("key0");
+        cache.putKV("key4", value(200));
+        // the class is full and gives up its least recently used entry
+        assertTrue(cache.contains("key0"));
+        assertFalse(cache.contains("key1"));
+        assertEquals(value(200), cache.getKV("key4"));
+        assertEquals(4, cache.size());
+
+        // no slab left for a larger class, and a value larger than a slab never fits
+        cache.putKV("large", value(600));
+        cache.putKV("huge", value(2000));
+        assertFalse(cache.contains("large"));
+        assertFalse(cache.contains("huge"));
+
+        cache.evictKV();
+        assertFalse(cache.contains("key2"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.slabCount());
+        try {
+            cache.evictKV();
+            fail("evicted from an empty cache");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    public void testChunkReuseOffHeapCacheUNIT() throws Exception {
+        OffHeapCache cache = new OffHeapCache(1 << 20, 1 << 16, 64);
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 500; i++) cache.putKV("key" + i, value(i % 300) + round);
+        }
+        for (int i = 0; i < 500; i++) {
+            String value = cache.getKV("key" + i);
+            if (value != null) assertEquals(value(i % 300) + 9, value);
+        }
+        assertTrue(cache.slabCount() <= 16);
+    }
+}
@@ -0,0 +1,96 @@
+package testing;
+
+import app_kvServer.KVServer;
+import client.KVStore;
+import junit.framework.TestCase;
+import shared.Range;
+import shared.RingHash;
+import shared.messages.IKVMessage;
+import shared.messages.KVMessage;
+
+import java.net.Socket;
+import java.util.List;
+
+public class PipelineTest extends TestCase {
+
+    private static final int THREAD_PORT = 30110;
+    private static final int SELECTOR_PORT = 30111;
+    private static boolean started = false;
+
+    private static void start(int port, boolean selector) throws Exception {
+        final KVServer server = new KVServer(port, 10, "FIFO", false);
+        server.keyRange = new Range(RingHash.ZERO, RingHash.MAX);
+        if (selector) server.enableNonBlockingIO(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.run();
+            }
+        }).start();
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket(server.bindAddress, port).close();
+                return;
+            } catch (Exception e) {
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    public void setUp() throws Exception {
+        synchronized (PipelineTest.class) {
+            if (started) return;
+            start(THREAD_PORT, false);
+            start(SELECTOR_PORT, true);
+            started = true;
+        }
+    }
+
+    private void runPipeline(int port, boolean binary) throws Exception {
+        KVStore kvClient = new KVStore("localhost", port);
+        kvClient.setBinaryProtocol(binary);
+        kvClient.connect();
+        int n = 3 * KVStore.PIPELINE_WINDOW;
+        String prefix = "pipe" + port + binary + "_";
+
+        KVStore.Pipeline pipeline = kvClient.pipeline();
+        for (int i = 0; i < n; i++) {
+            pipeline.put(prefix + i, "v" + i);
+        }
+        for (int i = 0; i < n; i++) {
+            pipeline.get(prefix + i);
+        }
+        List<KVMessage> responses = pipeline.sync();
+
+        assertEquals(2 * n, responses.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(IKVMessage.StatusType.PUT_SUCCESS, responses.get(i).getStatus());
+            KVMessage get = responses.get(n + i);
+            assertEquals(IKVMessage.StatusType.GET_SUCCESS, get.getStatus());
+            assertEquals(prefix + i, get.getKey());
+            assertEquals("v" + i, get.getValue());
+        }
+
+        for (int i = 0; i < n; i++) {
+            pipeline.put(prefix + i, null);
+        }
+        for (KVMessage response : pipeline.sync()) {
+            assertEquals(IKVMessage.StatusType.DELETE_SUCCESS, response.getStatus());
+        }
+        // the connection is usable for ordinary requests afterwards
+        assertEquals(IKVMessage.StatusType.GET_ERROR, kvClient.get(prefix + 0).getStatus());
+        kvClient.disconnect();
+    }
+
+    public void testPipelineThreadPerConnection() throws Exception {
+        runPipeline(THREAD_PORT, true);
+    }
+
+    public void testPipelineSelector() throws Exception {
+        runPipeline(SELECTOR_PORT, true);
+    }
+
+    public void testPipelineText() throws Exception {
+        runPipeline(THREAD_PORT, false);
+    }
+}
@@ -2,9 +2,14 @@ package testing;
 
 import org.junit.Test;
 import junit.framework.TestCase;
+import shared.MD5;
 import shared.Range;
+import shared.RingHash;
 
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import static shared.MD5.getHash;
 
@@ -48,11 +53,57 @@ public class RangeTest extends TestCase {
     @Test
     public void testInRangeSpecific(){
 
-        BigInteger end = new BigInteger("98715326301568607101067940198791688124", 16);
-        BigInteger start = new BigInteger("180293372416575166452018847750613510822", 16);
-        BigInteger hash = new BigInteger("105490587539310211567724693302530339539", 16);
+        BigInteger end = new BigInteger("98715326301568607101067940198791", 16);
+        BigInteger start = new BigInteger("18029337241657516645201884775061", 16);
+        BigInteger hash = new BigInteger("10549058753931021156772469330253", 16);
         range.updateRange(start, end);
         boolean test1 = range.inRange(hash);
         assertFalse(test1 /*&& test2 && test3 && test4*/);
     }
+
+    @Test
+    public void testRingHashMatchesBigInteger(){
+
+        String[] names = {"localhost:5000", "test", "hi", ""};
+        for (String name : names) {
+            BigInteger expected = getHash(name);
+            RingHash hash = MD5.hash(name);
+            assertEquals(expected, hash.toBigInteger());
+            assertEquals(expected.toString(16), hash.toHex());
+            assertEquals(hash, RingHash.fromHex(expected.toString(16)));
+            assertEquals(expected.add(BigInteger.ONE).mod(FFFF.add(BigInteger.ONE)), hash.next().toBigInteger());
+        }
+        assertEquals("0", RingHash.ZERO.toHex());
+        assertEquals(RingHash.ZERO, RingHash.MAX.next());
+        assertEquals(FFFF, RingHash.MAX.toBigInteger());
+        assertTrue(RingHash.MAX.compareTo(RingHash.ZERO) > 0);
+        assertTrue(RingHash.fromHex("8000000000000000").compareTo(RingHash.fromHex("7fffffffffffffff")) > 0);
+    }
+
+    @Test
+    public void testRangeWireFormat(){
+
+        Range parsed = new Range("a,ffffffffffffffffffffffffffffffff");
+        assertEquals("a,ffffffffffffffffffffffffffffffff", parsed.toString());
+        assertTrue(parsed.inRange(RingHash.MAX));
+        assertFalse(parsed.inRange(RingHash.fromHex("9")));
+    }
+
+    @Test
+    public void testHashIsUtf8(){
+
+        String[] names = {"plain", "caf\u00e9", "\u6f22\u5b57", "\ud83d\ude00", "bad\ud800"};
+        RingHash[] batch = MD5.hashAll(names);
+        for (int i = 0; i < names.length; i++) {
+            byte[] utf8 = names[i].getBytes(StandardCharsets.UTF_8);
+            BigInteger expected;
+            try {
+                expected = new BigInteger(1, MessageDigest.getInstance("MD5").digest(utf8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            assertEquals(expected, MD5.hash(names[i]).toBigInteger());
+            assertEquals(MD5.hash(names[i]), batch[i]);
+        }
+    }
 }
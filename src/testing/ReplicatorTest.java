@@ -0,0 +1,167 @@
+package testing;
+
+import app_kvServer.Replicator;
+import junit.framework.TestCase;
+import shared.comms.CommModule;
+import shared.messages.IKVMessage;
+import shared.messages.KVMessage;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ReplicatorTest extends TestCase {
+
+    /** only bounds a hanging test, no assertion depends on it */
+    private static final long WAIT_SECONDS = 30;
+
+    private final List<ServerSocket> replicas = new ArrayList<>();
+    private final List<Socket> successors = new ArrayList<>();
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private Replicator replicator;
+
+    public void setUp() {
+        replicator = new Replicator(successors, 2);
+        // long enough that only a confirmation or a failure ends a wait
+        replicator.setAckTimeout(TimeUnit.SECONDS.toMillis(WAIT_SECONDS * 2));
+    }
+
+    public void tearDown() throws Exception {
+        callers.shutdownNow();
+        replicator.close();
+        for (Socket socket : successors) socket.close();
+        for (ServerSocket replica : replicas) replica.close();
+    }
+
+    /**
+     * Fake successor that records the key of every message it receives and
+     * answers it with a fixed status once the test releases it
+     */
+    private class Replica {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        final CountDownLatch release;
+
+        Replica(final IKVMessage.StatusType reply, boolean held) throws IOException {
+            release = new CountDownLatch(held ? 1 : 0);
+            final ServerSocket server = new ServerSocket(0);
+            replicas.add(server);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try (Socket socket = server.accept()) {
+                        while (true) {
+                            KVMessage msg = CommModule.receiveMessage(socket);
+                            received.add(msg.getKey());
+                            release.await();
+                            CommModule.sendMessage(new KVMessage(reply, msg.getKey(), msg.getValue()), socket);
+                        }
+                    } catch (Exception e) {
+                        // successor closed
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            successors.add(new Socket("127.0.0.1", server.getLocalPort()));
+        }
+
+        String next() throws InterruptedException {
+            return received.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private boolean put(String key) {
+        return replicator.replicate(new KVMessage(IKVMessage.StatusType.SERVER_PUT, key, "value"), key,
+                IKVMessage.StatusType.PUT_SUCCESS, IKVMessage.StatusType.PUT_UPDATE);
+    }
+
+    private Future<Boolean> putAsync(final String key) {
+        return callers.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return put(key);
+            }
+        });
+    }
+
+    /**
+     * Both replicas receive the write before either has answered, so the
+     * second send does not wait for the first round trip
+     */
+    public void testSendsInParallel() throws Exception {
+        Replica first = new Replica(IKVMessage.StatusType.PUT_SUCCESS, true);
+        Replica second = new Replica(IKVMessage.StatusType.PUT_UPDATE, true);
+
+        Future<Boolean> put = putAsync("key");
+        assertEquals("key", first.next());
+        assertEquals("key", second.next());
+        assertFalse(put.isDone());
+
+        first.release.countDown();
+        second.release.countDown();
+        assertTrue(put.get(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    public void testAckOneWaitsForFirstReplica() throws Exception {
+        Replica fast = new Replica(IKVMessage.StatusType.PUT_SUCCESS, false);
+        Replica held = new Replica(IKVMessage.StatusType.PUT_SUCCESS, true);
+        replicator.setAck(Replicator.Ack.ONE);
+
+        // completes while the second replica has not answered
+        assertTrue(putAsync("key").get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("key", fast.next());
+        assertEquals("key", held.next());
+        held.release.countDown();
+    }
+
+    /**
+     * Without acknowledgements writes return at once, still reach the replica
+     * in order, and are dropped once the replica falls too far behind
+     */
+    public void testAckNoneKeepsOrderAndBoundsQueue() throws Exception {
+        Replica held = new Replica(IKVMessage.StatusType.PUT_SUCCESS, true);
+        replicator.setAck(Replicator.Ack.NONE);
+
+        assertTrue(put("key0"));
+        assertEquals("key0", held.next());
+        // one write in flight, two queued, the rest dropped
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(put("key" + i));
+        }
+        assertEquals(2, replicator.dropped());
+
+        held.release.countDown();
+        assertEquals("key1", held.next());
+        assertEquals("key2", held.next());
+        assertNull(held.received.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * A failed replica fails the write without waiting for the other one
+     */
+    public void testFailedReplica() throws Exception {
+        new Replica(IKVMessage.StatusType.PUT_ERROR, false);
+        Replica held = new Replica(IKVMessage.StatusType.PUT_SUCCESS, true);
+
+        assertFalse(putAsync("key").get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("key", held.next());
+        held.release.countDown();
+
+        replicator.setAck(Replicator.Ack.ONE);
+        assertTrue(put("key"));
+    }
+
+    public void testNoSuccessors() {
+        assertTrue(put("key"));
+    }
+}
@@ -1,6 +1,7 @@
 package testing;
 
 import app_kvECS.ECSClient;
+import app_kvServer.IKVServer;
 import app_kvServer.KVServer;
 import junit.framework.TestCase;
 import org.apache.log4j.BasicConfigurator;
@@ -49,9 +50,9 @@ public class ResponsibleReplicaTest extends TestCase {
     public void testReplicaResponsible() {
         //generate random hash key
         Random random = new Random();
-        int len = ranges[0].FFFF.bitLength();
+        int len = Range.FFFF.bitLength();
         BigInteger hash = new BigInteger(len, random);
-        hash.mod(ranges[0].FFFF.add(BigInteger.ONE));
+        hash.mod(Range.FFFF.add(BigInteger.ONE));
         int next = 1;
         int secondNext = 2;
 
@@ -96,5 +97,26 @@ public class ResponsibleReplicaTest extends TestCase {
 
     }
 
+    /**
+     * Checks the cached ownership lookup against the metadata for many keys
+     */
+    public void testOwnership() {
+        for (int i = 0; i < 200; i++) {
+            String key = "key" + i;
+            BigInteger hash = MD5.getHash(key);
+            for (KVServer server : servers) {
+                IKVServer.Ownership expected = server.keyRange.inRange(hash) ? IKVServer.Ownership.PRIMARY
+                        : isReplicaResponsible(server, hash) ? IKVServer.Ownership.REPLICA
+                        : IKVServer.Ownership.NONE;
+                assertEquals(expected, server.ownership(key));
+            }
+        }
 
+        // swapping in new metadata is picked up without an explicit refresh
+        KVMetadata single = new KVMetadata();
+        single.addServer(servers[0].bindAddress, servers[0].getPort());
+        servers[0].kvMetadata = new KVMetadata(single.toString());
+        servers[0].keyRange = servers[0].kvMetadata.getRange(servers[0].bindAddress + ":" + servers[0].getPort());
+        assertEquals(IKVServer.Ownership.PRIMARY, servers[0].ownership("key0"));
+    }
 }
@@ -0,0 +1,165 @@
+package testing;
+
+import app_kvServer.KVServer;
+import client.RoutingKVStore;
+import junit.framework.TestCase;
+import shared.RingHash;
+import shared.messages.IKVMessage;
+import shared.messages.KVMetadata;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class RoutingKVStoreTest extends TestCase {
+
+    private static final int BASE_PORT = 30120;
+    private static final RingHash ONE_THIRD = RingHash.fromHex("55555555555555555555555555555555");
+    private static final RingHash TWO_THIRDS = RingHash.fromHex("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+    private static KVServer[] servers;
+
+    public void setUp() throws Exception {
+        synchronized (RoutingKVStoreTest.class) {
+            if (servers != null) return;
+            servers = new KVServer[3];
+            for (int i = 0; i < servers.length; i++) {
+                final KVServer server = new KVServer(BASE_PORT + i, 10, "FIFO", false);
+                servers[i] = server;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        server.run();
+                    }
+                }).start();
+                for (int j = 0; j < 100; j++) {
+                    try {
+                        new Socket(server.bindAddress, BASE_PORT + i).close();
+                        break;
+                    } catch (Exception e) {
+                        Thread.sleep(50);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String name(int server) {
+        return servers[server].bindAddress + ":" + servers[server].getPort();
+    }
+
+    /**
+     * Splits the ring into thirds, the first third going to server {@code first}
+     * and the others to the following servers
+     */
+    private static KVMetadata assignRing(int first) {
+        KVMetadata ring = new KVMetadata();
+        ring.addServer(name(first), RingHash.ZERO, ONE_THIRD);
+        ring.addServer(name((first + 1) % 3), ONE_THIRD.next(), TWO_THIRDS);
+        ring.addServer(name((first + 2) % 3), TWO_THIRDS.next(), RingHash.MAX);
+        for (KVServer server : servers) {
+            server.kvMetadata = new KVMetadata(ring.toString());
+            server.keyRange = server.kvMetadata.getRange(server.bindAddress + ":" + server.getPort());
+        }
+        return ring;
+    }
+
+    private static void putFromThreads(final RoutingKVStore router, final String prefix, final List<Throwable> errors)
+            throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 25; i++) {
+                            String key = prefix + thread + "_" + i;
+                            IKVMessage.StatusType status = router.put(key, "v" + i).getStatus();
+                            if (status != IKVMessage.StatusType.PUT_SUCCESS && status != IKVMessage.StatusType.PUT_UPDATE)
+                                throw new AssertionError(key + ": " + status);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+    }
+
+    public void testRoutesToOwnerAndRefreshesStaleMetadata() throws Exception {
+        KVMetadata ring = assignRing(0);
+        RoutingKVStore router = new RoutingKVStore(servers[0].bindAddress, BASE_PORT);
+        router.connect();
+        assertEquals(3, router.getMetadata().size());
+
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        putFromThreads(router, "route", errors);
+        assertTrue(errors.toString(), errors.isEmpty());
+        for (int t = 0; t < 4; t++) {
+            for (int i = 0; i < 25; i++) {
+                String key = "route" + t + "_" + i;
+                String owner = ring.findServer(key);
+                for (int s = 0; s < servers.length; s++) {
+                    assertEquals(key, name(s).equals(owner), servers[s].inStorage(key));
+                }
+                assertEquals("v" + i, router.get(key).getValue());
+            }
+        }
+
+        // the ring moves on while the router still has the old metadata
+        ring = assignRing(1);
+        putFromThreads(router, "moved", errors);
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(ring.toString(), router.getMetadata().toString());
+        router.disconnect();
+    }
+
+    /**
+     * Every server holds its own value for the key, so the value read shows
+     * which server answered
+     */
+    public void testReadPolicies() throws Exception {
+        KVMetadata ring = assignRing(0);
+        String owner = ring.findServer("hot");
+        String primaryValue = null;
+        for (int s = 0; s < servers.length; s++) {
+            servers[s].putKV("hot", "from" + s, false);
+            if (name(s).equals(owner)) primaryValue = "from" + s;
+        }
+        RoutingKVStore router = new RoutingKVStore(servers[0].bindAddress, BASE_PORT);
+        router.connect();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(primaryValue, router.get("hot").getValue());
+        }
+
+        router.setReadPolicy(RoutingKVStore.ReadPolicy.ROUND_ROBIN);
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < 6; i++) seen.add(router.get("hot").getValue());
+        assertEquals(3, seen.size());
+
+        router.setReadPolicy(RoutingKVStore.ReadPolicy.LEAST_OUTSTANDING);
+        seen.clear();
+        for (int i = 0; i < 6; i++) seen.add(router.get("hot").getValue());
+        assertEquals(3, seen.size());
+
+        router.setReadPolicy(RoutingKVStore.ReadPolicy.LATENCY_WEIGHTED);
+        for (int i = 0; i < 30; i++) {
+            IKVMessage get = router.get("hot");
+            assertEquals(IKVMessage.StatusType.GET_SUCCESS, get.getStatus());
+            assertTrue(get.getValue().startsWith("from"));
+        }
+
+        // writes still go to the primary
+        assertEquals(IKVMessage.StatusType.PUT_UPDATE, router.put("hot", "new").getStatus());
+        for (int s = 0; s < servers.length; s++) {
+            servers[s].putKV("hot", null, false);
+        }
+        router.disconnect();
+    }
+}
@@ -0,0 +1,95 @@
+package testing;
+
+import app_kvServer.cache.StripedCache;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class StripedCacheUnitTest extends TestCase {
+
+    public void testPutGetStripedCacheUNIT() throws Exception {
+        StripedCache cache = new StripedCache(100, true);
+        cache.putKV("foo", "bar");
+        assertEquals("bar", cache.getKV("foo"));
+        cache.putKV("foo", "baz");
+        assertEquals("baz", cache.getKV("foo"));
+        assertNull(cache.getKV("missing"));
+        cache.deleteKV("foo");
+        assertFalse(cache.contains("foo"));
+        assertNull(cache.getKV("foo"));
+    }
+
+    public void testCapacityStripedCacheUNIT() throws Exception {
+        StripedCache cache = new StripedCache(64, true, 8);
+        // at least sixteen entries per segment
+        assertEquals(4, cache.segmentCount());
+        for (int i = 0; i < 1000; i++) {
+            cache.putKV("key" + i, "value");
+        }
+        assertTrue(cache.size() <= 64);
+        cache.clear();
+        assertEquals(0, cache.size());
+        try {
+            cache.evictKV();
+            fail("evicted from an empty cache");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    public void testEvictionOrderStripedCacheUNIT() throws Exception {
+        StripedCache lru = new StripedCache(3, true, 1);
+        StripedCache fifo = new StripedCache(3, false, 1);
+        for (StripedCache cache : new StripedCache[] {lru, fifo}) {
+            cache.putKV("foo1", "bar");
+            cache.putKV("foo2", "bar");
+            cache.putKV("foo3", "bar");
+            cache.getKV("foo1");
+            cache.putKV("foo4", "bar");
+        }
+        // the hit keeps foo1 in the LRU cache, FIFO evicts it anyway
+        assertTrue(lru.contains("foo1"));
+        assertFalse(lru.contains("foo2"));
+        assertFalse(fifo.contains("foo1"));
+        assertTrue(fifo.contains("foo2"));
+
+        lru.evictKV();
+        assertFalse(lru.contains("foo3"));
+    }
+
+    public void testConcurrentAccessStripedCacheUNIT() throws Exception {
+        final StripedCache cache = new StripedCache(256, true, 16);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int id = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            String key = "key" + ((i * 31 + id) % 1000);
+                            String value = cache.getKV(key);
+                            if (value != null && !value.equals("value" + key)) {
+                                throw new AssertionError(key + " mapped to " + value);
+                            }
+                            if (value == null) cache.putKV(key, "value" + key);
+                            if (i % 100 == 0) cache.deleteKV(key);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertTrue(cache.size() <= 256);
+    }
+}
@@ -0,0 +1,52 @@
+package testing;
+
+import app_kvServer.cache.TinyLFUCache;
+import junit.framework.TestCase;
+
+public class TinyLFUCacheUnitTest extends TestCase {
+
+    public TinyLFUCache cache = new TinyLFUCache(100);
+
+    public void testPutGetTinyLFUCacheUNIT() throws Exception {
+        cache.putKV("foo", "bar");
+        assertEquals("bar", cache.getKV("foo"));
+        cache.putKV("foo", "baz");
+        assertEquals("baz", cache.getKV("foo"));
+        assertNull(cache.getKV("missing"));
+        cache.deleteKV("foo");
+        assertFalse(cache.contains("foo"));
+    }
+
+    /**
+     * A scan of keys read once must not push out keys that are read often
+     */
+    public void testScanResistanceTinyLFUCacheUNIT() throws Exception {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                if (cache.contains("hot" + i)) cache.getKV("hot" + i);
+                else cache.putKV("hot" + i, "value");
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.putKV("scan" + i, "value");
+        }
+        int kept = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.contains("hot" + i)) kept++;
+        }
+        assertEquals(50, kept);
+    }
+
+    public void testSizeBoundTinyLFUCacheUNIT() throws Exception {
+        TinyLFUCache small = new TinyLFUCache(3);
+        for (int i = 0; i < 20; i++) {
+            small.putKV("foo" + i, "bar");
+            small.getKV("foo" + i);
+        }
+        int cached = 0;
+        for (int i = 0; i < 20; i++) {
+            if (small.contains("foo" + i)) cached++;
+        }
+        assertTrue(cached > 0 && cached <= 3);
+    }
+}
@@ -0,0 +1,89 @@
+package testing;
+
+import database.KVLogDatabase;
+import database.WALDatabase;
+import database.WriteAheadLog;
+import junit.framework.TestCase;
+import org.apache.log4j.BasicConfigurator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public class WriteAheadLogTest extends TestCase {
+
+    private static final String DIR = "./src/KVStorage/waltest";
+    private static final Path LOG = Paths.get(DIR + ".wal");
+    KVLogDatabase store;
+
+    public void setUp() throws Exception {
+        BasicConfigurator.configure();
+        Files.deleteIfExists(LOG);
+        store = new KVLogDatabase(null, DIR);
+        store.clearStorage(false);
+    }
+
+    public void tearDown() throws Exception {
+        store.clearStorage();
+        Files.deleteIfExists(LOG);
+    }
+
+    public void testGroupCommitCoalescesSyncs() throws Exception {
+        final WALDatabase db = new WALDatabase(store, LOG, WriteAheadLog.Durability.BATCH);
+        db.getLog().setCommitWindow(200);
+        final int numThreads = 8;
+        final int numPuts = 50;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int id = t;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < numPuts; i++) {
+                        try {
+                            db.insertPair("t" + id + "_" + i, "v" + i, false);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+
+        assertEquals(numThreads * numPuts, db.getAllKeys().length);
+        assertTrue(db.getLog().getSyncCount() < numThreads * numPuts);
+        db.getLog().close();
+    }
+
+    public void testReplayAfterCrash() throws Exception {
+        // entries that were logged but never reached storage
+        WriteAheadLog log = new WriteAheadLog(LOG, WriteAheadLog.Durability.WRITE);
+        log.append(WriteAheadLog.Op.PUT, "foo", "bar");
+        log.append(WriteAheadLog.Op.PUT, "gone", "soon");
+        log.append(WriteAheadLog.Op.ADD_SUBSCRIBER, "foo", "client1");
+        log.append(WriteAheadLog.Op.DELETE, "gone", null);
+        log.close();
+
+        WALDatabase db = new WALDatabase(store, LOG, WriteAheadLog.Durability.BATCH);
+        assertEquals("bar", db.getValue("foo", false));
+        assertEquals("client1", db.getSubscribers("foo").get(0));
+        assertNull(db.getValue("gone", false));
+        assertEquals(0, db.getLog().size());
+        db.getLog().close();
+    }
+
+    public void testPerWriteDurability() throws Exception {
+        WALDatabase db = new WALDatabase(store, LOG, WriteAheadLog.Durability.WRITE);
+        db.insertPair("a", "1", false);
+        db.insertPair("b", "2", false);
+        assertEquals(2, db.getLog().getSyncCount());
+        assertTrue(db.deletePair("a"));
+        assertNull(db.getValue("a", false));
+        db.getLog().close();
+    }
+}